@@ -17,6 +17,7 @@ import com.crawlergram.crawler.apimethods.CrawlingMethods;
 import com.crawlergram.crawler.apimethods.DialogsHistoryMethods;
 import com.crawlergram.crawler.logs.LogMethods;
 import com.crawlergram.crawler.output.ConsoleOutputMethods;
+import com.crawlergram.crawler.scheduler.CrawlScheduler;
 import org.telegram.api.chat.TLAbsChat;
 import org.telegram.api.dialog.TLDialog;
 import org.telegram.api.engine.ApiCallback;
@@ -27,12 +28,13 @@ import org.telegram.api.message.TLAbsMessage;
 import org.telegram.api.user.TLAbsUser;
 import org.telegram.bot.kernel.engine.MemoryApiState;
 import org.telegram.tl.TLVector;
+import com.crawlergram.db.AsyncDBStorage;
 import com.crawlergram.db.DBStorage;
 import com.crawlergram.db.mongo.MongoDBStorage;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CrawlerMain {
 
@@ -45,7 +47,8 @@ public class CrawlerMain {
 
         // DB "telegram" location - localhost:27017
         // User "telegramJ" - db.createUser({user: "telegramJ", pwd: "cart", roles: [{ role: "readWrite", db: "telegram" }]})
-        DBStorage dbStorage = new MongoDBStorage("telegramJ", "telegram", "cart", "localhost", 27017, "fs");
+        // writes are done in background (up to 64 pending writes), crawling doesn't wait for DB
+        DBStorage dbStorage = new AsyncDBStorage(new MongoDBStorage("telegramJ", "telegram", "cart", "localhost", 27017, "fs"), 64);
 
         //register loggers (registration is preferable, otherwise - output will be in console)
         LogMethods.registerLogs("logs", false);
@@ -68,12 +71,12 @@ public class CrawlerMain {
         // do auth
         AuthMethods.auth(api, apiState, APIKEY, APIHASH, PHONENUMBER, Optional.<String>empty(), Optional.<String>empty());
 
-        // dialogs, chats, users structures
-        Map<Integer, TLAbsChat> chatsHashMap = new HashMap<>();
-        Map<Integer, TLAbsUser> usersHashMap = new HashMap<>();
+        // dialogs, chats, users structures (concurrent - can be shared by parallel crawling)
+        Map<Integer, TLAbsChat> chatsHashMap = new ConcurrentHashMap<>();
+        Map<Integer, TLAbsUser> usersHashMap = new ConcurrentHashMap<>();
         TLVector<TLDialog> dialogs = new TLVector<>();
         //hashmap with top messages (needed for offsets)
-        Map<Integer, TLAbsMessage> messagesHashMap = new HashMap<>();
+        Map<Integer, TLAbsMessage> messagesHashMap = new ConcurrentHashMap<>();
 
         // get all dialogs of user (telegram returns 100 dialogs at maximum, getting by slices)
         DialogsHistoryMethods.getDialogsChatsUsers(api, dialogs, chatsHashMap, usersHashMap, messagesHashMap);
@@ -106,6 +109,16 @@ public class CrawlerMain {
         //Saves only media to HDD
         //CrawlingMethods.saveOnlyMediaToHDD(api, dbStorage, dialogs, chatsHashMap, usersHashMap, messagesHashMap, messagesLimit, maxDate, minDate, maxFileSize, filesPath);
 
+        //Saves messages to DB, several dialogs at once (4 dialogs, 20 requests per second for all of them)
+        //CrawlScheduler scheduler = new CrawlScheduler(4, 20, 5);
+        //Map<Integer, MessageHistoryExclusions> checkpoints = dbStorage.readCheckpoints();
+        //scheduler.crawl(dialogs, (dialog, progress) -> CrawlingMethods.saveOnlyMessages(api, dbStorage, dialog, chatsHashMap, usersHashMap, messagesHashMap, checkpoints, messagesLimit, participantsLimit, filter, maxDate, minDate, progress));
+        //dbStorage.writeUsersHashMap(usersHashMap);
+        //dbStorage.writeChatsHashMap(chatsHashMap);
+
+        // finishes pending writes
+        dbStorage.close();
+
         // stops the execution
         System.exit(0);
     }
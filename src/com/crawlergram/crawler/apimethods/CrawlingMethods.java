@@ -11,13 +11,21 @@ import org.telegram.api.chat.TLAbsChat;
 import org.telegram.api.dialog.TLDialog;
 import org.telegram.api.engine.TelegramApi;
 import org.telegram.api.message.TLAbsMessage;
+import org.telegram.api.message.TLMessage;
+import org.telegram.api.message.TLMessageService;
 import org.telegram.api.user.TLAbsUser;
 import org.telegram.tl.TLObject;
 import org.telegram.tl.TLVector;
+import com.crawlergram.crawler.scheduler.DialogCrawlProgress;
 import com.crawlergram.db.DBStorage;
 import com.crawlergram.db.MessageHistoryExclusions;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import static com.crawlergram.db.Constants.MSG_DIAL_PREF;
 
@@ -42,31 +50,11 @@ public class CrawlingMethods {
                                         Map<Integer, TLAbsUser> usersHashMap,
                                         Map<Integer, TLAbsMessage> messagesHashMap,
                                         int msgLimit, int parLimit, int filter, int maxDate, int minDate) {
+        // checkpoints of all the dialogs with one query
+        Map<Integer, MessageHistoryExclusions> checkpoints = dbStorage.readCheckpoints();
         for (TLDialog dialog : dialogs) {
-
-            MessageHistoryExclusions exclusions = new MessageHistoryExclusions(dbStorage, dialog);
-
-            //reads full dialog info
-            TLObject fullDialog = DialogsHistoryMethods.getFullDialog(api, dialog, chatsHashMap, usersHashMap);
-            //writes full dialog info
-            dbStorage.writeFullDialog(fullDialog, chatsHashMap, usersHashMap);
-
-            //reads participants
-            TLObject participants = DialogsHistoryMethods.getParticipants(api, fullDialog, chatsHashMap, usersHashMap, parLimit, filter);
-            // writes participants of the dialog to "messages + [dialog_id]" table/collection/etc.
-            dbStorage.writeParticipants(participants, dialog);
-
-            //reads the messages
-            TLAbsMessage topMessage = DialogsHistoryMethods.getTopMessage(dialog, messagesHashMap);
-            TLVector<TLAbsMessage> absMessages;
-            if (exclusions.exist()){
-                absMessages = DialogsHistoryMethods.getWholeMessagesHistoryWithExclusions(api, dialog, chatsHashMap, usersHashMap, topMessage, exclusions, msgLimit, maxDate, minDate);
-            } else {
-                absMessages = DialogsHistoryMethods.getWholeMessagesHistory(api, dialog, chatsHashMap, usersHashMap, topMessage, msgLimit, maxDate, minDate);
-            }
-            // writes messages of the dialog to "messages + [dialog_id]" table/collection/etc.
-            dbStorage.writeTLAbsMessages(absMessages, dialog);
-
+            saveOnlyMessages(api, dbStorage, dialog, chatsHashMap, usersHashMap, messagesHashMap, checkpoints,
+                    msgLimit, parLimit, filter, maxDate, minDate, new DialogCrawlProgress(dialog));
             // sleep between transmissions to avoid flood wait
             try {Thread.sleep(1000);} catch (InterruptedException ignored) {}
         }
@@ -75,6 +63,56 @@ public class CrawlingMethods {
         dbStorage.writeChatsHashMap(chatsHashMap);
     }
 
+    /**
+     * Writes only messages of a single dialog to DB
+     * @param	api  TelegramApi instance for RPC request
+     * @param   dbStorage   database instance
+     * @param   dialog dialog
+     * @param   chatsHashMap    chats hashmap
+     * @param   usersHashMap    users hashmap
+     * @param   messagesHashMap top messages
+     * @param   checkpoints checkpoints of the dialogs (see DBStorage.readCheckpoints), read from db if null
+     * @param   msgLimit   maximum number of retrieved messages from each dialog (0 if all )
+     * @param   parLimit   maximum number of retrieved participants from each dialog (0 if all)
+     * @param   filter  participants filter: 0 - recent, 1 - admins, 2 - kicked, 3 - bots, default - recent
+     * @param   maxDate max date of diapason for saving
+     * @param   minDate min date of diapason for saving
+     * @param   progress    progress of the dialog
+     */
+    public static void saveOnlyMessages(TelegramApi api, DBStorage dbStorage, TLDialog dialog,
+                                        Map<Integer, TLAbsChat> chatsHashMap,
+                                        Map<Integer, TLAbsUser> usersHashMap,
+                                        Map<Integer, TLAbsMessage> messagesHashMap,
+                                        Map<Integer, MessageHistoryExclusions> checkpoints,
+                                        int msgLimit, int parLimit, int filter, int maxDate, int minDate,
+                                        DialogCrawlProgress progress) {
+        MessageHistoryExclusions exclusions = new MessageHistoryExclusions(dbStorage, dialog, checkpoints);
+        DialogCheckpoint checkpoint = new DialogCheckpoint(dbStorage, dialog, exclusions);
+
+        //reads full dialog info
+        TLObject fullDialog = DialogsHistoryMethods.getFullDialog(api, dialog, chatsHashMap, usersHashMap);
+        //writes full dialog info
+        dbStorage.writeFullDialog(fullDialog, chatsHashMap, usersHashMap);
+
+        //reads participants
+        TLObject participants = DialogsHistoryMethods.getParticipants(api, fullDialog, chatsHashMap, usersHashMap, parLimit, filter);
+        // writes participants of the dialog to "messages + [dialog_id]" table/collection/etc.
+        dbStorage.writeParticipants(participants, dialog);
+
+        //reads the messages page by page and writes them to "messages + [dialog_id]" table/collection/etc.
+        streamMessages(api, dialog, chatsHashMap, usersHashMap, messagesHashMap, exclusions, msgLimit, maxDate, minDate,
+                absMessages -> {
+                    // checkpoint is extended when the storage confirms the write of the page
+                    dbStorage.writeTLAbsMessages(absMessages, dialog, checkpoint.submit(absMessages));
+                    progress.addMessages(absMessages.size());
+                    checkpoint.update();
+                }, checkpoint::newerPartDone);
+        // waits for pending writes of the dialog
+        dbStorage.flush();
+        checkpoint.finish();
+        dbStorage.flush();
+    }
+
     /**
      * Writes only messages to HDD
      * @param	api  TelegramApi instance for RPC request
@@ -93,28 +131,52 @@ public class CrawlingMethods {
                                           Map<Integer, TLAbsUser> usersHashMap,
                                           Map<Integer, TLAbsMessage> messagesHashMap,
                                           int msgLimit, int maxDate, int minDate, int maxSize, String path) {
+        // checkpoints of all the dialogs with one query
+        Map<Integer, MessageHistoryExclusions> checkpoints = dbStorage.readCheckpoints();
         for (TLDialog dialog : dialogs) {
-
-            MessageHistoryExclusions exclusions = new MessageHistoryExclusions(dbStorage, dialog);
-
-            //reads the messages
-            TLAbsMessage topMessage = DialogsHistoryMethods.getTopMessage(dialog, messagesHashMap);
-            TLVector<TLAbsMessage> absMessages;
-            if (exclusions.exist()){
-                absMessages = DialogsHistoryMethods.getWholeMessagesHistoryWithExclusions(api, dialog, chatsHashMap, usersHashMap, topMessage, exclusions, msgLimit, maxDate, minDate);
-            } else {
-                absMessages = DialogsHistoryMethods.getWholeMessagesHistory(api, dialog, chatsHashMap, usersHashMap, topMessage, msgLimit, maxDate, minDate);
-            }
-
-            for (TLAbsMessage absMessage: absMessages){
-                MediaDownloadMethods.messageDownloadMediaToHDD(api, absMessage, maxSize, path);
-            }
-
+            saveOnlyMediaToHDD(api, dbStorage, dialog, chatsHashMap, usersHashMap, messagesHashMap, checkpoints,
+                    msgLimit, maxDate, minDate, maxSize, path, new DialogCrawlProgress(dialog));
             // sleep between transmissions to avoid flood wait
             try {Thread.sleep(1000);} catch (InterruptedException ignored) {}
         }
     }
 
+    /**
+     * Writes only media of a single dialog to HDD
+     * @param	api  TelegramApi instance for RPC request
+     * @param   dbStorage   database instance
+     * @param   dialog dialog
+     * @param   chatsHashMap    chats hashmap
+     * @param   usersHashMap    users hashmap
+     * @param   messagesHashMap top messages
+     * @param   checkpoints checkpoints of the dialogs (see DBStorage.readCheckpoints), read from db if null
+     * @param   msgLimit   maximum number of retrieved messages from each dialog (0 if all )
+     * @param   maxDate max date of diapason for saving
+     * @param   minDate min date of diapason for saving
+     * @param   path    file system path
+     * @param   progress    progress of the dialog
+     */
+    public static void saveOnlyMediaToHDD(TelegramApi api, DBStorage dbStorage, TLDialog dialog,
+                                          Map<Integer, TLAbsChat> chatsHashMap,
+                                          Map<Integer, TLAbsUser> usersHashMap,
+                                          Map<Integer, TLAbsMessage> messagesHashMap,
+                                          Map<Integer, MessageHistoryExclusions> checkpoints,
+                                          int msgLimit, int maxDate, int minDate, int maxSize, String path,
+                                          DialogCrawlProgress progress) {
+        MessageHistoryExclusions exclusions = new MessageHistoryExclusions(dbStorage, dialog, checkpoints);
+
+        //reads the messages page by page and downloads the media
+        streamMessages(api, dialog, chatsHashMap, usersHashMap, messagesHashMap, exclusions, msgLimit, maxDate, minDate,
+                absMessages -> {
+                    for (TLAbsMessage absMessage: absMessages){
+                        MediaDownloadMethods.messageDownloadMediaToHDD(api, dbStorage, absMessage, maxSize, path);
+                    }
+                    progress.addMessages(absMessages.size());
+                }, () -> {});
+        // waits for pending writes of the dialog
+        dbStorage.flush();
+    }
+
     /**
      * Writes only messages to DB
      * @param	api  TelegramApi instance for RPC request
@@ -132,28 +194,51 @@ public class CrawlingMethods {
                                           Map<Integer, TLAbsUser> usersHashMap,
                                           Map<Integer, TLAbsMessage> messagesHashMap,
                                           int msgLimit, int maxDate, int minDate) {
+        // checkpoints of all the dialogs with one query
+        Map<Integer, MessageHistoryExclusions> checkpoints = dbStorage.readCheckpoints();
         for (TLDialog dialog : dialogs) {
-
-            MessageHistoryExclusions exclusions = new MessageHistoryExclusions(dbStorage, dialog);
-
-            //reads the messages
-            TLAbsMessage topMessage = DialogsHistoryMethods.getTopMessage(dialog, messagesHashMap);
-            TLVector<TLAbsMessage> absMessages;
-            if (exclusions.exist()){
-                absMessages = DialogsHistoryMethods.getWholeMessagesHistoryWithExclusions(api, dialog, chatsHashMap, usersHashMap, topMessage, exclusions, msgLimit, maxDate, minDate);
-            } else {
-                absMessages = DialogsHistoryMethods.getWholeMessagesHistory(api, dialog, chatsHashMap, usersHashMap, topMessage, msgLimit, maxDate, minDate);
-            }
-
-            for (TLAbsMessage absMessage: absMessages){
-                MediaDownloadMethods.messageDownloadMediaToDB(api, dbStorage, absMessage, maxDate);
-            }
-
+            saveOnlyMediaToDB(api, dbStorage, dialog, chatsHashMap, usersHashMap, messagesHashMap, checkpoints,
+                    msgLimit, maxDate, minDate, new DialogCrawlProgress(dialog));
             // sleep between transmissions to avoid flood wait
             try {Thread.sleep(1000);} catch (InterruptedException ignored) {}
         }
     }
 
+    /**
+     * Writes only media of a single dialog to DB
+     * @param	api  TelegramApi instance for RPC request
+     * @param   dbStorage   database instance
+     * @param   dialog dialog
+     * @param   chatsHashMap    chats hashmap
+     * @param   usersHashMap    users hashmap
+     * @param   messagesHashMap top messages
+     * @param   checkpoints checkpoints of the dialogs (see DBStorage.readCheckpoints), read from db if null
+     * @param   msgLimit   maximum number of retrieved messages from each dialog (0 if all )
+     * @param   maxDate max date of diapason for saving
+     * @param   minDate min date of diapason for saving
+     * @param   progress    progress of the dialog
+     */
+    public static void saveOnlyMediaToDB(TelegramApi api, DBStorage dbStorage, TLDialog dialog,
+                                         Map<Integer, TLAbsChat> chatsHashMap,
+                                         Map<Integer, TLAbsUser> usersHashMap,
+                                         Map<Integer, TLAbsMessage> messagesHashMap,
+                                         Map<Integer, MessageHistoryExclusions> checkpoints,
+                                         int msgLimit, int maxDate, int minDate,
+                                         DialogCrawlProgress progress) {
+        MessageHistoryExclusions exclusions = new MessageHistoryExclusions(dbStorage, dialog, checkpoints);
+
+        //reads the messages page by page and downloads the media
+        streamMessages(api, dialog, chatsHashMap, usersHashMap, messagesHashMap, exclusions, msgLimit, maxDate, minDate,
+                absMessages -> {
+                    for (TLAbsMessage absMessage: absMessages){
+                        MediaDownloadMethods.messageDownloadMediaToDB(api, dbStorage, absMessage, maxDate);
+                    }
+                    progress.addMessages(absMessages.size());
+                }, () -> {});
+        // waits for pending writes of the dialog
+        dbStorage.flush();
+    }
+
     /**
      * Writes messages and files to HDD
      * @param	api  TelegramApi instance for RPC request
@@ -175,46 +260,75 @@ public class CrawlingMethods {
                                             Map<Integer, TLAbsUser> usersHashMap,
                                             Map<Integer, TLAbsMessage> messagesHashMap,
                                             int msgLimit, int parLimit, int filter, int maxDate, int minDate, int maxSize, String path) {
+        // checkpoints of all the dialogs with one query
+        Map<Integer, MessageHistoryExclusions> checkpoints = dbStorage.readCheckpoints();
         for (TLDialog dialog : dialogs) {
-
-            MessageHistoryExclusions exclusions = new MessageHistoryExclusions(dbStorage, dialog);
-
-            //reads full dialog info
-            TLObject fullDialog = DialogsHistoryMethods.getFullDialog(api, dialog, chatsHashMap, usersHashMap);
-            //writes full dialog info
-            dbStorage.writeFullDialog(fullDialog, chatsHashMap, usersHashMap);
-
-            //reads participants
-            TLObject participants = DialogsHistoryMethods.getParticipants(api, fullDialog, chatsHashMap, usersHashMap, parLimit, filter);
-            // writes participants of the dialog to "messages + [dialog_id]" table/collection/etc.
-            dbStorage.writeParticipants(participants, dialog);
-
-            //reads the messages
-            TLAbsMessage topMessage = DialogsHistoryMethods.getTopMessage(dialog, messagesHashMap);
-            TLVector<TLAbsMessage> absMessages;
-            if (exclusions.exist()){
-                absMessages = DialogsHistoryMethods.getWholeMessagesHistoryWithExclusions(api, dialog, chatsHashMap, usersHashMap, topMessage, exclusions, msgLimit, maxDate, minDate);
-            } else {
-                absMessages = DialogsHistoryMethods.getWholeMessagesHistory(api, dialog, chatsHashMap, usersHashMap, topMessage, msgLimit, maxDate, minDate);
-            }
-
-            // writes messages of the dialog to "messages + [dialog_id]" table/collection/etc.
-            dbStorage.setTarget(MSG_DIAL_PREF + dialog.getPeer().getId());
-            for (TLAbsMessage absMessage: absMessages){
-                String reference = MediaDownloadMethods.messageDownloadMediaToHDD(api, absMessage, maxSize, path);
-                if (reference != null){
-                    dbStorage.writeTLAbsMessageWithReference(absMessage, reference);
-                } else {
-                    dbStorage.writeTLAbsMessage(absMessage);
-                }
-            }
-
+            saveMessagesToDBFilesToHDD(api, dbStorage, dialog, chatsHashMap, usersHashMap, messagesHashMap, checkpoints,
+                    msgLimit, parLimit, filter, maxDate, minDate, maxSize, path, new DialogCrawlProgress(dialog));
         }
         // write hashmaps
         dbStorage.writeUsersHashMap(usersHashMap);
         dbStorage.writeChatsHashMap(chatsHashMap);
     }
 
+    /**
+     * Writes messages of a single dialog to DB and files to HDD
+     * @param	api  TelegramApi instance for RPC request
+     * @param   dbStorage   database instance
+     * @param   dialog dialog
+     * @param   chatsHashMap    chats hashmap
+     * @param   usersHashMap    users hashmap
+     * @param   messagesHashMap top messages
+     * @param   checkpoints checkpoints of the dialogs (see DBStorage.readCheckpoints), read from db if null
+     * @param   msgLimit   maximum number of retrieved messages from each dialog (0 if all )
+     * @param   parLimit   maximum number of retrieved participants from each dialog (0 if all)
+     * @param   filter  participants filter: 0 - recent, 1 - admins, 2 - kicked, 3 - bots, default - recent
+     * @param   maxDate max date of diapason for saving
+     * @param   minDate min date of diapason for saving
+     * @param   maxSize max allowed size of file to download
+     * @param   path    file system path
+     * @param   progress    progress of the dialog
+     */
+    public static void saveMessagesToDBFilesToHDD(TelegramApi api, DBStorage dbStorage, TLDialog dialog,
+                                                  Map<Integer, TLAbsChat> chatsHashMap,
+                                                  Map<Integer, TLAbsUser> usersHashMap,
+                                                  Map<Integer, TLAbsMessage> messagesHashMap,
+                                                  Map<Integer, MessageHistoryExclusions> checkpoints,
+                                                  int msgLimit, int parLimit, int filter, int maxDate, int minDate,
+                                                  int maxSize, String path, DialogCrawlProgress progress) {
+        MessageHistoryExclusions exclusions = new MessageHistoryExclusions(dbStorage, dialog, checkpoints);
+        DialogCheckpoint checkpoint = new DialogCheckpoint(dbStorage, dialog, exclusions);
+
+        //reads full dialog info
+        TLObject fullDialog = DialogsHistoryMethods.getFullDialog(api, dialog, chatsHashMap, usersHashMap);
+        //writes full dialog info
+        dbStorage.writeFullDialog(fullDialog, chatsHashMap, usersHashMap);
+
+        //reads participants
+        TLObject participants = DialogsHistoryMethods.getParticipants(api, fullDialog, chatsHashMap, usersHashMap, parLimit, filter);
+        // writes participants of the dialog to "messages + [dialog_id]" table/collection/etc.
+        dbStorage.writeParticipants(participants, dialog);
+
+        //reads the messages page by page, downloads the media and writes messages of the dialog to
+        // "messages + [dialog_id]" table/collection/etc.
+        dbStorage.setTarget(MSG_DIAL_PREF + dialog.getPeer().getId());
+        streamMessages(api, dialog, chatsHashMap, usersHashMap, messagesHashMap, exclusions, msgLimit, maxDate, minDate,
+                absMessages -> {
+                    List<String> references = new ArrayList<>(absMessages.size());
+                    for (TLAbsMessage absMessage: absMessages){
+                        references.add(MediaDownloadMethods.messageDownloadMediaToHDD(api, dbStorage, absMessage, maxSize, path));
+                    }
+                    // checkpoint is extended when the storage confirms the write of the page
+                    dbStorage.writeTLAbsMessagesWithReferences(absMessages, references, dialog, checkpoint.submit(absMessages));
+                    progress.addMessages(absMessages.size());
+                    checkpoint.update();
+                }, checkpoint::newerPartDone);
+        // waits for pending writes of the dialog
+        dbStorage.flush();
+        checkpoint.finish();
+        dbStorage.flush();
+    }
+
     /**
      * Writes only messages to DB
      * @param	api  TelegramApi instance for RPC request
@@ -235,44 +349,240 @@ public class CrawlingMethods {
                                                   Map<Integer, TLAbsUser> usersHashMap,
                                                   Map<Integer, TLAbsMessage> messagesHashMap,
                                                   int msgLimit, int parLimit, int filter, int maxDate, int minDate, int maxSize) {
+        // checkpoints of all the dialogs with one query
+        Map<Integer, MessageHistoryExclusions> checkpoints = dbStorage.readCheckpoints();
         for (TLDialog dialog : dialogs) {
+            saveMessagesToDBFilesToDB(api, dbStorage, dialog, chatsHashMap, usersHashMap, messagesHashMap, checkpoints,
+                    msgLimit, parLimit, filter, maxDate, minDate, maxSize, new DialogCrawlProgress(dialog));
+        }
+        // write hashmaps
+        dbStorage.writeUsersHashMap(usersHashMap);
+        dbStorage.writeChatsHashMap(chatsHashMap);
+    }
 
-            MessageHistoryExclusions exclusions = new MessageHistoryExclusions(dbStorage, dialog);
+    /**
+     * Writes messages and files of a single dialog to DB
+     * @param	api  TelegramApi instance for RPC request
+     * @param   dbStorage   database instance
+     * @param   dialog dialog
+     * @param   chatsHashMap    chats hashmap
+     * @param   usersHashMap    users hashmap
+     * @param   messagesHashMap top messages
+     * @param   checkpoints checkpoints of the dialogs (see DBStorage.readCheckpoints), read from db if null
+     * @param   msgLimit   maximum number of retrieved messages from each dialog (0 if all )
+     * @param   parLimit   maximum number of retrieved participants from each dialog (0 if all)
+     * @param   filter  participants filter: 0 - recent, 1 - admins, 2 - kicked, 3 - bots, default - recent
+     * @param   maxDate max date of diapason for saving
+     * @param   minDate min date of diapason for saving
+     * @param   maxSize max allowed size of file to download
+     * @param   progress    progress of the dialog
+     */
+    public static void saveMessagesToDBFilesToDB(TelegramApi api, DBStorage dbStorage, TLDialog dialog,
+                                                 Map<Integer, TLAbsChat> chatsHashMap,
+                                                 Map<Integer, TLAbsUser> usersHashMap,
+                                                 Map<Integer, TLAbsMessage> messagesHashMap,
+                                                 Map<Integer, MessageHistoryExclusions> checkpoints,
+                                                 int msgLimit, int parLimit, int filter, int maxDate, int minDate,
+                                                 int maxSize, DialogCrawlProgress progress) {
+        MessageHistoryExclusions exclusions = new MessageHistoryExclusions(dbStorage, dialog, checkpoints);
+        DialogCheckpoint checkpoint = new DialogCheckpoint(dbStorage, dialog, exclusions);
+
+        //reads full dialog info
+        TLObject fullDialog = DialogsHistoryMethods.getFullDialog(api, dialog, chatsHashMap, usersHashMap);
+        //writes full dialog info
+        dbStorage.writeFullDialog(fullDialog, chatsHashMap, usersHashMap);
+
+        //reads participants
+        TLObject participants = DialogsHistoryMethods.getParticipants(api, fullDialog, chatsHashMap, usersHashMap, parLimit, filter);
+        // writes participants of the dialog to "messages + [dialog_id]" table/collection/etc.
+        dbStorage.writeParticipants(participants, dialog);
+
+        //reads the messages page by page, downloads the media and writes messages of the dialog to
+        // "messages + [dialog_id]" table/collection/etc.
+        dbStorage.setTarget(MSG_DIAL_PREF + dialog.getPeer().getId());
+        streamMessages(api, dialog, chatsHashMap, usersHashMap, messagesHashMap, exclusions, msgLimit, maxDate, minDate,
+                absMessages -> {
+                    List<String> references = new ArrayList<>(absMessages.size());
+                    for (TLAbsMessage absMessage: absMessages){
+                        references.add(MediaDownloadMethods.messageDownloadMediaToDB(api, dbStorage, absMessage, maxSize));
+                    }
+                    // checkpoint is extended when the storage confirms the write of the page
+                    dbStorage.writeTLAbsMessagesWithReferences(absMessages, references, dialog, checkpoint.submit(absMessages));
+                    progress.addMessages(absMessages.size());
+                    checkpoint.update();
+                }, checkpoint::newerPartDone);
+        // waits for pending writes of the dialog
+        dbStorage.flush();
+        checkpoint.finish();
+        dbStorage.flush();
+    }
 
-            //reads full dialog info
-            TLObject fullDialog = DialogsHistoryMethods.getFullDialog(api, dialog, chatsHashMap, usersHashMap);
-            //writes full dialog info
-            dbStorage.writeFullDialog(fullDialog, chatsHashMap, usersHashMap);
+    /**
+     * Reads the messages of the dialog page by page (skips the messages which are already in DB)
+     * @param	api  TelegramApi instance for RPC request
+     * @param   dialog dialog
+     * @param   chatsHashMap    chats hashmap
+     * @param   usersHashMap    users hashmap
+     * @param   messagesHashMap top messages
+     * @param   exclusions  messages existing in DB
+     * @param   msgLimit   maximum number of retrieved messages from each dialog (0 if all )
+     * @param   maxDate max date of diapason for saving
+     * @param   minDate min date of diapason for saving
+     * @param   sink    consumer of the pages
+     * @param   newerPartDone   called if messages newer than the ones in DB are read completely (see
+     *                          DialogsHistoryMethods.streamWholeMessagesHistoryWithExclusions)
+     */
+    private static void streamMessages(TelegramApi api, TLDialog dialog,
+                                       Map<Integer, TLAbsChat> chatsHashMap,
+                                       Map<Integer, TLAbsUser> usersHashMap,
+                                       Map<Integer, TLAbsMessage> messagesHashMap,
+                                       MessageHistoryExclusions exclusions,
+                                       int msgLimit, int maxDate, int minDate,
+                                       Consumer<TLVector<TLAbsMessage>> sink,
+                                       Runnable newerPartDone) {
+        TLAbsMessage topMessage = DialogsHistoryMethods.getTopMessage(dialog, messagesHashMap);
+        if (exclusions.exist()){
+            DialogsHistoryMethods.streamWholeMessagesHistoryWithExclusions(api, dialog, chatsHashMap, usersHashMap, topMessage, exclusions, msgLimit, maxDate, minDate, sink, newerPartDone);
+        } else {
+            DialogsHistoryMethods.streamWholeMessagesHistory(api, dialog, chatsHashMap, usersHashMap, topMessage, msgLimit, maxDate, minDate, sink);
+        }
+    }
 
-            //reads participants
-            TLObject participants = DialogsHistoryMethods.getParticipants(api, fullDialog, chatsHashMap, usersHashMap, parLimit, filter);
-            // writes participants of the dialog to "messages + [dialog_id]" table/collection/etc.
-            dbStorage.writeParticipants(participants, dialog);
+    /**
+     * Extends the checkpoint of the dialog while messages are written. Checkpoint always describes a contiguous range
+     * of saved messages: pages are added to it only after the storage confirms their write, in order of reading, and
+     * the first failed page stops the checkpoint (the rest is read again by the next crawl). Messages newer than the
+     * existing range are saved to the checkpoint only when they reach it (the newer part of the history is read
+     * completely), messages older than the existing range are saved page by page.
+     */
+    private static class DialogCheckpoint {
+
+        private final DBStorage dbStorage;
+        private final TLDialog dialog;
+        private final Integer excludedMinId; // min id of the existing range (null if no range)
+        private final Deque<Page> pages = new ArrayDeque<>(); // pages passed to the storage, in order of reading
+        private boolean failed = false; // write of a page failed, checkpoint isn't extended anymore
+        private boolean newerPartDone = false; // newer messages reached the existing range
+        private int minId = Integer.MAX_VALUE; // pending range of newer messages
+        private int minDate;
+        private int maxId = Integer.MIN_VALUE;
+        private int maxDate;
+
+        /**
+         * Page of messages passed to the storage, state is set by the storage (possibly from the writer thread)
+         */
+        private static class Page {
+
+            private int minId = Integer.MAX_VALUE;
+            private int minDate;
+            private int maxId = Integer.MIN_VALUE;
+            private int maxDate;
+            private volatile int state = 0; // 0 - not written yet, 1 - written, -1 - failed
+
+            Page(TLVector<TLAbsMessage> absMessages) {
+                for (TLAbsMessage absMessage : absMessages) {
+                    int id, date;
+                    if (absMessage instanceof TLMessage) {
+                        id = ((TLMessage) absMessage).getId();
+                        date = ((TLMessage) absMessage).getDate();
+                    } else if (absMessage instanceof TLMessageService) {
+                        id = ((TLMessageService) absMessage).getId();
+                        date = ((TLMessageService) absMessage).getDate();
+                    } else {
+                        continue;
+                    }
+                    if (id < minId) { minId = id; minDate = date; }
+                    if (id > maxId) { maxId = id; maxDate = date; }
+                }
+            }
 
-            //reads the messages
-            TLAbsMessage topMessage = DialogsHistoryMethods.getTopMessage(dialog, messagesHashMap);
-            TLVector<TLAbsMessage> absMessages;
-            if (exclusions.exist()){
-                absMessages = DialogsHistoryMethods.getWholeMessagesHistoryWithExclusions(api, dialog, chatsHashMap, usersHashMap, topMessage, exclusions, msgLimit, maxDate, minDate);
-            } else {
-                absMessages = DialogsHistoryMethods.getWholeMessagesHistory(api, dialog, chatsHashMap, usersHashMap, topMessage, msgLimit, maxDate, minDate);
+            void written(Boolean written) {
+                state = written ? 1 : -1;
             }
+        }
 
-            // writes messages of the dialog to "messages + [dialog_id]" table/collection/etc.
-            dbStorage.setTarget(MSG_DIAL_PREF + dialog.getPeer().getId());
-            for (TLAbsMessage absMessage: absMessages){
-                String reference = MediaDownloadMethods.messageDownloadMediaToDB(api, dbStorage, absMessage, maxSize);
-                if (reference != null){
-                    dbStorage.writeTLAbsMessageWithReference(absMessage, reference);
-                } else {
-                    dbStorage.writeTLAbsMessage(absMessage);
+        DialogCheckpoint(DBStorage dbStorage, TLDialog dialog, MessageHistoryExclusions exclusions) {
+            this.dbStorage = dbStorage;
+            this.dialog = dialog;
+            this.excludedMinId = exclusions.exist() ? exclusions.getMinId() : null;
+        }
+
+        /**
+         * registers page of messages before it is passed to the storage (pages come from the newest to the oldest),
+         * returns callback for the result of the write
+         * @param absMessages page
+         */
+        Consumer<Boolean> submit(TLVector<TLAbsMessage> absMessages) {
+            Page page = new Page(absMessages);
+            pages.add(page);
+            return page::written;
+        }
+
+        /**
+         * newer part of the history is read completely, pending range of newer messages joins the existing range
+         */
+        void newerPartDone() {
+            newerPartDone = true;
+        }
+
+        /**
+         * extends the checkpoint with the written pages (stops at the first page, which isn't written yet)
+         */
+        void update() {
+            while (!pages.isEmpty() && (pages.peek().state != 0)) {
+                Page page = pages.poll();
+                if (failed) continue;
+                if (page.state < 0) {
+                    // the range can't go over the failed page
+                    failed = true;
+                    dropPending();
+                } else if (page.minId <= page.maxId) {
+                    add(page);
                 }
             }
+        }
 
+        /**
+         * adds written page to the checkpoint
+         * @param page page
+         */
+        private void add(Page page) {
+            if ((excludedMinId == null) || (page.maxId < excludedMinId)) {
+                // continues the range downwards
+                savePending();
+                dbStorage.writeCheckpoint(dialog, page.minId, page.minDate, page.maxId, page.maxDate);
+            } else {
+                // newer messages, range isn't contiguous until they reach the existing one
+                if (page.minId < minId) { minId = page.minId; minDate = page.minDate; }
+                if (page.maxId > maxId) { maxId = page.maxId; maxDate = page.maxDate; }
+            }
+        }
+
+        /**
+         * writes pending range of newer messages if it joins the existing range, drops it otherwise (these
+         * messages are read again by the next crawl)
+         */
+        private void savePending() {
+            if ((minId <= maxId) && (newerPartDone || ((excludedMinId != null) && (minId <= excludedMinId)))) {
+                dbStorage.writeCheckpoint(dialog, minId, minDate, maxId, maxDate);
+            }
+            dropPending();
+        }
+
+        private void dropPending() {
+            minId = Integer.MAX_VALUE;
+            maxId = Integer.MIN_VALUE;
+        }
+
+        /**
+         * adds the rest of the written pages and the pending range of newer messages, should be called after the
+         * pending writes of the dialog are done
+         */
+        void finish() {
+            update();
+            if (!failed) savePending();
+            pages.clear();
         }
-        // write hashmaps
-        dbStorage.writeUsersHashMap(usersHashMap);
-        dbStorage.writeChatsHashMap(chatsHashMap);
     }
 
 }
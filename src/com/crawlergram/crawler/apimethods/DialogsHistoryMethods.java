@@ -19,7 +19,6 @@ import org.telegram.api.chat.invite.TLChatInvite;
 import org.telegram.api.chat.participant.chatparticipants.TLAbsChatParticipants;
 import org.telegram.api.chat.participant.chatparticipants.TLChatParticipants;
 import org.telegram.api.dialog.TLDialog;
-import org.telegram.api.engine.RpcException;
 import org.telegram.api.engine.TelegramApi;
 import org.telegram.api.engine.storage.AbsApiState;
 import org.telegram.api.functions.channels.TLRequestChannelsGetFullChannel;
@@ -44,17 +43,15 @@ import org.telegram.api.peer.TLPeerChat;
 import org.telegram.api.peer.TLPeerUser;
 import org.telegram.api.user.TLAbsUser;
 import org.telegram.api.user.TLUserFull;
-import org.telegram.tl.TLMethod;
 import org.telegram.tl.TLObject;
 import org.telegram.tl.TLVector;
 import com.crawlergram.db.MessageHistoryExclusions;
 
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 public class DialogsHistoryMethods {
 
@@ -76,13 +73,10 @@ public class DialogsHistoryMethods {
         TLAbsDialogs absDialogs = new TLDialogs();
         Set<Integer> dialogIdSet = new HashSet<>();
         // read dialogs
-        try {
-            TLRequestMessagesGetDialogs getDialogs = SetTLObjectsMethods.getDialogsSet();
-            absDialogs = api.doRpcCall(getDialogs);
-        } catch (RpcException e) {
-            System.err.println(e.getErrorTag() + " " + e.getErrorCode());
-        } catch (TimeoutException | IOException e) {
-            System.err.println(e.getMessage());
+        TLRequestMessagesGetDialogs getDialogs = SetTLObjectsMethods.getDialogsSet();
+        TLAbsDialogs firstDialogs = RpcRateLimiter.doRpcCall(api, getDialogs);
+        if (firstDialogs != null) {
+            absDialogs = firstDialogs;
         }
         setDialogsChatsUsersStructures(absDialogs, dialogs, chatsHashMap, usersHashMap, messagesHashMap, dialogIdSet);
         // if slice of dialogs, get rest of the dialogs in loop by chunks
@@ -98,14 +92,10 @@ public class DialogsHistoryMethods {
                 int offId = getLastNonEmptyMessageId(lastAbsMes);
                 int offDate = getLastNonEmptyMessageDate(lastAbsMes);
                 // chunk request
-                try {
-                    TLRequestMessagesGetDialogs getDialogs = SetTLObjectsMethods.getDialogsSet(100, offId, absInputPeerOffset, offDate);
-                    absDialogs = api.doRpcCall(getDialogs);
-                } catch (RpcException e) {
-                    System.err.println(e.getErrorTag() + " " + e.getErrorCode());
-                } catch (TimeoutException | IOException e) {
-                    System.err.println(e.getMessage());
-                }
+                getDialogs = SetTLObjectsMethods.getDialogsSet(100, offId, absInputPeerOffset, offDate);
+                absDialogs = RpcRateLimiter.doRpcCall(api, getDialogs);
+                // chunk can't be retrieved
+                if (absDialogs == null) {break;}
                 setDialogsChatsUsersStructures(absDialogs, dialogs, chatsHashMap, usersHashMap, messagesHashMap, dialogIdSet);
                 curCount = dialogs.size();
             }
@@ -202,39 +192,29 @@ public class DialogsHistoryMethods {
                                                                      Map<Integer, TLAbsChat> chatsHashMap,
                                                                      Map<Integer, TLAbsUser> usersHashMap,
                                                                      int limit) {
-        // sleep time (Telegram can send FLOOD WAIT ERROR if the requests are done too often)
-        int sleepTime = 100;
-        if ((limit > 1000) || (limit == 0)){sleepTime = 1000;}
         TLVector<TLAbsMessage> messages = new TLVector<>();
         Set<Integer> messageIdSet = new HashSet<>();
         int offId = 0; // offset id
         int offDate = 0; // offset date
         int receivedMsgs = 0; // received messages
-        try {
-            while (receivedMessagesCheck(receivedMsgs, limit)) {
-                TLRequestMessagesGetHistory getHistory = SetTLObjectsMethods.getHistoryRequestSet(dialog, chatsHashMap, usersHashMap, 100, offDate, offId);
-                TLAbsMessages absMessages = api.doRpcCall(getHistory);
-                // if returns no messages -> break the loop
-                if (absMessages == null || absMessages.getMessages().isEmpty() || absMessages.getMessages() == null){ break; }
-                // update known users and chats hashmaps
-                insertIntoChatsHashMap(chatsHashMap, absMessages.getChats());
-                insertIntoUsersHashMap(usersHashMap, absMessages.getUsers());
-                // abstract messages
-                TLVector<TLAbsMessage> absMessagesVector = absMessages.getMessages();
-                // collect only messages written by users
-                getOnlyUsersMessagesFromHistory(messages, absMessagesVector, messageIdSet);
-                receivedMsgs = messages.size();
-                // if returns number of messages lesser than chunk size (100) - end of the chat -> break the loop
-                if (absMessagesVector.size() < 100){ break; }
-                // offsets: last offset + chunk size (100)
-                offId = ((TLMessage) messages.get(messages.size()-1)).getId();
-                offDate = ((TLMessage) messages.get(messages.size()-1)).getDate();
-                try {Thread.sleep(sleepTime);} catch (InterruptedException ignored) {}
-            }
-        } catch (RpcException e) {
-            System.err.println(e.getErrorTag() + " " + e.getErrorCode());
-        } catch (TimeoutException | IOException e) {
-            System.err.println(e.getMessage());
+        while (receivedMessagesCheck(receivedMsgs, limit)) {
+            TLRequestMessagesGetHistory getHistory = SetTLObjectsMethods.getHistoryRequestSet(dialog, chatsHashMap, usersHashMap, 100, offDate, offId);
+            TLAbsMessages absMessages = RpcRateLimiter.doRpcCall(api, getHistory);
+            // if returns no messages -> break the loop
+            if (absMessages == null || absMessages.getMessages() == null || absMessages.getMessages().isEmpty()){ break; }
+            // update known users and chats hashmaps
+            insertIntoChatsHashMap(chatsHashMap, absMessages.getChats());
+            insertIntoUsersHashMap(usersHashMap, absMessages.getUsers());
+            // abstract messages
+            TLVector<TLAbsMessage> absMessagesVector = absMessages.getMessages();
+            // collect only messages written by users
+            getOnlyUsersMessagesFromHistory(messages, absMessagesVector, messageIdSet);
+            receivedMsgs = messages.size();
+            // if returns number of messages lesser than chunk size (100) - end of the chat -> break the loop
+            if (absMessagesVector.size() < 100){ break; }
+            // offsets: last offset + chunk size (100)
+            offId = ((TLMessage) messages.get(messages.size()-1)).getId();
+            offDate = ((TLMessage) messages.get(messages.size()-1)).getDate();
         }
         if ((messages.size() > limit) && (limit != 0)){
             int delta = messages.size() - limit;
@@ -291,6 +271,7 @@ public class DialogsHistoryMethods {
 
     /**
      * Gets message history (except empty messages). Telegram returns only 100 messages at maximum by default -> returns messages in chunks with offsets.
+     * Keeps all the messages in memory, use streamWholeMessagesHistory for big dialogs.
      * @param	api  TelegramApi instance for RPC request
      * @param   dialog  dialog
      * @param   chatsHashMap    chats hashtable
@@ -306,98 +287,158 @@ public class DialogsHistoryMethods {
                                                                  TLAbsMessage topMessage,
                                                                  int limit, int maxDate, int minDate) {
         TLVector<TLAbsMessage> messages = new TLVector<>();
-        if (topMessage != null) {
-            messages.add(topMessage);
+        streamWholeMessagesHistory(api, dialog, chatsHashMap, usersHashMap, topMessage, limit, maxDate, minDate, messages::addAll);
+        return messages;
+    }
+
+    /**
+     * Streams message history (except empty messages) page by page. Each page (up to 100 messages) is passed to the
+     * sink as soon as it is received, so memory usage doesn't depend on the size of dialog.
+     * @param	api  TelegramApi instance for RPC request
+     * @param   dialog  dialog
+     * @param   chatsHashMap    chats hashtable
+     * @param   usersHashMap    users hashtable
+     * @param   topMessage  top message of the dialog (start of the history), null if none
+     * @param   limit   maximum number of retrieved messages from each dialog (0 if need to get all the messages from dialog)
+     * @param   maxDate max date of diapason
+     * @param   minDate min date of diapason
+     * @param   sink    consumer of the pages
+     * @return number of messages passed to the sink
+     * @see TelegramApi
+     */
+    public static int streamWholeMessagesHistory(TelegramApi api,
+                                                 TLDialog dialog,
+                                                 Map<Integer, TLAbsChat> chatsHashMap,
+                                                 Map<Integer, TLAbsUser> usersHashMap,
+                                                 TLAbsMessage topMessage,
+                                                 int limit, int maxDate, int minDate,
+                                                 Consumer<TLVector<TLAbsMessage>> sink) {
+        int[] received = {0};
+        streamHistory(api, dialog, chatsHashMap, usersHashMap, topMessage, limit, maxDate, minDate, sink, received);
+        return received[0];
+    }
+
+    /**
+     * Streams message history (except empty messages) page by page, see streamWholeMessagesHistory.
+     * @param	api  TelegramApi instance for RPC request
+     * @param   dialog  dialog
+     * @param   chatsHashMap    chats hashtable
+     * @param   usersHashMap    users hashtable
+     * @param   topMessage  top message of the dialog (start of the history), null if none
+     * @param   limit   maximum number of retrieved messages from each dialog (0 if need to get all the messages from dialog)
+     * @param   maxDate max date of diapason
+     * @param   minDate min date of diapason
+     * @param   sink    consumer of the pages
+     * @param   received    number of messages passed to the sink (output)
+     * @return true if the history is passed to the sink down to minDate or to the start of the dialog, false if the
+     * loop stopped before (limit is reached, RPC call failed)
+     */
+    private static boolean streamHistory(TelegramApi api,
+                                         TLDialog dialog,
+                                         Map<Integer, TLAbsChat> chatsHashMap,
+                                         Map<Integer, TLAbsUser> usersHashMap,
+                                         TLAbsMessage topMessage,
+                                         int limit, int maxDate, int minDate,
+                                         Consumer<TLVector<TLAbsMessage>> sink,
+                                         int[] received) {
+        if (limit <= 0) {
+            limit = Integer.MAX_VALUE;
         }
-        Set<Integer> messageIdSet = new HashSet<>();
-        Integer offId = initOffsetsId(messages); // offset id
-        Integer offDate = initOffsetsDate(messages); // offset date
+        int offId = 0; // offset id
+        int offDate = 0; // offset date
+        int lastId = Integer.MAX_VALUE; // id of the last received message (history goes from new to old messages)
         int receivedMsgs = 0; // received messages
-        int iter = 0;
-        while (receivedMessagesCheck(receivedMsgs, limit)) {
+        boolean complete = false; // history is received down to minDate or to the start of the dialog
+        if (topMessage != null) {
+            offId = resetOffsetsId(topMessage);
+            offDate = resetOffsetsDate(topMessage);
+            lastId = offId;
+            TLVector<TLAbsMessage> page = new TLVector<>();
+            page.add(topMessage);
+            receivedMsgs += emitPage(checkMinMaxDates(page, maxDate, minDate), limit - receivedMsgs, sink);
+        }
+        while (receivedMsgs < limit) {
             TLRequestMessagesGetHistory getHistory = SetTLObjectsMethods.getHistoryRequestSet(dialog, chatsHashMap, usersHashMap, 100, offDate, offId);
-            // try to get messages (in recursion), use 0 as initial depth
-            TLAbsMessages absMessages = (TLAbsMessages) sleepAndRequest(api, getHistory, 100, 0);
-            // if returns no messages -> break the loop
-            if (absMessages.getMessages().isEmpty() || absMessages == null || absMessages.getMessages() == null) { break; }
+            // try to get messages (limiter handles flood waits and retries)
+            TLAbsMessages absMessages = RpcRateLimiter.doRpcCall(api, getHistory);
+            // if the call failed -> break the loop, the rest of the history isn't received
+            if (absMessages == null || absMessages.getMessages() == null) { break; }
+            // if returns no messages -> start of the dialog
+            if (absMessages.getMessages().isEmpty()) { complete = true; break; }
             // update known users and chats hashmaps
             insertIntoChatsHashMap(chatsHashMap, absMessages.getChats());
             insertIntoUsersHashMap(usersHashMap, absMessages.getUsers());
             // abstract messages
             TLVector<TLAbsMessage> absMessagesVector = absMessages.getMessages();
-            // collect non-empty ones
-            getNonEmptyMessagesFromHistory(messages, absMessagesVector, messageIdSet);
-            messages = checkMinMaxDates(messages, maxDate, minDate);
-            receivedMsgs = messages.size();
+            // collect non-empty ones, which are older than already received
+            TLVector<TLAbsMessage> page = new TLVector<>();
+            lastId = getNewNonEmptyMessagesFromHistory(page, absMessagesVector, lastId);
+            page = checkMinMaxDates(page, maxDate, minDate);
+            boolean cut = page.size() > limit - receivedMsgs;
+            receivedMsgs += emitPage(page, limit - receivedMsgs, sink);
+            // page is cut by the limit -> the rest of the page isn't received
+            if (cut) {break;}
             // if returns number of messages less than the chunk size (100) - end of the chat -> break the loop
-            if (absMessagesVector.size() < 100) {break;}
+            if (absMessagesVector.size() < 100) { complete = true; break; }
             // if the last returned message is out of min border of diapason - no need to continue;
-            if (isOutOfBounds(absMessagesVector.get(absMessagesVector.size()-1), minDate)){break;}
+            if (isOutOfBounds(absMessagesVector.get(absMessagesVector.size()-1), minDate)){ complete = true; break; }
             // offsets: id and date of last message
-            offId = resetOffsetsId(messages.get(messages.size() - 1));
-            offDate = resetOffsetsDate(messages.get(messages.size() - 1));
+            TLAbsMessage last = getLastNonEmptyMessage(absMessagesVector);
+            if (last == null) {break;}
+            offId = resetOffsetsId(last);
+            offDate = resetOffsetsDate(last);
+        }
+        received[0] += receivedMsgs;
+        return complete;
+    }
 
-            // sleep once per 10 iterations for 1 sec
-            iter = sleepOncePerNIters(iter, 10);
+    /**
+     * Passes the page to the sink (if page is not empty), cuts the page to the max size
+     * @param page messages
+     * @param maxSize max number of messages to pass
+     * @param sink consumer of the pages
+     * @return number of passed messages
+     */
+    private static int emitPage(TLVector<TLAbsMessage> page, int maxSize, Consumer<TLVector<TLAbsMessage>> sink) {
+        page = removeExtraMessages(page, maxSize);
+        if (!page.isEmpty()) {
+            sink.accept(page);
         }
-        return removeExtraMessages(messages, limit);
+        return page.size();
     }
 
     /**
-     * Try 2 times to get messages, if fails - return null. Each iteration time sleep time increases x10.
-     * @param api TelegramApi instance for RPC request
-     * @param getHistoryMethod request object
-     * @param sleepTime sleep time
-     * @param depth recursion depth (set default depth as 1)
-     * @see TelegramApi
-     * @see TLRequestMessagesGetHistory
-     */
-    private static TLObject sleepAndRequest(TelegramApi api,
-                                            TLMethod getHistoryMethod,
-                                            int sleepTime, int depth){
-        Integer time;
-        if ((depth != 0) && (sleepTime < 1000)){
-            time = 1000;
-        } else {
-            time = sleepTime;
-        }
-        TLObject tlObject = null;
-        // sleep
-        try { Thread.sleep(time); } catch (InterruptedException e) { System.err.println("Depth: "+ depth + ", Sleep time: " + time + " can't sleep " + e.getMessage()); }
-        // try to get messages, in case of fail fail - try again, but later
-        if (depth < 2){
-            try {
-                tlObject = api.doRpcCall(getHistoryMethod);
-            } catch (RpcException e) {
-                System.err.println("RPC: "+e.getErrorTag()+ " " + e.getErrorCode());
-                int timeSleep = time;
-                if (!(e.getErrorTag().startsWith("CHAT_ADMIN_REQUIRED"))) {
-                    if (e.getErrorTag().startsWith("FLOOD_WAIT_")) {
-                        try {
-                            String timeSleepString = e.getErrorTag().replaceAll("FLOOD_WAIT_", "");
-                            timeSleep = Integer.valueOf(timeSleepString) * 1000;
-                        } catch (Error ignored) {}
-                    }
-                    System.err.println("Depth: " + depth + ", Sleep time: " + timeSleep + " " + e.getErrorTag() + " " + e.getErrorCode());
-                    tlObject = sleepAndRequest(api, getHistoryMethod, timeSleep, ++depth);
-                }
-            } catch (TimeoutException | IOException e) {
-                System.err.println("TIMEOUT/IEO : "+ e.getMessage());
-                System.err.println("Depth: "+ depth + ", Sleep time: " + time*10 + " " + e.getMessage());
-                tlObject = sleepAndRequest(api, getHistoryMethod, time*10, ++depth);
+     * Writes non-empty messages older than lastId to 1st array from 2nd one (pages may overlap)
+     * @param messages output array
+     * @param absMessagesVector input array (all messages)
+     * @param lastId id of the last received message
+     * @return id of the last received message after this page
+     */
+    private static int getNewNonEmptyMessagesFromHistory(TLVector<TLAbsMessage> messages, TLVector<TLAbsMessage> absMessagesVector, int lastId) {
+        int minId = lastId;
+        for (TLAbsMessage absMessage: absMessagesVector){
+            // message should not be TLMessageEmpty (-> TLMessage or TLMessageService)
+            int id = resetOffsetsId(absMessage);
+            if ((id != 0) && (id < lastId)){
+                messages.add(absMessage);
+                minId = Math.min(minId, id);
             }
         }
-        return tlObject;
+        return minId;
     }
 
-    private static int sleepOncePerNIters(int iter, int n){
-        if (iter >= n){
-            try {
-                iter = 0;
-                Thread.sleep(1000);
-            } catch (InterruptedException ignored) {}
-        } else {iter++;}
-        return iter;
+    /**
+     * Returns the last non-empty message of the vector (null if none)
+     * @param absMessagesVector messages
+     */
+    private static TLAbsMessage getLastNonEmptyMessage(TLVector<TLAbsMessage> absMessagesVector) {
+        for (int i = absMessagesVector.size() - 1; i >= 0; i--) {
+            TLAbsMessage msg = absMessagesVector.get(i);
+            if ((msg instanceof TLMessage) || (msg instanceof TLMessageService)) {
+                return msg;
+            }
+        }
+        return null;
     }
 
     /**
@@ -462,31 +503,6 @@ public class DialogsHistoryMethods {
         return false;
     }
 
-    /**
-     * Writes only non-empty messages to 1st array from 2nd one
-     * @param messages output array (only users' messages)
-     * @param absMessagesVector input array (all messages)
-     * @param messageIdSet set of unique message IDs (to exclude duplications when overlapping arrays are being merged)
-     */
-    private static void getNonEmptyMessagesFromHistory(TLVector<TLAbsMessage> messages, TLVector<TLAbsMessage> absMessagesVector, Set<Integer> messageIdSet) {
-        for (TLAbsMessage absMessage: absMessagesVector){
-            // message should not be TLMessageEmpty (-> TLMessage or TLMessageService)
-            if (!(absMessage instanceof TLMessageEmpty)){
-                if (absMessage instanceof TLMessage){
-                    if (!(messageIdSet.contains(((TLMessage) absMessage).getId()))){
-                        messages.add(absMessage);
-                        messageIdSet.add(((TLMessage) absMessage).getId());
-                    }
-                } else if (absMessage instanceof TLMessageService){
-                    if (!(messageIdSet.contains(((TLMessageService) absMessage).getId()))){
-                        messages.add(absMessage);
-                        messageIdSet.add(((TLMessageService) absMessage).getId());
-                    }
-                }
-            }
-        }
-    }
-
     /**
      * gets top message of current dialog
      * @param dialog dialog
@@ -503,40 +519,6 @@ public class DialogsHistoryMethods {
         }
     }
 
-    /**
-     * Initiates offset id
-     * @param messages array with top message or empty one
-     */
-    private static int initOffsetsId(TLVector<TLAbsMessage> messages){
-        int offId = 0;
-        if (!messages.isEmpty()) {
-            TLAbsMessage msg = messages.get(0);
-            if (msg instanceof TLMessage) {
-                offId = ((TLMessage) msg).getId();
-            } else if (msg instanceof TLMessageService) {
-                offId = ((TLMessageService) msg).getId();
-            }
-        }
-        return offId;
-    }
-
-    /**
-     * Initiates offset date
-     * @param messages array with top message or empty one
-     */
-    private static int initOffsetsDate(TLVector<TLAbsMessage> messages){
-        int offDate = 0;
-        if (!messages.isEmpty()){
-            TLAbsMessage msg = messages.get(0);
-            if (msg instanceof TLMessage){
-                offDate = ((TLMessage) msg).getDate();
-            } else if (msg instanceof TLMessageService){
-                offDate = ((TLMessageService) msg).getDate();
-            }
-        }
-        return offDate;
-    }
-
     /**
      * Reset offset id
      * @param msg message
@@ -587,41 +569,17 @@ public class DialogsHistoryMethods {
             TLAbsChat chat = chatsHashMap.get(peer.getId());
             if ((chat instanceof TLChat) && ((TLChat) chat).isMigratedTo()){
                 TLRequestChannelsGetFullChannel fullRequest = SetTLObjectsMethods.getFullChannelRequestSet(((TLChat) chat).getMigratedTo().getChannelId(), chatsHashMap);
-                try {
-                    fullDialog = api.doRpcCall(fullRequest);
-                } catch (RpcException e) {
-                    System.err.println(e.getErrorTag() + " " + e.getErrorCode());
-                } catch (TimeoutException | IOException e) {
-                    System.err.println(e.getMessage());
-                }
+                fullDialog = RpcRateLimiter.doRpcCall(api, fullRequest);
             } else {
                 TLRequestMessagesGetFullChat fullRequest = SetTLObjectsMethods.getFullChatRequestSet(peerId, chatsHashMap);
-                try {
-                    fullDialog = api.doRpcCall(fullRequest);
-                } catch (RpcException e) {
-                    System.err.println(e.getErrorTag() + " " + e.getErrorCode());
-                } catch (TimeoutException | IOException e) {
-                    System.err.println(e.getMessage());
-                }
+                fullDialog = RpcRateLimiter.doRpcCall(api, fullRequest);
             }
         } else if (peer instanceof TLPeerChannel){
             TLRequestChannelsGetFullChannel fullRequest = SetTLObjectsMethods.getFullChannelRequestSet(peerId, chatsHashMap);
-            try {
-                fullDialog = api.doRpcCall(fullRequest);
-            } catch (RpcException e) {
-                System.err.println(e.getErrorTag() + " " + e.getErrorCode());
-            } catch (TimeoutException | IOException e) {
-                System.err.println(e.getMessage());
-            }
+            fullDialog = RpcRateLimiter.doRpcCall(api, fullRequest);
         } else if (peer instanceof TLPeerUser){
             TLRequestUsersGetFullUser fullRequest = SetTLObjectsMethods.getFullUserRequestSet(peerId, usersHashMap);
-            try {
-                fullDialog = api.doRpcCall(fullRequest);
-            } catch (RpcException e) {
-                System.err.println(e.getErrorTag() + " " + e.getErrorCode());
-            } catch (TimeoutException | IOException e) {
-                System.err.println(e.getMessage());
-            }
+            fullDialog = RpcRateLimiter.doRpcCall(api, fullRequest);
         }
         return fullDialog;
     }
@@ -684,21 +642,15 @@ public class DialogsHistoryMethods {
         }
         int offset = 0;
         int retrieved = 0;
-        int iter = 0;
         while (retrieved < limit) {
             // retrieve participants
             TLRequestChannelsGetParticipants getParticipants = SetTLObjectsMethods.getChannelParticipantsRequestSet(channelFull.getId(), chatsHashMap, filter, offset);
-            TLChannelParticipants temp = (TLChannelParticipants) sleepAndRequest(api, getParticipants, 100, 0);
+            TLChannelParticipants temp = RpcRateLimiter.doRpcCall(api, getParticipants);
             if (temp == null){break;}
             // process them
             checkAndUpdateParticipants(temp, participantsIdSet, users, participants);
             retrieved = participants.size();
             offset = participants.size();
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException ignored) {}
-            // sleep once per 10 iterations for 1 sec
-            iter = sleepOncePerNIters(iter, 10);
         }
         if ((users.size() > limit) && (limit != 0)){
             int delta = users.size() - limit;
@@ -775,6 +727,7 @@ public class DialogsHistoryMethods {
 
     /**
      * Gets message history (except empty messages). Telegram returns only 100 messages at maximum by default -> returns messages in chunks with offsets.
+     * Keeps all the messages in memory, use streamWholeMessagesHistoryWithExclusions for big dialogs.
      * @param	api  TelegramApi instance for RPC request
      * @param   dialog  dialog
      * @param   chatsHashMap    chats hash table
@@ -790,45 +743,98 @@ public class DialogsHistoryMethods {
                                                                                TLAbsMessage topMessage,
                                                                                MessageHistoryExclusions exclusions,
                                                                                int limit, int maxDate, int minDate) {
+        TLVector<TLAbsMessage> messages = new TLVector<>();
+        streamWholeMessagesHistoryWithExclusions(api, dialog, chatsHashMap, usersHashMap, topMessage, exclusions,
+                limit, maxDate, minDate, messages::addAll);
+        return messages;
+    }
+
+    /**
+     * Streams message history (except empty messages and messages, which already exist in DB) page by page.
+     * Newer part (from maxDate to existing max date) goes first, then older one (from existing min date to minDate).
+     * @param	api  TelegramApi instance for RPC request
+     * @param   dialog  dialog
+     * @param   chatsHashMap    chats hash table
+     * @param   usersHashMap    users hash table
+     * @param   topMessage  top message of the dialog (start of the history), null if none
+     * @param   exclusions  messages existing in DB
+     * @param   limit   maximum number of retrieved messages from each dialog (0 if need to get all the messages from dialog)
+     * @param   maxDate max date of diapason
+     * @param   minDate min date of diapason
+     * @param   sink    consumer of the pages
+     * @return number of messages passed to the sink
+     * @see TelegramApi
+     */
+    public static int streamWholeMessagesHistoryWithExclusions(TelegramApi api,
+                                                               TLDialog dialog,
+                                                               Map<Integer, TLAbsChat> chatsHashMap,
+                                                               Map<Integer, TLAbsUser> usersHashMap,
+                                                               TLAbsMessage topMessage,
+                                                               MessageHistoryExclusions exclusions,
+                                                               int limit, int maxDate, int minDate,
+                                                               Consumer<TLVector<TLAbsMessage>> sink) {
+        return streamWholeMessagesHistoryWithExclusions(api, dialog, chatsHashMap, usersHashMap, topMessage, exclusions,
+                limit, maxDate, minDate, sink, () -> {});
+    }
+
+    /**
+     * Streams message history (except empty messages and messages, which already exist in DB) page by page.
+     * Newer part (from maxDate to existing max date) goes first, then older one (from existing min date to minDate).
+     * @param	api  TelegramApi instance for RPC request
+     * @param   dialog  dialog
+     * @param   chatsHashMap    chats hash table
+     * @param   usersHashMap    users hash table
+     * @param   topMessage  top message of the dialog (start of the history), null if none
+     * @param   exclusions  messages existing in DB
+     * @param   limit   maximum number of retrieved messages from each dialog (0 if need to get all the messages from dialog)
+     * @param   maxDate max date of diapason
+     * @param   minDate min date of diapason
+     * @param   sink    consumer of the pages
+     * @param   newerPartDone   called if the newer part is passed to the sink completely (it reaches existing messages),
+     *                          not called if it stopped before (limit is reached, RPC call failed)
+     * @return number of messages passed to the sink
+     * @see TelegramApi
+     */
+    public static int streamWholeMessagesHistoryWithExclusions(TelegramApi api,
+                                                               TLDialog dialog,
+                                                               Map<Integer, TLAbsChat> chatsHashMap,
+                                                               Map<Integer, TLAbsUser> usersHashMap,
+                                                               TLAbsMessage topMessage,
+                                                               MessageHistoryExclusions exclusions,
+                                                               int limit, int maxDate, int minDate,
+                                                               Consumer<TLVector<TLAbsMessage>> sink,
+                                                               Runnable newerPartDone) {
         if (limit <= 0) {
             limit = Integer.MAX_VALUE;
         }
-        TLVector<TLAbsMessage> messages = new TLVector<>();
-        // part 1
-        TLVector<TLAbsMessage> messages1 = new TLVector<>();
-        // part 2
-        TLVector<TLAbsMessage> messages2 = new TLVector<>();
         if (maxDate <= 0) {
             maxDate = Integer.MAX_VALUE;
         }
+        int[] received = {0};
+        int maxSize = limit;
+        // skips existing messages and messages over the limit
+        Consumer<TLVector<TLAbsMessage>> filter = page -> {
+            page = removeExtraMessages(removeExistingMessages(page, exclusions.getMinId(), exclusions.getMaxId()), maxSize - received[0]);
+            if (!page.isEmpty()) {
+                received[0] += page.size();
+                sink.accept(page);
+            }
+        };
         if (maxDate > exclusions.getMaxDate()){
             // part 1 (from maxDate to exclusions max)
-            messages1 = getWholeMessagesHistory(api,dialog,chatsHashMap, usersHashMap, topMessage, limit, maxDate, exclusions.getMaxDate());
-            messages1 = removeExistingMessages(messages1, exclusions.getMinId(), exclusions.getMaxId());
+            int[] streamed = {0};
+            if (streamHistory(api, dialog, chatsHashMap, usersHashMap, topMessage, limit, maxDate, exclusions.getMaxDate(), filter, streamed)) {
+                newerPartDone.run();
+            }
+        } else {
+            newerPartDone.run();
         }
-        if (messages1.size() < limit) {
+        if ((received[0] < limit) && (exclusions.getMinDate() > minDate)) {
             // part 2 (exclusions min to min Date)
             TLAbsMessage newTopMsg = SetTLObjectsMethods.absMessageSetForOffsets(exclusions.getMinId(), exclusions.getMinDate());
-            if (exclusions.getMinDate() > minDate){
-                messages2 = getWholeMessagesHistory(api,dialog,chatsHashMap, usersHashMap, newTopMsg, limit, exclusions.getMinDate(), minDate);
-                messages2 = removeExistingMessages(messages2, exclusions.getMinId(), exclusions.getMaxId());
-            }
-            messages = combineMessagesParts(messages1, messages2);
+            streamWholeMessagesHistory(api, dialog, chatsHashMap, usersHashMap, newTopMsg, limit - received[0], exclusions.getMinDate(), minDate, filter);
         }
-        messages = removeExtraMessages(messages, limit);
-        return messages;
-    }
-
-    /**
-     * Combines 2 vectors of messages into one
-     * @param messages1 1
-     * @param messages2 2
-     */
-    private static TLVector<TLAbsMessage> combineMessagesParts(TLVector<TLAbsMessage> messages1, TLVector<TLAbsMessage> messages2){
-        TLVector<TLAbsMessage> messages = new TLVector<>();
-        messages.addAll(messages1);
-        messages.addAll(messages2);
-        return messages;
+        return received[0];
     }
 
     /**
@@ -887,9 +893,7 @@ public class DialogsHistoryMethods {
      */
     private static void insertIntoChatsHashMap(Map<Integer, TLAbsChat> chatsHashMap, TLVector<TLAbsChat> chats){
         for (TLAbsChat chat: chats){
-            if (!chatsHashMap.containsKey(chat.getId())){
-                chatsHashMap.put(chat.getId(), chat);
-            }
+            chatsHashMap.putIfAbsent(chat.getId(), chat);
         }
     }
 
@@ -901,9 +905,7 @@ public class DialogsHistoryMethods {
      */
     private static void insertIntoUsersHashMap(Map<Integer, TLAbsUser> usersHashMap, TLVector<TLAbsUser> users){
         for (TLAbsUser user: users){
-            if (!usersHashMap.containsKey(user.getId())){
-                usersHashMap.put(user.getId(), user);
-            }
+            usersHashMap.putIfAbsent(user.getId(), user);
         }
     }
 
@@ -916,10 +918,8 @@ public class DialogsHistoryMethods {
     private static void insertIntoMessagesHashMap(Map<Integer, TLAbsMessage> messagesHashMap,
                                                  TLVector<TLAbsMessage> messages){
         for (TLAbsMessage message: messages){
-            if ((message instanceof TLMessage) && !messagesHashMap.containsKey(message.getChatId())){
-                messagesHashMap.put(message.getChatId(), message);
-            } else if ((message instanceof TLMessageService) && !messagesHashMap.containsKey(message.getChatId())){
-                messagesHashMap.put(message.getChatId(), message);
+            if ((message instanceof TLMessage) || (message instanceof TLMessageService)){
+                messagesHashMap.putIfAbsent(message.getChatId(), message);
             }
         }
     }
@@ -7,17 +7,15 @@
 
 package com.crawlergram.crawler.apimethods;
 
+import com.crawlergram.crawler.output.DownloadJournal;
 import com.crawlergram.crawler.output.FileMethods;
 import org.telegram.api.document.TLAbsDocument;
 import org.telegram.api.document.TLDocument;
 import org.telegram.api.document.attribute.*;
-import org.telegram.api.engine.RpcException;
 import org.telegram.api.engine.TelegramApi;
 import org.telegram.api.file.location.TLAbsFileLocation;
 import org.telegram.api.file.location.TLFileLocation;
 import org.telegram.api.input.filelocation.TLAbsInputFileLocation;
-import org.telegram.api.input.filelocation.TLInputDocumentFileLocation;
-import org.telegram.api.input.filelocation.TLInputFileLocation;
 import org.telegram.api.message.TLAbsMessage;
 import org.telegram.api.message.TLMessage;
 import org.telegram.api.message.media.TLAbsMessageMedia;
@@ -25,20 +23,91 @@ import org.telegram.api.message.media.TLMessageMediaDocument;
 import org.telegram.api.message.media.TLMessageMediaPhoto;
 import org.telegram.api.photo.TLAbsPhoto;
 import org.telegram.api.photo.TLPhoto;
-import org.telegram.api.photo.size.TLAbsPhotoSize;
 import org.telegram.api.photo.size.TLPhotoSize;
 import org.telegram.api.upload.file.TLAbsFile;
 import org.telegram.api.upload.file.TLFile;
+import org.telegram.tl.TLBytes;
 import org.telegram.tl.TLVector;
 import com.crawlergram.db.DBStorage;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.TimeoutException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.crawlergram.db.Constants.MEDIA_DB;
+import static com.crawlergram.db.Constants.MEDIA_HDD;
 
 public class MediaDownloadMethods {
 
+    private static volatile int maxPartsInFlight = 4; // max number of part requests to one DC at once
+    private static final Map<Integer, Semaphore> dcPermits = new ConcurrentHashMap<>(); // requests in flight per DC
+    // downloads in progress: later callers with the same media wait for the first download and get its result
+    private static final ConcurrentHashMap<String, CompletableFuture<String>> downloads = new ConcurrentHashMap<>();
+    private static final ExecutorService partsPool = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "media-parts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Location of the media file on telegram servers
+     */
+    private static class MediaLocation {
+
+        private final String key; // unique key of the media (document or photo id)
+        private final TLAbsInputFileLocation location; // input location
+        private final int dc; // dc of the file
+        private final int size; // size in bytes
+
+        MediaLocation(String key, TLAbsInputFileLocation location, int dc, int size) {
+            this.key = key;
+            this.location = location;
+            this.dc = dc;
+            this.size = size;
+        }
+
+        /**
+         * checks if the file doesn't exceed the maxSize (and max allowed size of telegram file)
+         * @param maxSize max size
+         */
+        boolean fits(int maxSize) {
+            return (size <= maxSize) && (size <= 1572864000);
+        }
+    }
+
+    public static int getMaxPartsInFlight() {
+        return maxPartsInFlight;
+    }
+
+    /**
+     * sets max number of part requests to one DC at once (should be set before the downloading starts)
+     * @param maxPartsInFlight number of requests
+     */
+    public static void setMaxPartsInFlight(int maxPartsInFlight) {
+        MediaDownloadMethods.maxPartsInFlight = Math.max(1, maxPartsInFlight);
+        dcPermits.clear();
+    }
+
     /**
-     * Gets the file name and bytes, saves to HDD, in case of success returns the resulting filepath
+     * Gets the file name, downloads the media to HDD, in case of success returns the resulting filepath
      * @param api api
      * @param absMessage message
      * @param maxSize max size of medial to be saved
@@ -48,13 +117,14 @@ public class MediaDownloadMethods {
         String out = null;
         if (absMessage instanceof TLMessage) {
             if (((TLMessage) absMessage).hasMedia()) {
-                byte[] bytes = messageGetMediaBytes(api, (TLMessage) absMessage, maxSize);
+                MediaLocation media = getMediaLocation((TLMessage) absMessage);
                 String name = getFileName((TLMessage) absMessage);
-                if ((name != null) && (bytes != null)){
+                if ((name != null) && (media != null) && media.fits(maxSize)){
                     String filePath = FileMethods.setFileNameAndPath(name, path);
-                    FileMethods.writeBytesToFile(filePath, bytes);
-                    out = filePath;
-                    System.err.println(((TLMessage) absMessage).getId()+" "+bytes.length + " " + name);
+                    out = downloadOnce(filePath, () -> downloadToFile(api, media, filePath) ? filePath : null);
+                    if (out != null){
+                        System.err.println(((TLMessage) absMessage).getId()+" "+media.size + " " + name);
+                    }
                 }
             }
         }
@@ -62,7 +132,35 @@ public class MediaDownloadMethods {
     }
 
     /**
-     * Gets the file name and bytes, saves to DB, in case of success returns the resulting filepath
+     * Downloads the media to HDD, if it isn't stored yet. Media is stored once for all messages (the file is named
+     * by document/photo id, content duplicates are detected by the hash). Returns the filepath of stored media.
+     * @param api api
+     * @param dbStorage db storage with media index
+     * @param absMessage message
+     * @param maxSize max size of medial to be saved
+     * @param path path on the HDD
+     */
+    public static String messageDownloadMediaToHDD(TelegramApi api, DBStorage dbStorage, TLAbsMessage absMessage, int maxSize, String path) {
+        String out = null;
+        if (absMessage instanceof TLMessage) {
+            if (((TLMessage) absMessage).hasMedia()) {
+                MediaLocation media = getMediaLocation((TLMessage) absMessage);
+                String name = getFileName((TLMessage) absMessage);
+                if ((name != null) && (media != null) && media.fits(maxSize)){
+                    String filePath = FileMethods.setFileNameAndPath(media.key + getExtension(name), path);
+                    out = downloadOnce(filePath, () -> storeToHDD(api, dbStorage, media, filePath));
+                    if (out != null){
+                        System.err.println(((TLMessage) absMessage).getId()+" "+media.size + " " + out);
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Downloads the media to DB, if it isn't stored yet. Media is stored once for all messages (the file is named
+     * by document/photo id, content duplicates are detected by the hash). Returns the filename of stored media.
      * @param api api
      * @param absMessage message
      * @param maxSize max size of medial to be saved
@@ -71,12 +169,21 @@ public class MediaDownloadMethods {
         String out = null;
         if (absMessage instanceof TLMessage) {
             if (((TLMessage) absMessage).hasMedia()) {
-                byte[] bytes = messageGetMediaBytes(api, (TLMessage) absMessage, maxSize);
+                MediaLocation media = getMediaLocation((TLMessage) absMessage);
                 String name = getFileName((TLMessage) absMessage);
-                if ((name != null) && (bytes != null)){
-                    out = name;
-                    dbStorage.writeFile(name, bytes);
-                    System.err.println(((TLMessage) absMessage).getId()+" "+bytes.length + " " + name);
+                if ((name != null) && (media != null) && media.fits(maxSize)){
+                    out = downloadOnce(MEDIA_DB + " " + media.key, () -> {
+                        // already stored
+                        String reference = dbStorage.getMediaReference(media.key, MEDIA_DB);
+                        if (reference != null){
+                            return reference;
+                        }
+                        reference = downloadToDB(api, dbStorage, media, media.key + getExtension(name));
+                        if (reference != null){
+                            System.err.println(((TLMessage) absMessage).getId()+" "+media.size + " " + reference);
+                        }
+                        return reference;
+                    });
                 }
             }
         }
@@ -84,116 +191,325 @@ public class MediaDownloadMethods {
     }
 
     /**
-     * downloads photos and documents
+     * Downloads the media to HDD, if it isn't stored yet, and writes it to the media index. Returns the filepath of
+     * stored media (null if download failed).
      * @param api api
-     * @param message abstract message
-     * @param maxSize max size of downloadable document
-     * @see TLAbsMessage
+     * @param dbStorage db storage with media index
+     * @param media file location
+     * @param filePath path to the file
+     */
+    private static String storeToHDD(TelegramApi api, DBStorage dbStorage, MediaLocation media, String filePath) {
+        // already stored
+        String out = dbStorage.getMediaReference(media.key, MEDIA_HDD);
+        if ((out != null) && new File(out).exists()){
+            return out;
+        }
+        if (!downloadToFile(api, media, filePath)){
+            return null;
+        }
+        String hash = FileMethods.getFileHash(filePath);
+        out = (hash != null) ? dbStorage.getMediaReferenceByHash(hash, MEDIA_HDD) : null;
+        if ((out != null) && !out.equals(filePath) && new File(out).exists()){
+            // same content is already stored
+            new File(filePath).delete();
+        } else {
+            out = filePath;
+        }
+        dbStorage.writeMediaReference(media.key, MEDIA_HDD, out, hash, media.size);
+        return out;
+    }
+
+    /**
+     * Runs the download once for all concurrent callers (e.g. the same media forwarded to several dialogs, which are
+     * crawled in parallel): the first caller downloads, the others wait for it and get its result.
+     * @param key key of the download (target file or storage and media key)
+     * @param download download, returns the reference to the stored media (null if download failed)
+     */
+    private static String downloadOnce(String key, Supplier<String> download) {
+        CompletableFuture<String> own = new CompletableFuture<>();
+        CompletableFuture<String> running = downloads.putIfAbsent(key, own);
+        if (running != null) {
+            try {
+                return running.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+        try {
+            String reference = download.get();
+            own.complete(reference);
+            return reference;
+        } catch (RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            downloads.remove(key, own);
+        }
+    }
+
+    /**
+     * gets location of photo or document of the message (null if message has no downloadable media)
+     * @param message message
      * @see TLAbsMessageMedia
      */
-    private static byte[] messageGetMediaBytes(TelegramApi api, TLMessage message, int maxSize) {
-        byte[] output = null;
-        // check for media
+    private static MediaLocation getMediaLocation(TLMessage message) {
         TLAbsMessageMedia absMedia = message.getMedia();
         if (absMedia instanceof TLMessageMediaDocument) {
-            output = messageMediaDocumentGet(api, (TLMessageMediaDocument) absMedia, maxSize);
+            TLAbsDocument absDoc = ((TLMessageMediaDocument) absMedia).getDocument();
+            if (absDoc instanceof TLDocument){
+                TLDocument doc = (TLDocument) absDoc;
+                return new MediaLocation("doc_" + doc.getId(),
+                        SetTLObjectsMethods.inputDocumentFileLocationSet(doc.getId(), doc.getAccessHash(), doc.getVersion()),
+                        doc.getDcId(), doc.getSize());
+            }
         } else if (absMedia instanceof TLMessageMediaPhoto) {
-            output = messageMediaPhotoGet(api, (TLMessageMediaPhoto) absMedia, maxSize);
+            TLAbsPhoto absPhoto = ((TLMessageMediaPhoto) absMedia).getPhoto();
+            if (absPhoto instanceof TLPhoto){
+                // last photo size - largest one
+                TLPhotoSize photoSize = FileMethods.getLargestAvailablePhotoSize(((TLPhoto) absPhoto).getSizes());
+                if (photoSize != null){
+                    TLAbsFileLocation absFileLoc = photoSize.getLocation();
+                    if (absFileLoc instanceof TLFileLocation){
+                        TLFileLocation fileLoc = (TLFileLocation) absFileLoc;
+                        return new MediaLocation("photo_" + ((TLPhoto) absPhoto).getId(),
+                                SetTLObjectsMethods.inputFileLocationSet(fileLoc.getLocalId(), fileLoc.getSecret(), fileLoc.getVolumeId()),
+                                fileLoc.getDcId(), photoSize.getSize());
+                    }
+                }
+            }
         }
-        return output;
+        return null;
     }
 
+    /**
+     * downloads the file to HDD. Parts are written to the temporary file (path + ".part") and downloaded parts
+     * are recorded to the journal (path + ".journal"), so interrupted download continues from missing parts.
+     * Temporary file is renamed when the download is finished.
+     * @param api api
+     * @param media file location
+     * @param filePath path to the file
+     */
+    private static boolean downloadToFile(TelegramApi api, MediaLocation media, String filePath){
+        int partSize = FileMethods.getFilePartSize(media.size) * 1024; // set partSize to KBs
+        File file = new File(filePath);
+        File partFile = new File(filePath + ".part");
+        DownloadJournal journal = null;
+        boolean done;
+        try {
+            journal = DownloadJournal.open(filePath + ".journal", partFile.getPath(), media.key, partSize, media.size);
+            if (journal.isResumed()) {
+                System.err.println("RESUME " + filePath + " " + journal.getDoneCount() + " parts");
+            }
+            // without journal the old temporary file is useless
+            try (FileChannel channel = journal.isResumed()
+                    ? FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+                    : FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                done = downloadToFileChannel(api, media, channel, partSize, journal);
+            }
+            if (done) {
+                journal.delete();
+                Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            done = false;
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+        }
+        // if the download failed, the data is kept in the temporary file and the journal, the file at the final path
+        // (if any) isn't touched
+        return done;
+    }
 
     /**
-     * get bytes of the doc if it exists and doesn't exceed the maxSize
-     * @param	mediaDocument document media
-     * @see	TLMessageMediaDocument
+     * downloads the file to DB, incomplete file is not saved. If the file with the same content is already stored -
+     * the new one is not saved too. Returns the name of stored file (null if download failed).
+     * @param api api
+     * @param dbStorage db storage
+     * @param media file location
+     * @param name file name
      */
-    private static byte[] messageMediaDocumentGet(TelegramApi api, TLMessageMediaDocument mediaDocument, int maxSize){
-        TLAbsDocument absDoc = mediaDocument.getDocument();
-        byte[] bytes = null;
+    private static String downloadToDB(TelegramApi api, DBStorage dbStorage, MediaLocation media, String name){
+        OutputStream stream = dbStorage.openFileStream(name);
+        if (stream == null) return null;
+        MessageDigest digest = FileMethods.getHashDigest();
+        String reference = null;
+        boolean closed = false;
+        try {
+            OutputStream out = (digest != null) ? new DigestOutputStream(stream, digest) : stream;
+            if (downloadToChannel(api, media, Channels.newChannel(out))){
+                String hash = (digest != null) ? FileMethods.bytesToHex(digest.digest()) : null;
+                reference = (hash != null) ? dbStorage.getMediaReferenceByHash(hash, MEDIA_DB) : null;
+                if (reference == null){
+                    stream.close();
+                    closed = true;
+                    reference = name;
+                }
+                dbStorage.writeMediaReference(media.key, MEDIA_DB, reference, hash, media.size);
+            }
+        } catch (IOException | RuntimeException e) {
+            // GridFS errors (MongoException) are unchecked
+            System.err.println(e.getMessage());
+            reference = null;
+        } finally {
+            // incomplete or duplicate file, its chunks are removed
+            if (!closed){
+                dbStorage.abortFileStream(stream);
+            }
+        }
+        return reference;
+    }
 
-        if (absDoc instanceof TLDocument){
-            TLDocument doc = (TLDocument) absDoc;
-            TLInputDocumentFileLocation inputDocFileLoc = SetTLObjectsMethods.inputDocumentFileLocationSet(doc.getId(), doc.getAccessHash(), doc.getVersion());
-            int fileDc = doc.getDcId();
-            bytes = getFileBytesLoop(api, inputDocFileLoc, fileDc, doc.getSize(), maxSize);
+    /**
+     * returns extension of the file name with the dot (empty string if none)
+     * @param name file name
+     */
+    private static String getExtension(String name){
+        int dot = name.lastIndexOf('.');
+        if ((dot >= 0) && (name.length() - dot <= 10) && (name.indexOf(' ', dot) < 0)){
+            return name.substring(dot);
         }
-        return bytes;
+        return "";
     }
 
     /**
-     * get bytes of photo if it exists and doesn't exceed the maxSize
+     * downloads several parts of the file at once, each part is written to its place in the file,
+     * parts which are already recorded in the journal are skipped
      * @param api api
-     * @param mediaPhoto photo media
-     * @param maxSize max size for downloading
+     * @param media file location
+     * @param channel output file
+     * @param partSize part size in bytes
+     * @param journal journal of downloaded parts
+     * @return true if the whole file is written
      */
-    private static byte[] messageMediaPhotoGet(TelegramApi api, TLMessageMediaPhoto mediaPhoto, int maxSize){
-        byte[] bytes = null;
-
-        TLAbsPhoto absPhoto = mediaPhoto.getPhoto();
-        if (absPhoto instanceof TLPhoto){
-            TLPhoto photo = (TLPhoto) absPhoto;
-            TLVector<TLAbsPhotoSize> absPhotoSizes = photo.getSizes();
-            // last photo size - largest one
-            TLPhotoSize photoSize = FileMethods.getLargestAvailablePhotoSize(absPhotoSizes);
-            bytes = messagePhotoSizeOutput(api, photoSize, maxSize);
+    private static boolean downloadToFileChannel(TelegramApi api, MediaLocation media, FileChannel channel,
+                                                 int partSize, DownloadJournal journal) throws IOException {
+        int parts = (media.size + partSize - 1) / partSize;
+        List<Integer> missing = new ArrayList<>();
+        for (int part = 0; part < parts; part++) {
+            if (!journal.isDone(part)) {
+                missing.add(part);
+            }
+        }
+        AtomicInteger next = new AtomicInteger(0);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<Future<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(missing.size(), maxPartsInFlight); i++) {
+            workers.add(partsPool.submit(() -> {
+                int n;
+                while (!failed.get() && ((n = next.getAndIncrement()) < missing.size())) {
+                    int part = missing.get(n);
+                    long offset = (long) part * partSize;
+                    TLBytes bytes = getFilePart(api, media, (int) offset, partSize);
+                    if (bytes == null) {
+                        failed.set(true);
+                        break;
+                    }
+                    // write the part to its position without copying
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes.getData(), bytes.getOffset(), bytes.getLength());
+                    while (buffer.hasRemaining()) {
+                        offset += channel.write(buffer, offset);
+                    }
+                    // the part is recorded only when its data is on disk
+                    channel.force(false);
+                    journal.markDone(part);
+                }
+                return null;
+            }));
         }
-        return bytes;
+        return awaitWorkers(workers, failed);
     }
 
     /**
-     * Outputs web page media in console
-     * @param	photoSize   TLPhotoSize instance
-     * @see	TLPhotoSize
-     * @see TLPhoto
+     * downloads the file to the stream, several following parts are requested at once, but written in order
+     * (only these parts are held in memory)
+     * @param api api
+     * @param media file location
+     * @param channel output
+     * @return true if the whole file is written
      */
-    private static byte[] messagePhotoSizeOutput(TelegramApi api, TLPhotoSize photoSize, int maxSize){
-        byte[] bytes = null;
-        // file location
-        TLAbsFileLocation absFileLoc = photoSize.getLocation();
-        if (absFileLoc instanceof TLFileLocation){
-            TLFileLocation fileLoc = (TLFileLocation) absFileLoc;
-            // set location, get Dc
-            int fileDc = fileLoc.getDcId();
-            TLInputFileLocation inputFileLoc = SetTLObjectsMethods.inputFileLocationSet(fileLoc.getLocalId(), fileLoc.getSecret(), fileLoc.getVolumeId());
-            bytes = getFileBytesLoop(api, inputFileLoc, fileDc, photoSize.getSize(), maxSize);
+    private static boolean downloadToChannel(TelegramApi api, MediaLocation media, WritableByteChannel channel) throws IOException {
+        int partSize = FileMethods.getFilePartSize(media.size) * 1024; // set partSize to KBs
+        int parts = (media.size + partSize - 1) / partSize;
+        Deque<Future<TLBytes>> window = new ArrayDeque<>();
+        int nextPart = 0;
+        try {
+            for (int part = 0; part < parts; part++) {
+                // request following parts
+                while ((nextPart < parts) && (window.size() < maxPartsInFlight)) {
+                    int offset = nextPart * partSize;
+                    window.add(partsPool.submit(() -> getFilePart(api, media, offset, partSize)));
+                    nextPart++;
+                }
+                TLBytes bytes = window.poll().get();
+                if (bytes == null) {
+                    return false;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.getData(), bytes.getOffset(), bytes.getLength());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            System.err.println(e.getMessage());
+            return false;
+        } finally {
+            for (Future<TLBytes> future : window) {
+                future.cancel(true);
+            }
         }
-        return bytes;
+        return true;
     }
 
     /**
-     * retrieves byte[] of a file
+     * gets the part of the file, the number of requests in flight to one DC is limited
      * @param api api
-     * @param inputFileLoc abs file loc
-     * @param fileDc dc
-     * @param realSize real size
-     * @param maxSize threshold
+     * @param media file location
+     * @param offset offset in bytes
+     * @param partSize part size in bytes
+     * @return bytes of the part or null, if the part can't be retrieved (or file is on CDN)
      */
-    private static byte[] getFileBytesLoop(TelegramApi api, TLAbsInputFileLocation inputFileLoc, int fileDc, int realSize, int maxSize){
-        byte[] bytes = null;
-        if ((realSize <= maxSize) && (realSize <= 1572864000)){
-            Integer partSize = FileMethods.getFilePartSize(realSize);
-            partSize *= 1024; // set partSize to KBs
-            int offset = 0;
+    private static TLBytes getFilePart(TelegramApi api, MediaLocation media, int offset, int partSize) {
+        Semaphore permits = dcPermits.computeIfAbsent(media.dc, dc -> new Semaphore(maxPartsInFlight));
+        permits.acquireUninterruptibly();
+        try {
+            // limiter handles flood waits, exported DC connections are cached by the api
+            TLAbsFile absFile = RpcRateLimiter.doGetFile(api, media.dc, media.location, offset, partSize);
+            return (absFile instanceof TLFile) ? ((TLFile) absFile).getBytes() : null;
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * waits for the download workers, returns true if all of them succeeded
+     * @param workers workers
+     * @param failed failure flag of the workers
+     */
+    private static boolean awaitWorkers(List<Future<Void>> workers, AtomicBoolean failed) throws IOException {
+        for (Future<Void> worker : workers) {
             try {
-                while (offset < realSize) {
-                    // get the part of the file
-                    TLAbsFile absFile = api.doGetFile(fileDc, inputFileLoc, offset, partSize);
-                    // append bytes to file
-                    if (absFile instanceof TLFile){
-                        TLFile file = (TLFile) absFile;
-                        bytes = FileMethods.concatenateByteArrays(bytes, file.getBytes().getData());
-                    }
-                    offset += partSize;
+                worker.get();
+            } catch (InterruptedException e) {
+                failed.set(true);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                failed.set(true);
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
                 }
-            } catch (RpcException e) {
-                System.err.println(e.getErrorTag() + " " + e.getErrorCode());
-            } catch (TimeoutException | IOException e) {
                 System.err.println(e.getMessage());
             }
         }
-        return bytes;
+        return !failed.get();
     }
 
     /**
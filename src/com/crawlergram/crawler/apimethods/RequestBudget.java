@@ -0,0 +1,40 @@
+/*
+ * Title: RequestBudget.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.crawler.apimethods;
+
+/**
+ * Global budget of RPC requests, shared by all the crawling threads (keeps flood limits when dialogs are crawled
+ * in parallel). By default unlimited.
+ */
+
+public class RequestBudget {
+
+    private static final TokenBucket bucket = new TokenBucket(0, 1);
+
+    /**
+     * Sets the budget
+     * @param requestsPerSecond allowed requests per second for all threads (0 if no limit)
+     * @param burst max number of requests that can be done at once after idle time
+     */
+    public static void setBudget(double requestsPerSecond, int burst) {
+        bucket.setRate(requestsPerSecond);
+        bucket.setCapacity(burst);
+    }
+
+    public static double getRequestsPerSecond() {
+        return bucket.getRate();
+    }
+
+    /**
+     * Takes one request from the budget, blocks if the budget is exhausted
+     */
+    public static void acquire() {
+        bucket.acquire();
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Title: RpcRateLimiter.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.crawler.apimethods;
+
+import org.telegram.api.engine.RpcException;
+import org.telegram.api.engine.TelegramApi;
+import org.telegram.api.input.filelocation.TLAbsInputFileLocation;
+import org.telegram.api.upload.file.TLAbsFile;
+import org.telegram.tl.TLMethod;
+import org.telegram.tl.TLObject;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Adaptive rate limiter for RPC requests. Each pair of RPC method and DC has its own token bucket.
+ * On FLOOD_WAIT_X the pair is paused for exactly X seconds and its rate is halved,
+ * after a run of successful requests the rate is increased again (AIMD).
+ * Requests also take a token from the global RequestBudget.
+ */
+
+public class RpcRateLimiter {
+
+    private static final Pattern FLOOD_WAIT = Pattern.compile("FLOOD_WAIT_(\\d+)");
+
+    private static volatile double initialRate = 10; // requests per second for a new method@dc pair
+    private static volatile double minRate = 0.5; // lower bound of the rate
+    private static volatile double maxRate = 30; // upper bound of the rate
+    private static volatile double rateStep = 1; // rate increase after the run of successes
+    private static volatile int successesToRampUp = 20; // length of the run of successes
+    private static volatile int maxAttempts = 5; // attempts per request
+
+    private static final Map<String, Limit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * Request, which can be limited
+     */
+    private interface RpcCall<T> {
+        T call() throws IOException, TimeoutException;
+    }
+
+    /**
+     * Rate and pause of one method@dc pair
+     */
+    private static class Limit {
+
+        private final TokenBucket bucket;
+        private long pausedUntil; // millis
+        private int successes; // successes since the last change of the rate
+
+        Limit(double rate) {
+            this.bucket = new TokenBucket(rate, 1);
+        }
+
+        /**
+         * Waits for the end of flood wait (if any) and takes a token
+         */
+        void acquire() {
+            long wait;
+            synchronized (this) {
+                wait = pausedUntil - System.currentTimeMillis();
+            }
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            bucket.acquire();
+        }
+
+        synchronized void success() {
+            if (++successes >= successesToRampUp) {
+                successes = 0;
+                bucket.setRate(Math.min(maxRate, bucket.getRate() + rateStep));
+            }
+        }
+
+        synchronized void floodWait(int seconds) {
+            successes = 0;
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + seconds * 1000L);
+            bucket.setRate(Math.max(minRate, bucket.getRate() / 2));
+        }
+
+        double getRate() {
+            return bucket.getRate();
+        }
+    }
+
+    /**
+     * Sets the rates used by the limiter (rates of already used pairs are not reset)
+     * @param initialRate requests per second for a new method@dc pair
+     * @param minRate lower bound of the rate
+     * @param maxRate upper bound of the rate
+     */
+    public static void setRates(double initialRate, double minRate, double maxRate) {
+        RpcRateLimiter.initialRate = initialRate;
+        RpcRateLimiter.minRate = minRate;
+        RpcRateLimiter.maxRate = maxRate;
+    }
+
+    /**
+     * Sets the ramp up settings
+     * @param successesToRampUp number of successful requests in a row needed to increase the rate
+     * @param rateStep rate increase
+     */
+    public static void setRampUp(int successesToRampUp, double rateStep) {
+        RpcRateLimiter.successesToRampUp = successesToRampUp;
+        RpcRateLimiter.rateStep = rateStep;
+    }
+
+    public static int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public static void setMaxAttempts(int maxAttempts) {
+        RpcRateLimiter.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    /**
+     * returns current rate of the method@dc pair (initial rate if the pair wasn't used yet)
+     * @param key method@dc
+     */
+    public static double getRate(String key) {
+        Limit limit = limits.get(key);
+        return (limit != null) ? limit.getRate() : initialRate;
+    }
+
+    /**
+     * Does the RPC request in the primary DC. Returns null if request failed.
+     * @param api TelegramApi instance for RPC request
+     * @param method request object
+     */
+    public static <T extends TLObject> T doRpcCall(TelegramApi api, TLMethod<T> method) {
+        String key = method.getClass().getSimpleName() + "@" + api.getState().getPrimaryDc();
+        return call(key, () -> api.doRpcCall(method));
+    }
+
+    /**
+     * Gets the part of the file from the DC. Returns null if request failed.
+     * @param api TelegramApi instance for RPC request
+     * @param dcId dc of the file
+     * @param location file location
+     * @param offset offset in bytes
+     * @param limit part size in bytes
+     */
+    public static TLAbsFile doGetFile(TelegramApi api, int dcId, TLAbsInputFileLocation location, int offset, int limit) {
+        return call("TLRequestUploadGetFile@" + dcId, () -> api.doGetFile(dcId, location, offset, limit));
+    }
+
+    /**
+     * Does the request, respects the limits. In case of flood wait waits the requested time and tries again,
+     * in case of timeouts and internal server errors tries again with growing sleep time.
+     * @param key method@dc
+     * @param rpcCall request
+     */
+    private static <T> T call(String key, RpcCall<T> rpcCall) {
+        Limit limit = limits.computeIfAbsent(key, k -> new Limit(initialRate));
+        long backoff = 1000;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            limit.acquire();
+            RequestBudget.acquire();
+            try {
+                T result = rpcCall.call();
+                limit.success();
+                return result;
+            } catch (RpcException e) {
+                System.err.println("RPC: " + key + " " + e.getErrorTag() + " " + e.getErrorCode());
+                int floodWait = getFloodWait(e);
+                if (floodWait >= 0) {
+                    limit.floodWait(floodWait);
+                } else if (e.getErrorCode() >= 500) {
+                    backoff = sleepAndGrow(backoff);
+                } else {
+                    // bad request, no rights, etc. - no need to try again
+                    return null;
+                }
+            } catch (TimeoutException | IOException e) {
+                System.err.println("TIMEOUT/IEO: " + key + " " + e.getMessage());
+                backoff = sleepAndGrow(backoff);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * returns the wait time of FLOOD_WAIT_X error in seconds, -1 if it is other error
+     * @param e exception
+     */
+    private static int getFloodWait(RpcException e) {
+        if (e.getErrorTag() != null) {
+            Matcher matcher = FLOOD_WAIT.matcher(e.getErrorTag());
+            if (matcher.find()) {
+                return Integer.parseInt(matcher.group(1));
+            }
+        }
+        return -1;
+    }
+
+    private static long sleepAndGrow(long time) {
+        try {
+            Thread.sleep(time);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return time * 2;
+    }
+
+}
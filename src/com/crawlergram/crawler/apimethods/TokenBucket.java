@@ -0,0 +1,84 @@
+/*
+ * Title: TokenBucket.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.crawler.apimethods;
+
+/**
+ * Token bucket: refills with "rate" tokens per second up to "capacity" tokens.
+ * Each request takes one token, if bucket is empty - caller waits until the token is refilled.
+ * Rate <= 0 means no limit.
+ */
+
+public class TokenBucket {
+
+    private double rate; // tokens per second
+    private double capacity; // max stored tokens (burst)
+    private double tokens; // current tokens (can be negative - reserved by waiting callers)
+    private long lastRefill; // nanos
+
+    public TokenBucket(double rate, double capacity) {
+        this.rate = rate;
+        this.capacity = Math.max(1.0, capacity);
+        this.tokens = this.capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public synchronized void setRate(double rate) {
+        refill();
+        this.rate = rate;
+    }
+
+    public synchronized double getCapacity() {
+        return capacity;
+    }
+
+    public synchronized void setCapacity(double capacity) {
+        refill();
+        this.capacity = Math.max(1.0, capacity);
+        this.tokens = Math.min(this.tokens, this.capacity);
+    }
+
+    /**
+     * Takes one token, sleeps if the bucket is empty
+     */
+    public void acquire() {
+        long wait = reserve();
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Reserves one token and returns the time (nanos) the caller should wait before using it
+     */
+    private synchronized long reserve() {
+        if (rate <= 0) return 0;
+        refill();
+        tokens -= 1.0;
+        return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+    }
+
+    /**
+     * Adds tokens for the time passed since the last refill
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate > 0) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) / 1e9 * rate);
+        }
+        lastRefill = now;
+    }
+
+}
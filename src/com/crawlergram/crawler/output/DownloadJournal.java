@@ -0,0 +1,134 @@
+/*
+ * Title: DownloadJournal.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.crawler.output;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+/**
+ * Sidecar journal of the file download. First line describes the file: "location_key part_size file_size",
+ * each next line is the number of the downloaded part. Lines are only appended, so after the crash the journal
+ * contains all parts written before it. If the file description doesn't match or the data file is missing or shorter
+ * than the downloaded parts - journal starts from scratch.
+ */
+
+public class DownloadJournal {
+
+    private final File file; // journal file
+    private final BitSet done; // downloaded parts
+    private final boolean resumed; // true if some parts were downloaded before
+    private Writer writer;
+
+    private DownloadJournal(File file, BitSet done, boolean resumed, Writer writer) {
+        this.file = file;
+        this.done = done;
+        this.resumed = resumed;
+        this.writer = writer;
+    }
+
+    /**
+     * opens the journal, reads downloaded parts (if the journal describes the same file and the data file contains
+     * all of them)
+     * @param path path to the journal
+     * @param dataPath path to the file with downloaded parts
+     * @param key location of the file
+     * @param partSize part size in bytes
+     * @param size file size in bytes
+     */
+    public static DownloadJournal open(String path, String dataPath, String key, int partSize, int size) throws IOException {
+        File file = new File(path);
+        String header = key + " " + partSize + " " + size;
+        BitSet done = new BitSet();
+        boolean resumed = false;
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                if (header.equals(reader.readLine())) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        try {
+                            done.set(Integer.parseInt(line.trim()));
+                        } catch (NumberFormatException ignored) {
+                            // incomplete line (crash during writing)
+                        }
+                    }
+                    resumed = true;
+                }
+            }
+        }
+        if (resumed && !done.isEmpty()) {
+            // parts recorded as downloaded should be in the data file (it can be deleted or cut)
+            File data = new File(dataPath);
+            long end = Math.min((long) done.length() * partSize, size);
+            if (!data.exists() || (data.length() < end)) {
+                done.clear();
+                resumed = false;
+            }
+        }
+        Writer writer;
+        if (resumed) {
+            writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+            // finish incomplete line, if any
+            writer.write("\n");
+        } else {
+            FileMethods.checkFilePath(path);
+            writer = new OutputStreamWriter(new FileOutputStream(file, false), StandardCharsets.UTF_8);
+            writer.write(header + "\n");
+        }
+        writer.flush();
+        return new DownloadJournal(file, done, resumed, writer);
+    }
+
+    /**
+     * true if some parts were downloaded before
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public synchronized boolean isDone(int part) {
+        return done.get(part);
+    }
+
+    /**
+     * number of downloaded parts
+     */
+    public synchronized int getDoneCount() {
+        return done.cardinality();
+    }
+
+    /**
+     * marks the part as downloaded (part data should be written before)
+     * @param part number of the part
+     */
+    public synchronized void markDone(int part) throws IOException {
+        done.set(part);
+        writer.write(part + "\n");
+        writer.flush();
+    }
+
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * closes and deletes the journal (download is finished)
+     */
+    public void delete() {
+        close();
+        file.delete();
+    }
+
+}
@@ -12,10 +12,9 @@ import org.telegram.api.photo.size.TLAbsPhotoSize;
 import org.telegram.api.photo.size.TLPhotoSize;
 import org.telegram.tl.TLVector;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class FileMethods {
 
@@ -126,6 +125,51 @@ public class FileMethods {
         return output.toByteArray();
     }
 
+    /**
+     * returns SHA-256 digest (null if not available)
+     */
+    public static MessageDigest getHashDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * calculates SHA-256 hash of the file
+     * @param filePath path to the file
+     * @return hex string of the hash, null if file can't be read
+     */
+    public static String getFileHash(String filePath) {
+        MessageDigest digest = getHashDigest();
+        if (digest == null) return null;
+        try (InputStream input = new FileInputStream(filePath)) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+            return bytesToHex(digest.digest());
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * converts bytes to hex string
+     * @param bytes bytes
+     */
+    public static String bytesToHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
     /**
      * gets the location of the largest (and last one in the list) accessible photo
      * @param apss abs photo size
@@ -159,13 +203,17 @@ public class FileMethods {
     }
 
     /**
-     * combines the path and the name of the file, creates the directory
+     * combines the path and the name of the file, creates the directory (the file itself is not created, so an
+     * existing file at this path is always a complete one)
      * @param name name
      * @param path path
      */
     public static String setFileNameAndPath(String name, String path){
         String filePath = path + File.separator + name;
-        checkFilePath(filePath);
+        File dir = new File(filePath).getParentFile();
+        if ((dir != null) && !dir.exists()) {
+            dir.mkdirs();
+        }
         return filePath;
     }
 
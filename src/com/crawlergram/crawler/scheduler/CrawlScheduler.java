@@ -0,0 +1,131 @@
+/*
+ * Title: CrawlScheduler.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.crawler.scheduler;
+
+import com.crawlergram.crawler.apimethods.RequestBudget;
+import org.telegram.api.dialog.TLDialog;
+import org.telegram.tl.TLVector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Crawls several dialogs at once with a bounded pool of workers. All the workers share one global request budget
+ * (see RequestBudget), so the flood limits hold for the whole crawl, not for a single dialog.
+ * DB storage and maps of chats/users are shared between workers, they should be thread-safe.
+ */
+
+public class CrawlScheduler {
+
+    /**
+     * Crawling job for one dialog
+     */
+    public interface DialogCrawler {
+        void crawl(TLDialog dialog, DialogCrawlProgress progress);
+    }
+
+    private int workers; // number of dialogs crawled at once
+    private double requestsPerSecond; // global budget (0 if no limit)
+    private int burst; // max requests at once
+
+    /**
+     * @param workers number of dialogs crawled at once
+     * @param requestsPerSecond requests per second for all workers (0 if no limit)
+     * @param burst max number of requests done at once
+     */
+    public CrawlScheduler(int workers, double requestsPerSecond, int burst) {
+        this.workers = Math.max(1, workers);
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    /**
+     * Runs the crawler for each dialog, blocks until all the dialogs are done. Returns progress of each dialog, in order
+     * of the dialogs (ids of users and chats/channels may coincide, so progresses aren't keyed by id).
+     * @param dialogs dialogs
+     * @param crawler crawling job for one dialog
+     */
+    public List<DialogCrawlProgress> crawl(TLVector<TLDialog> dialogs, DialogCrawler crawler) {
+        RequestBudget.setBudget(requestsPerSecond, burst);
+        List<DialogCrawlProgress> progresses = new ArrayList<>();
+        AtomicInteger finished = new AtomicInteger(0);
+        int total = dialogs.size();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        for (TLDialog dialog : dialogs) {
+            DialogCrawlProgress progress = new DialogCrawlProgress(dialog);
+            progresses.add(progress);
+            pool.execute(() -> crawlDialog(crawler, dialog, progress, finished, total));
+        }
+        pool.shutdown();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                printRunning(progresses);
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        return progresses;
+    }
+
+    /**
+     * Crawls one dialog, errors of a single dialog don't stop the others
+     */
+    private static void crawlDialog(DialogCrawler crawler, TLDialog dialog, DialogCrawlProgress progress,
+                                    AtomicInteger finished, int total) {
+        progress.start();
+        try {
+            crawler.crawl(dialog, progress);
+            progress.finish();
+        } catch (Exception e) {
+            progress.fail(e);
+            e.printStackTrace();
+        }
+        System.out.println("DIALOG " + progress + " [" + finished.incrementAndGet() + "/" + total + "]");
+    }
+
+    /**
+     * Outputs dialogs which are still running
+     */
+    private static void printRunning(List<DialogCrawlProgress> progresses) {
+        for (DialogCrawlProgress progress : progresses) {
+            if (progress.getState() == DialogCrawlProgress.State.RUNNING) {
+                System.out.println("DIALOG " + progress);
+            }
+        }
+    }
+
+}
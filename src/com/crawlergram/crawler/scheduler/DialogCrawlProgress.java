@@ -0,0 +1,88 @@
+/*
+ * Title: DialogCrawlProgress.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.crawler.scheduler;
+
+import org.telegram.api.dialog.TLDialog;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of crawling of a single dialog
+ */
+
+public class DialogCrawlProgress {
+
+    public enum State {QUEUED, RUNNING, DONE, FAILED}
+
+    private final int dialogId;
+    private volatile State state;
+    private final AtomicInteger messages; // number of processed messages
+    private volatile long startTime; // millis
+    private volatile long endTime; // millis
+    private volatile String error;
+
+    public DialogCrawlProgress(TLDialog dialog) {
+        this.dialogId = dialog.getPeer().getId();
+        this.state = State.QUEUED;
+        this.messages = new AtomicInteger(0);
+    }
+
+    public int getDialogId() {
+        return dialogId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getMessages() {
+        return messages.get();
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Adds number of processed messages
+     * @param count number of messages
+     */
+    public void addMessages(int count) {
+        messages.addAndGet(count);
+    }
+
+    void start() {
+        startTime = System.currentTimeMillis();
+        state = State.RUNNING;
+    }
+
+    void finish() {
+        endTime = System.currentTimeMillis();
+        state = State.DONE;
+    }
+
+    void fail(Throwable e) {
+        endTime = System.currentTimeMillis();
+        error = e.toString();
+        state = State.FAILED;
+    }
+
+    /**
+     * time spent on dialog in millis (till now, if dialog is still running)
+     */
+    public long getElapsedTime() {
+        if (startTime == 0) return 0;
+        return ((endTime != 0) ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    @Override
+    public String toString() {
+        String out = dialogId + " " + state + " " + messages.get() + " messages, " + getElapsedTime() / 1000 + " s";
+        return (error != null) ? out + " (" + error + ")" : out;
+    }
+}
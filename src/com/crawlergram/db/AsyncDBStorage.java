@@ -0,0 +1,494 @@
+/*
+ * Title: AsyncDBStorage.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.db;
+
+import org.telegram.api.chat.TLAbsChat;
+import org.telegram.api.dialog.TLDialog;
+import org.telegram.api.message.TLAbsMessage;
+import org.telegram.api.user.TLAbsUser;
+import org.telegram.tl.TLObject;
+import org.telegram.tl.TLVector;
+import com.crawlergram.topicextractor.structures.TEDialog;
+import com.crawlergram.topicextractor.structures.message.TEMessage;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind decorator of DBStorage. Writes are put into a bounded queue and applied to the wrapped storage by
+ * a single background thread, so the crawler doesn't wait for the DB after each page. If the queue is full, the
+ * caller waits (backpressure). Consecutive message pages of the same dialog are merged into one write.
+ * Reads wait until all the queued writes are done. flush() waits for the queued writes, close() also stops the
+ * writer and closes the wrapped storage - it should be called before the exit, otherwise queued writes are lost.
+ */
+
+public class AsyncDBStorage implements DBStorage {
+
+    private static final int MAX_MERGED_MESSAGES = 1000; // max number of messages merged into one write
+
+    private final DBStorage storage; // wrapped storage
+    private final BlockingQueue<Op> queue; // queued writes
+    private final Thread writer; // background writer
+    private final ThreadLocal<String> target = new ThreadLocal<>(); // target of the caller thread
+    private volatile boolean closed;
+
+    /**
+     * Queued write
+     */
+    private interface Op {
+        void apply(DBStorage storage);
+    }
+
+    /**
+     * Queued page of messages (can be merged with the following pages of the same dialog), the callbacks get the
+     * result of the write
+     */
+    private static class MessagesOp implements Op {
+
+        private final TLVector<TLAbsMessage> absMessages;
+        private final TLDialog dialog;
+        private final List<Consumer<Boolean>> callbacks = new ArrayList<>();
+
+        MessagesOp(TLVector<TLAbsMessage> absMessages, TLDialog dialog) {
+            this.absMessages = absMessages;
+            this.dialog = dialog;
+        }
+
+        @Override
+        public void apply(DBStorage storage) {
+            boolean written = false;
+            try {
+                written = storage.writeTLAbsMessages(absMessages, dialog);
+            } finally {
+                for (Consumer<Boolean> callback : callbacks) {
+                    callback.accept(written);
+                }
+            }
+        }
+    }
+
+    /**
+     * Barrier, released when all the previous writes are done
+     */
+    private static class FlushOp implements Op {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public void apply(DBStorage storage) {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * @param storage wrapped storage
+     * @param capacity max number of queued writes
+     */
+    public AsyncDBStorage(DBStorage storage, int capacity) {
+        this.storage = storage;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.writer = new Thread(this::writeLoop, "db-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public DBStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Applies queued writes until the storage is closed
+     */
+    private void writeLoop() {
+        List<Op> ops = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                ops.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(ops);
+            for (int i = 0; i < ops.size(); i++) {
+                Op op = ops.get(i);
+                if (op instanceof MessagesOp) {
+                    i = mergeMessages(ops, i);
+                } else {
+                    applySafe(op);
+                }
+            }
+            ops.clear();
+        }
+    }
+
+    /**
+     * Writes the page of messages together with the following pages of the same dialog. Returns index of the last
+     * merged op.
+     * @param ops queued writes
+     * @param start index of the first page
+     */
+    private int mergeMessages(List<Op> ops, int start) {
+        MessagesOp first = (MessagesOp) ops.get(start);
+        int dialogId = first.dialog.getPeer().getId();
+        int end = start;
+        int size = first.absMessages.size();
+        while ((end + 1 < ops.size()) && (ops.get(end + 1) instanceof MessagesOp)) {
+            MessagesOp next = (MessagesOp) ops.get(end + 1);
+            if ((next.dialog.getPeer().getId() != dialogId) || (size + next.absMessages.size() > MAX_MERGED_MESSAGES)) {
+                break;
+            }
+            size += next.absMessages.size();
+            end++;
+        }
+        if (end == start) {
+            applySafe(first);
+        } else {
+            MessagesOp merged = new MessagesOp(new TLVector<>(), first.dialog);
+            for (int i = start; i <= end; i++) {
+                merged.absMessages.addAll(((MessagesOp) ops.get(i)).absMessages);
+                merged.callbacks.addAll(((MessagesOp) ops.get(i)).callbacks);
+            }
+            applySafe(merged);
+        }
+        return end;
+    }
+
+    /**
+     * Applies the write, errors don't stop the writer (callbacks of failed pages of messages get false)
+     */
+    private void applySafe(Op op) {
+        try {
+            op.apply(storage);
+        } catch (RuntimeException e) {
+            System.err.println("DB WRITE: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Puts the write into the queue, waits if the queue is full. Waiting isn't interrupted (writes are applied only by
+     * the writer thread, in order), the interrupt flag is restored afterwards.
+     */
+    private void enqueue(Op op) {
+        if (closed) {
+            throw new IllegalStateException("Storage is closed");
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(op);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Puts the write into the queue, the write will be done to the current target of the caller thread
+     */
+    private void enqueueToTarget(Op op) {
+        String t = target.get();
+        enqueue(s -> {
+            if (t != null) s.setTarget(t);
+            op.apply(s);
+        });
+    }
+
+    @Override
+    public void flush() {
+        if (closed || (Thread.currentThread() == writer)) return;
+        FlushOp op = new FlushOp();
+        enqueue(op);
+        // the queue is drained even if the caller is interrupted (e.g. on shutdown of the crawler)
+        boolean interrupted = false;
+        while (true) {
+            try {
+                op.latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        flush();
+        closed = true;
+        writer.interrupt();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                writer.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        storage.close();
+    }
+
+    @Override
+    public void setTarget(String target) {
+        this.target.set(target);
+    }
+
+    @Override
+    public void dropTarget(String target) {
+        flush();
+        storage.dropTarget(target);
+    }
+
+    @Override
+    public void setDatabase(String database) {
+        flush();
+        storage.setDatabase(database);
+    }
+
+    @Override
+    public void dropDatabase() {
+        flush();
+        storage.dropDatabase();
+    }
+
+    @Override
+    public void write(Object obj) {
+        enqueueToTarget(s -> s.write(obj));
+    }
+
+    @Override
+    public void writeFullDialog(TLObject dial, Map<Integer, TLAbsChat> chatsHashMap, Map<Integer, TLAbsUser> usersHashMap) {
+        enqueue(s -> s.writeFullDialog(dial, chatsHashMap, usersHashMap));
+    }
+
+    @Override
+    public void writeUsersHashMap(Map<Integer, TLAbsUser> usersHashMap) {
+        // copy, the map can be changed by crawlers while it is in the queue
+        Map<Integer, TLAbsUser> copy = new HashMap<>(usersHashMap);
+        enqueue(s -> s.writeUsersHashMap(copy));
+    }
+
+    @Override
+    public void writeChatsHashMap(Map<Integer, TLAbsChat> chatsHashMap) {
+        // copy, the map can be changed by crawlers while it is in the queue
+        Map<Integer, TLAbsChat> copy = new HashMap<>(chatsHashMap);
+        enqueue(s -> s.writeChatsHashMap(copy));
+    }
+
+    @Override
+    public void writeParticipants(TLObject participants, TLDialog dialog) {
+        enqueue(s -> s.writeParticipants(participants, dialog));
+    }
+
+    /**
+     * Queues the messages, returns true when they are queued (use the callback version to get the result of the write)
+     */
+    @Override
+    public boolean writeTLAbsMessages(TLVector<TLAbsMessage> absMessages, TLDialog dialog) {
+        if ((absMessages != null) && (!absMessages.isEmpty())) {
+            enqueue(new MessagesOp(absMessages, dialog));
+        }
+        return true;
+    }
+
+    /**
+     * Queues the messages, the callback is called from the writer thread after the messages are written
+     */
+    @Override
+    public void writeTLAbsMessages(TLVector<TLAbsMessage> absMessages, TLDialog dialog, Consumer<Boolean> onWritten) {
+        if ((absMessages != null) && (!absMessages.isEmpty())) {
+            MessagesOp op = new MessagesOp(absMessages, dialog);
+            op.callbacks.add(onWritten);
+            enqueue(op);
+        } else {
+            onWritten.accept(true);
+        }
+    }
+
+    /**
+     * Queues the messages, returns true when they are queued (use the callback version to get the result of the write)
+     */
+    @Override
+    public boolean writeTLAbsMessagesWithReferences(TLVector<TLAbsMessage> absMessages, List<String> references, TLDialog dialog) {
+        enqueue(s -> s.writeTLAbsMessagesWithReferences(absMessages, references, dialog));
+        return true;
+    }
+
+    /**
+     * Queues the messages, the callback is called from the writer thread after the messages are written
+     */
+    @Override
+    public void writeTLAbsMessagesWithReferences(TLVector<TLAbsMessage> absMessages, List<String> references,
+                                                 TLDialog dialog, Consumer<Boolean> onWritten) {
+        enqueue(s -> {
+            boolean written = false;
+            try {
+                written = s.writeTLAbsMessagesWithReferences(absMessages, references, dialog);
+            } finally {
+                onWritten.accept(written);
+            }
+        });
+    }
+
+    @Override
+    public void writeTLAbsMessage(TLAbsMessage absMessage) {
+        enqueueToTarget(s -> s.writeTLAbsMessage(absMessage));
+    }
+
+    @Override
+    public void writeTLAbsMessageWithReference(TLAbsMessage absMessage, String filePath) {
+        enqueueToTarget(s -> s.writeTLAbsMessageWithReference(absMessage, filePath));
+    }
+
+    @Override
+    public Integer getMessageMaxId(TLDialog dialog) {
+        flush();
+        return storage.getMessageMaxId(dialog);
+    }
+
+    @Override
+    public Integer getMessageMinId(TLDialog dialog) {
+        flush();
+        return storage.getMessageMinId(dialog);
+    }
+
+    @Override
+    public Integer getMessageMinIdDate(TLDialog dialog) {
+        flush();
+        return storage.getMessageMinIdDate(dialog);
+    }
+
+    @Override
+    public Integer getMessageMaxIdDate(TLDialog dialog) {
+        flush();
+        return storage.getMessageMaxIdDate(dialog);
+    }
+
+    @Override
+    public Map<Integer, MessageHistoryExclusions> readCheckpoints() {
+        flush();
+        return storage.readCheckpoints();
+    }
+
+    @Override
+    public MessageHistoryExclusions readCheckpoint(TLDialog dialog) {
+        flush();
+        return storage.readCheckpoint(dialog);
+    }
+
+    @Override
+    public void writeCheckpoint(TLDialog dialog, int minId, int minDate, int maxId, int maxDate) {
+        // queued after the messages of the range
+        enqueue(s -> s.writeCheckpoint(dialog, minId, minDate, maxId, maxDate));
+    }
+
+    @Override
+    public void writeFile(String name, byte[] bytes) {
+        enqueue(s -> s.writeFile(name, bytes));
+    }
+
+    @Override
+    public OutputStream openFileStream(String name) {
+        // streams are written by the caller thread
+        return storage.openFileStream(name);
+    }
+
+    @Override
+    public void abortFileStream(OutputStream stream) {
+        storage.abortFileStream(stream);
+    }
+
+    @Override
+    public String getMediaReference(String key, String storage) {
+        return this.storage.getMediaReference(key, storage);
+    }
+
+    @Override
+    public String getMediaReferenceByHash(String hash, String storage) {
+        return this.storage.getMediaReferenceByHash(hash, storage);
+    }
+
+    @Override
+    public void writeMediaReference(String key, String storage, String reference, String hash, long size) {
+        // media index is written at once, the next messages should see the media
+        this.storage.writeMediaReference(key, storage, reference, hash, size);
+    }
+
+    @Override
+    public void createIndex(String field, int type) {
+        flush();
+        if (target.get() != null) storage.setTarget(target.get());
+        storage.createIndex(field, type);
+    }
+
+    @Override
+    public void createIndex(List<String> fields, List<Integer> types) {
+        flush();
+        if (target.get() != null) storage.setTarget(target.get());
+        storage.createIndex(fields, types);
+    }
+
+    @Override
+    public List<TEMessage> readMessages(TEDialog target) {
+        flush();
+        return storage.readMessages(target);
+    }
+
+    @Override
+    public List<TEMessage> readMessages(TEDialog target, int dateFrom, int dateTo) {
+        flush();
+        return storage.readMessages(target, dateFrom, dateTo);
+    }
+
+    @Override
+    public boolean readMessages(TEDialog target, Consumer<TEMessage> sink) {
+        flush();
+        return storage.readMessages(target, sink);
+    }
+
+    @Override
+    public boolean readMessages(TEDialog target, int dateFrom, int dateTo, Consumer<TEMessage> sink) {
+        flush();
+        return storage.readMessages(target, dateFrom, dateTo, sink);
+    }
+
+    @Override
+    public List<TEDialog> getDialogs() {
+        flush();
+        return storage.getDialogs();
+    }
+
+    @Override
+    public void saveFilesToHDD(String path) {
+        flush();
+        storage.saveFilesToHDD(path);
+    }
+
+    @Override
+    public void saveFileToHDD(String path, Object filePointer) {
+        flush();
+        storage.saveFileToHDD(path, filePointer);
+    }
+
+}
@@ -17,6 +17,10 @@ public class Constants {
     public static String USERS_COL = "USERS"; // users table/collection/etc.
     public static String CHATS_COL = "CHATS"; // chats table/collection/etc.
     public static String DIALOGS = "DIALOGS"; // user dialogs (full info) table/collection/etc.
+    public static String MEDIA_COL = "MEDIA"; // index of stored media table/collection/etc.
+    public static String CHECKPOINTS = "CHECKPOINTS"; // ranges of saved messages of dialogs table/collection/etc.
+    public static final String MEDIA_HDD = "HDD"; // media stored on HDD
+    public static final String MEDIA_DB = "DB"; // media stored in DB
 
     public static String getMsgDialPref() {
         return MSG_DIAL_PREF;
@@ -57,4 +61,20 @@ public class Constants {
     public static void setDialogs(String DIALOGS) {
         Constants.DIALOGS = DIALOGS;
     }
+
+    public static String getMediaCol() {
+        return MEDIA_COL;
+    }
+
+    public static void setMediaCol(String mediaCol) {
+        MEDIA_COL = mediaCol;
+    }
+
+    public static String getCheckpoints() {
+        return CHECKPOINTS;
+    }
+
+    public static void setCheckpoints(String checkpoints) {
+        CHECKPOINTS = checkpoints;
+    }
 }
@@ -16,8 +16,10 @@ import org.telegram.tl.TLVector;
 import com.crawlergram.topicextractor.structures.TEDialog;
 import com.crawlergram.topicextractor.structures.message.TEMessage;
 
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public interface DBStorage {
 
@@ -81,8 +83,44 @@ public interface DBStorage {
      * Writes messages from dialogs to DB (each dialog to a single collection)
      * @param absMessages messages
      * @param dialog dialog
+     * @return true if all the messages are written (asynchronous storage returns true when messages are queued)
      */
-    void writeTLAbsMessages(TLVector<TLAbsMessage> absMessages, TLDialog dialog);
+    boolean writeTLAbsMessages(TLVector<TLAbsMessage> absMessages, TLDialog dialog);
+
+    /**
+     * Writes messages from dialogs to DB (each dialog to a single collection), passes the result of the write
+     * (true if all the messages are written) to the callback after the write is done. Asynchronous storage calls it
+     * from the writer thread.
+     * @param absMessages messages
+     * @param dialog dialog
+     * @param onWritten callback
+     */
+    default void writeTLAbsMessages(TLVector<TLAbsMessage> absMessages, TLDialog dialog, Consumer<Boolean> onWritten) {
+        onWritten.accept(writeTLAbsMessages(absMessages, dialog));
+    }
+
+    /**
+     * Writes messages of the dialog to DB with references to the saved files
+     * @param absMessages messages
+     * @param references file references (null for the messages without saved files)
+     * @param dialog dialog
+     * @return true if all the messages are written (asynchronous storage returns true when messages are queued)
+     */
+    boolean writeTLAbsMessagesWithReferences(TLVector<TLAbsMessage> absMessages, List<String> references, TLDialog dialog);
+
+    /**
+     * Writes messages of the dialog to DB with references to the saved files, passes the result of the write (true
+     * if all the messages are written) to the callback after the write is done. Asynchronous storage calls it from
+     * the writer thread.
+     * @param absMessages messages
+     * @param references file references (null for the messages without saved files)
+     * @param dialog dialog
+     * @param onWritten callback
+     */
+    default void writeTLAbsMessagesWithReferences(TLVector<TLAbsMessage> absMessages, List<String> references,
+                                                  TLDialog dialog, Consumer<Boolean> onWritten) {
+        onWritten.accept(writeTLAbsMessagesWithReferences(absMessages, references, dialog));
+    }
 
     /**
      * Write a single TLAbsMessage to DB
@@ -121,6 +159,28 @@ public interface DBStorage {
      */
     Integer getMessageMaxIdDate(TLDialog dialog);
 
+    /**
+     * reads checkpoints (ranges of messages saved to db) of all dialogs
+     * @return map: dialog id - range
+     */
+    Map<Integer, MessageHistoryExclusions> readCheckpoints();
+
+    /**
+     * reads checkpoint (range of messages saved to db) of the dialog, null if there is no checkpoint
+     * @param dialog dialog
+     */
+    MessageHistoryExclusions readCheckpoint(TLDialog dialog);
+
+    /**
+     * extends checkpoint of the dialog with the range of saved messages (creates checkpoint if it doesn't exist)
+     * @param dialog dialog
+     * @param minId min id of saved messages
+     * @param minDate date of min id message
+     * @param maxId max id of saved messages
+     * @param maxDate date of max id message
+     */
+    void writeCheckpoint(TLDialog dialog, int minId, int minDate, int maxId, int maxDate);
+
     /**
      * writes bytes to GridFS
      * @param name filename
@@ -128,6 +188,43 @@ public interface DBStorage {
      */
     void writeFile(String name, byte[] bytes);
 
+    /**
+     * opens stream for writing the file to DB, file is saved when the stream is closed
+     * @param name filename
+     * @return stream or null if it can't be opened
+     */
+    OutputStream openFileStream(String name);
+
+    /**
+     * aborts writing of the file opened with openFileStream, nothing is saved
+     * @param stream stream
+     */
+    void abortFileStream(OutputStream stream);
+
+    /**
+     * returns reference to the stored media (file path or file name in DB), null if media is not stored
+     * @param key media key (document or photo id)
+     * @param storage where the media is stored: HDD or DB
+     */
+    String getMediaReference(String key, String storage);
+
+    /**
+     * returns reference to the stored media with the same content, null if there is no such media
+     * @param hash content hash
+     * @param storage where the media is stored: HDD or DB
+     */
+    String getMediaReferenceByHash(String hash, String storage);
+
+    /**
+     * writes reference to the stored media to the media index
+     * @param key media key (document or photo id)
+     * @param storage where the media is stored: HDD or DB
+     * @param reference file path or file name in DB
+     * @param hash content hash
+     * @param size size in bytes
+     */
+    void writeMediaReference(String key, String storage, String reference, String hash, long size);
+
     /**
      * creates single field index
      * @param field indexing field
@@ -156,6 +253,24 @@ public interface DBStorage {
      */
     List<TEMessage> readMessages(TEDialog target, int dateFrom, int dateTo);
 
+    /**
+     * reads all messages from DB one by one, messages are passed to the sink as they come from DB. Returns false if
+     * reading failed (the sink got only a part of the messages)
+     * @param target target dialog
+     * @param sink consumer of the messages
+     */
+    boolean readMessages(TEDialog target, Consumer<TEMessage> sink);
+
+    /**
+     * reads messages between two dates from DB one by one, messages are passed to the sink as they come from DB.
+     * Returns false if reading failed (the sink got only a part of the messages)
+     * @param target target dialog
+     * @param dateFrom date from
+     * @param dateTo date to
+     * @param sink consumer of the messages
+     */
+    boolean readMessages(TEDialog target, int dateFrom, int dateTo, Consumer<TEMessage> sink);
+
     /**
      * returns dialogs list
      */
@@ -174,4 +289,14 @@ public interface DBStorage {
      */
     void saveFileToHDD(String path, Object filePointer);
 
+    /**
+     * waits until all the pending writes are done
+     */
+    void flush();
+
+    /**
+     * finishes pending writes and closes the connection to db
+     */
+    void close();
+
 }
@@ -9,6 +9,13 @@ package com.crawlergram.db;
 
 import org.telegram.api.dialog.TLDialog;
 
+import java.util.Map;
+
+/**
+ * Range of messages of the dialog, which are already in DB. Read from the checkpoint of the dialog, if there is no
+ * checkpoint (data from the older versions) - computed from the messages collection and saved as a checkpoint.
+ */
+
 public class MessageHistoryExclusions {
 
     private Integer minId; // min msg id in db
@@ -16,11 +23,44 @@ public class MessageHistoryExclusions {
     private Integer maxDate; // max date
     private Integer minDate; // min date
 
+    public MessageHistoryExclusions(Integer minId, Integer minDate, Integer maxId, Integer maxDate){
+        this.minId = minId;
+        this.minDate = minDate;
+        this.maxId = maxId;
+        this.maxDate = maxDate;
+    }
+
+    /**
+     * reads the checkpoint of the dialog
+     * @param dbStorage db storage
+     * @param dialog dialog
+     */
     public MessageHistoryExclusions(DBStorage dbStorage, TLDialog dialog){
-        this.minId = dbStorage.getMessageMinId(dialog);
-        this.minDate = dbStorage.getMessageMinIdDate(dialog);
-        this.maxId = dbStorage.getMessageMaxId(dialog);
-        this.maxDate = dbStorage.getMessageMaxIdDate(dialog);
+        this(dbStorage, dialog, null);
+    }
+
+    /**
+     * gets the checkpoint of the dialog from preloaded checkpoints (reads it from db, if checkpoints are null)
+     * @param dbStorage db storage
+     * @param dialog dialog
+     * @param checkpoints checkpoints of all dialogs (see DBStorage.readCheckpoints)
+     */
+    public MessageHistoryExclusions(DBStorage dbStorage, TLDialog dialog, Map<Integer, MessageHistoryExclusions> checkpoints){
+        MessageHistoryExclusions checkpoint = (checkpoints != null)
+                ? checkpoints.get(dialog.getPeer().getId())
+                : dbStorage.readCheckpoint(dialog);
+        if (checkpoint == null) {
+            // no checkpoint - computes from the messages (legacy data)
+            checkpoint = new MessageHistoryExclusions(dbStorage.getMessageMinId(dialog), dbStorage.getMessageMinIdDate(dialog),
+                    dbStorage.getMessageMaxId(dialog), dbStorage.getMessageMaxIdDate(dialog));
+            if (checkpoint.exist()) {
+                dbStorage.writeCheckpoint(dialog, checkpoint.getMinId(), checkpoint.getMinDate(), checkpoint.getMaxId(), checkpoint.getMaxDate());
+            }
+        }
+        this.minId = checkpoint.getMinId();
+        this.minDate = checkpoint.getMinDate();
+        this.maxId = checkpoint.getMaxId();
+        this.maxDate = checkpoint.getMaxDate();
     }
 
     public boolean exist(){
@@ -12,11 +12,11 @@ import com.mongodb.client.*;
 import com.mongodb.client.gridfs.GridFSBucket;
 import com.mongodb.client.gridfs.GridFSBuckets;
 import com.mongodb.client.gridfs.GridFSFindIterable;
+import com.mongodb.client.gridfs.GridFSUploadStream;
 import com.mongodb.client.gridfs.model.GridFSFile;
 import com.mongodb.client.gridfs.model.GridFSUploadOptions;
-import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.Indexes;
-import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.*;
 import com.crawlergram.crawler.output.FileMethods;
 import org.bson.Document;
 import org.bson.types.ObjectId;
@@ -78,11 +78,13 @@ import org.telegram.tl.TLIntVector;
 import org.telegram.tl.TLObject;
 import org.telegram.tl.TLVector;
 import com.crawlergram.db.DBStorage;
+import com.crawlergram.db.MessageHistoryExclusions;
 import com.crawlergram.topicextractor.structures.TEDialog;
 import com.crawlergram.topicextractor.structures.message.TEMessage;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Sorts.ascending;
@@ -105,8 +107,10 @@ public class MongoDBStorage implements DBStorage {
     private MongoClient mongoClient; // client instance
     private MongoDatabase database; // db instance
     private GridFSBucket gridFSBucket; // bucket for files
-    private MongoCollection<Document> collection; //collection
+    private final ThreadLocal<MongoCollection<Document>> collection = new ThreadLocal<>(); // collection (target of the current thread)
     private boolean upsert; // upsert into DB? if false - regular write
+    private int batchSize; // max number of messages in one bulk write (if <= 1 - messages are written one by one)
+    private volatile boolean mediaIndexed; // true if index of media collection is created
 
     public MongoDBStorage(String user, String db, String psw, String host, Integer port, String gridFSBucketName){
         this.user = user;
@@ -120,6 +124,7 @@ public class MongoDBStorage implements DBStorage {
         this.database = mongoClient.getDatabase(db);
         this.gridFSBucket = GridFSBuckets.create(this.database, gridFSBucketName);
         this.upsert = false;
+        this.batchSize = 1000;
     }
 
     public String getUser() {
@@ -203,11 +208,11 @@ public class MongoDBStorage implements DBStorage {
     }
 
     public MongoCollection<Document> getCollection() {
-        return collection;
+        return collection.get();
     }
 
     public void setCollection(MongoCollection<Document> collection) {
-        this.collection = collection;
+        this.collection.set(collection);
     }
 
     public boolean isUpsert() {
@@ -218,12 +223,20 @@ public class MongoDBStorage implements DBStorage {
         this.upsert = upsert;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
     public void setGridFSBucket(String gridFSBucketName) {
         gridFSBucket = GridFSBuckets.create(database, gridFSBucketName);
     }
 
     public void setCollection(String collName) {
-        collection = database.getCollection(collName);
+        collection.set(database.getCollection(collName));
     }
 
     /**
@@ -246,7 +259,7 @@ public class MongoDBStorage implements DBStorage {
     @Override
     public void setTarget(String target) {
         try {
-            collection = database.getCollection(target);
+            collection.set(database.getCollection(target));
         } catch (MongoException e) {
             System.err.println(e.getCode() + " " + e.getMessage());
         }
@@ -284,22 +297,32 @@ public class MongoDBStorage implements DBStorage {
     @Override
     public void write(Object obj) {
         if (obj != null) {
-            if (!isUpsert()) {
-                try {
-                    collection.insertOne((Document) obj);
-                } catch (MongoException e) {
-                    System.err.println(e.getCode() + " " + e.getMessage());
-                }
-            } else {
-                try {
-                    Document doc = (Document) obj;
-                    collection.updateOne(Filters.eq("_id", doc.get("_id")), new Document("$set", doc), new UpdateOptions().upsert(true));
-                } catch (MongoException e) {
-                    System.err.println(e.getCode() + " " + e.getMessage());
-                }
+            writeDocument((Document) obj);
+        }
+    }
 
+    /**
+     * writes document to db, returns false if it isn't written (already existing document counts as written)
+     * @param doc document
+     */
+    private boolean writeDocument(Document doc) {
+        if (!isUpsert()) {
+            try {
+                getCollection().insertOne(doc);
+            } catch (MongoException e) {
+                if (e.getCode() == 11000) return true;
+                System.err.println(e.getCode() + " " + e.getMessage());
+                return false;
+            }
+        } else {
+            try {
+                getCollection().updateOne(Filters.eq("_id", doc.get("_id")), new Document("$set", doc), new UpdateOptions().upsert(true));
+            } catch (MongoException e) {
+                System.err.println(e.getCode() + " " + e.getMessage());
+                return false;
             }
         }
+        return true;
     }
 
     /**
@@ -382,19 +405,75 @@ public class MongoDBStorage implements DBStorage {
      * Write messages to DB
      * @param absMessages messages
      * @param dialog dialog
+     * @return true if all the messages are written
      */
     @Override
-    public void writeTLAbsMessages(TLVector<TLAbsMessage> absMessages, TLDialog dialog) {
+    public boolean writeTLAbsMessages(TLVector<TLAbsMessage> absMessages, TLDialog dialog) {
         this.setTarget(MSG_DIAL_PREF + dialog.getPeer().getId());
+        boolean written = true;
         if ((absMessages != null) && (!absMessages.isEmpty())){
             try {
-                for (TLAbsMessage absMessage : absMessages) {
-                    writeTLAbsMessage(absMessage);
+                if (batchSize > 1) {
+                    List<Document> docs = new ArrayList<>(Math.min(batchSize, absMessages.size()));
+                    for (TLAbsMessage absMessage : absMessages) {
+                        Document doc = tlAbsMessageToDocument(absMessage);
+                        if (doc != null) {
+                            docs.add(doc);
+                        }
+                        if (docs.size() >= batchSize) {
+                            written &= writeBatch(docs);
+                            docs.clear();
+                        }
+                    }
+                    written &= writeBatch(docs);
+                } else {
+                    for (TLAbsMessage absMessage : absMessages) {
+                        Document doc = tlAbsMessageToDocument(absMessage);
+                        if (doc != null) {
+                            written &= writeDocument(doc);
+                        }
+                    }
                 }
             } catch (MongoException e) {
                 System.err.println(e.getCode() + " " + e.getMessage());
+                return false;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * writes documents to db with a single unordered bulk write (upserts are replacements),
+     * already existing documents (duplicate key errors) are skipped
+     * @param docs documents
+     * @return false if some documents aren't written
+     */
+    private boolean writeBatch(List<Document> docs) {
+        if (docs.isEmpty()) return true;
+        List<WriteModel<Document>> models = new ArrayList<>(docs.size());
+        for (Document doc : docs) {
+            if (isUpsert()) {
+                models.add(new ReplaceOneModel<>(Filters.eq("_id", doc.get("_id")), doc, new UpdateOptions().upsert(true)));
+            } else {
+                models.add(new InsertOneModel<>(doc));
+            }
+        }
+        boolean written = true;
+        try {
+            getCollection().bulkWrite(models, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (error.getCode() != 11000) {
+                    System.err.println(error.getCode() + " " + error.getMessage());
+                    written = false;
+                }
+            }
+            if (e.getWriteConcernError() != null) {
+                System.err.println(e.getWriteConcernError().getCode() + " " + e.getWriteConcernError().getMessage());
+                written = false;
             }
         }
+        return written;
     }
 
     /**
@@ -403,15 +482,53 @@ public class MongoDBStorage implements DBStorage {
      */
     @Override
     public void writeTLAbsMessage(TLAbsMessage absMessage){
+        this.write(tlAbsMessageToDocument(absMessage));
+    }
+
+    /**
+     * converts TLAbsMessage to document (null if unknown type)
+     * @param absMessage abstract message
+     */
+    private static Document tlAbsMessageToDocument(TLAbsMessage absMessage){
         if (absMessage instanceof TLMessage){
-            this.write(tlMessageToDocument((TLMessage) absMessage));
+            return tlMessageToDocument((TLMessage) absMessage);
         } else if (absMessage instanceof TLMessageService){
-            this.write(tlMessageServiceToDocument((TLMessageService) absMessage));
+            return tlMessageServiceToDocument((TLMessageService) absMessage);
         } else if (absMessage instanceof TLMessageEmpty){
-            this.write(new Document("class","MessageEmpty")
+            return new Document("class","MessageEmpty")
                     .append("_id",((TLMessageEmpty) absMessage).getId())
-                    .append("chatId", absMessage.getChatId()));
+                    .append("chatId", absMessage.getChatId());
         }
+        return null;
+    }
+
+    /**
+     * Write messages to DB with references to the saved files
+     * @param absMessages messages
+     * @param references file references (null for the messages without saved files)
+     * @param dialog dialog
+     * @return true if all the messages are written
+     */
+    @Override
+    public boolean writeTLAbsMessagesWithReferences(TLVector<TLAbsMessage> absMessages, List<String> references, TLDialog dialog) {
+        this.setTarget(MSG_DIAL_PREF + dialog.getPeer().getId());
+        boolean written = true;
+        try {
+            for (int i = 0; i < absMessages.size(); i++) {
+                TLAbsMessage absMessage = absMessages.get(i);
+                String reference = references.get(i);
+                Document doc = ((reference != null) && (absMessage instanceof TLMessage))
+                        ? tlMessageToDocumentWithReference((TLMessage) absMessage, reference)
+                        : tlAbsMessageToDocument(absMessage);
+                if (doc != null) {
+                    written &= writeDocument(doc);
+                }
+            }
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+            return false;
+        }
+        return written;
     }
 
     /**
@@ -444,7 +561,7 @@ public class MongoDBStorage implements DBStorage {
     public Integer getMessageMaxId(TLDialog dialog){
         try {
             this.setTarget(MSG_DIAL_PREF + dialog.getPeer().getId());
-            FindIterable<Document> findMax = collection.find().sort(descending("_id")).limit(1);
+            FindIterable<Document> findMax = getCollection().find().sort(descending("_id")).limit(1);
             Document docMax = findMax.first();
             return docMax != null ? (Integer) docMax.get("_id") : null;
         } catch (MongoException e) {
@@ -460,7 +577,7 @@ public class MongoDBStorage implements DBStorage {
     public Integer getMessageMinId(TLDialog dialog) {
         try {
             this.setTarget(MSG_DIAL_PREF + dialog.getPeer().getId());
-            FindIterable<Document> findMin = collection.find().sort(ascending("_id")).limit(1);
+            FindIterable<Document> findMin = getCollection().find().sort(ascending("_id")).limit(1);
             Document docMin = findMin.first();
             return docMin != null ? (Integer) docMin.get("_id") : null;
         } catch (MongoException e) {
@@ -476,7 +593,7 @@ public class MongoDBStorage implements DBStorage {
     public Integer getMessageMinIdDate(TLDialog dialog) {
         try {
             this.setTarget(MSG_DIAL_PREF + dialog.getPeer().getId());
-            FindIterable<Document> findMin = collection.find().sort(ascending("_id")).limit(1);
+            FindIterable<Document> findMin = getCollection().find().sort(ascending("_id")).limit(1);
             Document docMin = findMin.first();
             return docMin != null ? (Integer) docMin.get("date") : null;
         } catch (MongoException e) {
@@ -492,7 +609,7 @@ public class MongoDBStorage implements DBStorage {
     public Integer getMessageMaxIdDate(TLDialog dialog) {
         try {
             this.setTarget(MSG_DIAL_PREF + dialog.getPeer().getId());
-            FindIterable<Document> findMax = collection.find().sort(descending("_id")).limit(1);
+            FindIterable<Document> findMax = getCollection().find().sort(descending("_id")).limit(1);
             Document docMax = findMax.first();
             return docMax != null ? (Integer) docMax.get("date") : null;
         } catch (MongoException e) {
@@ -501,6 +618,62 @@ public class MongoDBStorage implements DBStorage {
         }
     }
 
+    /**
+     * reads checkpoints of all dialogs with one query
+     */
+    @Override
+    public Map<Integer, MessageHistoryExclusions> readCheckpoints() {
+        Map<Integer, MessageHistoryExclusions> checkpoints = new HashMap<>();
+        try {
+            for (Document doc : database.getCollection(CHECKPOINTS).find()) {
+                checkpoints.put(doc.getInteger("_id"), documentToCheckpoint(doc));
+            }
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+        }
+        return checkpoints;
+    }
+
+    /**
+     * reads checkpoint of the dialog, null if there is no checkpoint
+     * @param dialog dialog
+     */
+    @Override
+    public MessageHistoryExclusions readCheckpoint(TLDialog dialog) {
+        try {
+            Document doc = database.getCollection(CHECKPOINTS).find(eq("_id", dialog.getPeer().getId())).first();
+            return (doc != null) ? documentToCheckpoint(doc) : null;
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * extends checkpoint of the dialog, single atomic upsert ($min/$max), doesn't change the current target
+     * @param dialog dialog
+     * @param minId min id of saved messages
+     * @param minDate date of min id message
+     * @param maxId max id of saved messages
+     * @param maxDate date of max id message
+     */
+    @Override
+    public void writeCheckpoint(TLDialog dialog, int minId, int minDate, int maxId, int maxDate) {
+        try {
+            database.getCollection(CHECKPOINTS).updateOne(eq("_id", dialog.getPeer().getId()),
+                    Updates.combine(Updates.min("minId", minId), Updates.min("minDate", minDate),
+                            Updates.max("maxId", maxId), Updates.max("maxDate", maxDate)),
+                    new UpdateOptions().upsert(true));
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+        }
+    }
+
+    private static MessageHistoryExclusions documentToCheckpoint(Document doc) {
+        return new MessageHistoryExclusions(doc.getInteger("minId"), doc.getInteger("minDate"),
+                doc.getInteger("maxId"), doc.getInteger("maxDate"));
+    }
+
     /**
      * writes bytes to GridFS
      * @param name filename
@@ -510,17 +683,118 @@ public class MongoDBStorage implements DBStorage {
     public void writeFile(String name, byte[] bytes) {
         try {
             InputStream inputStream = new ByteArrayInputStream(bytes);
-            // file type (last split)
-            String[] split = name.split("\\.");
-            String type = split[split.length - 1];
-            // 100kb chunks
-            GridFSUploadOptions options = new GridFSUploadOptions().chunkSizeBytes(100 * 1024).metadata(new Document("type", type));
-            gridFSBucket.uploadFromStream(name, inputStream, options);
+            gridFSBucket.uploadFromStream(name, inputStream, getUploadOptions(name));
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+        }
+    }
+
+    /**
+     * opens GridFS upload stream, file is saved when the stream is closed
+     * @param name filename
+     */
+    @Override
+    public OutputStream openFileStream(String name) {
+        try {
+            return gridFSBucket.openUploadStream(name, getUploadOptions(name));
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * aborts GridFS upload stream, already uploaded chunks are deleted
+     * @param stream stream
+     */
+    @Override
+    public void abortFileStream(OutputStream stream) {
+        try {
+            if (stream instanceof GridFSUploadStream) {
+                ((GridFSUploadStream) stream).abort();
+            }
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+        }
+    }
+
+    /**
+     * returns reference to the stored media, null if media is not stored
+     * @param key media key (document or photo id)
+     * @param storage where the media is stored: HDD or DB
+     */
+    @Override
+    public String getMediaReference(String key, String storage) {
+        try {
+            Document doc = getMediaCollection().find(eq("_id", storage + "_" + key)).first();
+            return (doc != null) ? doc.getString("reference") : null;
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * returns reference to the stored media with the same content, null if there is no such media
+     * @param hash content hash
+     * @param storage where the media is stored: HDD or DB
+     */
+    @Override
+    public String getMediaReferenceByHash(String hash, String storage) {
+        try {
+            Document doc = getMediaCollection().find(and(eq("sha256", hash), eq("storage", storage))).first();
+            return (doc != null) ? doc.getString("reference") : null;
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * writes reference to the stored media to the media index
+     * @param key media key (document or photo id)
+     * @param storage where the media is stored: HDD or DB
+     * @param reference file path or file name in DB
+     * @param hash content hash
+     * @param size size in bytes
+     */
+    @Override
+    public void writeMediaReference(String key, String storage, String reference, String hash, long size) {
+        try {
+            Document doc = new Document("_id", storage + "_" + key)
+                    .append("key", key)
+                    .append("storage", storage)
+                    .append("reference", reference)
+                    .append("sha256", hash)
+                    .append("size", size);
+            getMediaCollection().replaceOne(eq("_id", doc.get("_id")), doc, new UpdateOptions().upsert(true));
         } catch (MongoException e) {
             System.err.println(e.getCode() + " " + e.getMessage());
         }
     }
 
+    /**
+     * media index collection (doesn't change the current target), creates hash index once
+     */
+    private MongoCollection<Document> getMediaCollection() {
+        MongoCollection<Document> media = database.getCollection(MEDIA_COL);
+        if (!mediaIndexed) {
+            media.createIndex(Indexes.compoundIndex(Indexes.ascending("sha256"), Indexes.ascending("storage")));
+            mediaIndexed = true;
+        }
+        return media;
+    }
+
+    /**
+     * upload options: file type (last split of the name) and 100kb chunks
+     * @param name filename
+     */
+    private static GridFSUploadOptions getUploadOptions(String name) {
+        String[] split = name.split("\\.");
+        String type = split[split.length - 1];
+        return new GridFSUploadOptions().chunkSizeBytes(100 * 1024).metadata(new Document("type", type));
+    }
+
     /**
      * creates single field index
      * @param field indexing field
@@ -531,13 +805,13 @@ public class MongoDBStorage implements DBStorage {
         try {
             switch (type) {
                 case 1:
-                    collection.createIndex(Indexes.ascending(field));
+                    getCollection().createIndex(Indexes.ascending(field));
                     break;
                 case -1:
-                    collection.createIndex(Indexes.descending(field));
+                    getCollection().createIndex(Indexes.descending(field));
                     break;
                 default:
-                    collection.createIndex(Indexes.ascending(field));
+                    getCollection().createIndex(Indexes.ascending(field));
                     break;
             }
         } catch (MongoException e) {
@@ -571,15 +845,15 @@ public class MongoDBStorage implements DBStorage {
                 }
                 // if only desc is not empty
                 if (asc.isEmpty() && (!desc.isEmpty())){
-                    collection.createIndex(Indexes.descending(desc));
+                    getCollection().createIndex(Indexes.descending(desc));
                 }
                 // if only asc is not empty
                 if (desc.isEmpty() && (!asc.isEmpty())){
-                    collection.createIndex(Indexes.ascending(asc));
+                    getCollection().createIndex(Indexes.ascending(asc));
                 }
                 // if asc & desc is not empty
                 if ((!asc.isEmpty()) && (!desc.isEmpty())) {
-                    collection.createIndex(Indexes.compoundIndex(Indexes.ascending(asc), Indexes.descending(desc)));
+                    getCollection().createIndex(Indexes.compoundIndex(Indexes.ascending(asc), Indexes.descending(desc)));
                 }
             } else {
                 System.out.println("UNABLE TO CREATE INDEXES: fields and types have different lengths");
@@ -598,7 +872,7 @@ public class MongoDBStorage implements DBStorage {
         try {
             List<TEMessage> msgs = new LinkedList<>();
             this.setTarget(MSG_DIAL_PREF + target.getId());
-            FindIterable<Document> docs = collection.find().sort(descending("_id"));
+            FindIterable<Document> docs = getCollection().find().sort(descending("_id"));
             for (Document doc : docs) {
                 msgs.add(TEMessage.topicExtractionMessageFromMongoDocument(doc));
             }
@@ -620,7 +894,7 @@ public class MongoDBStorage implements DBStorage {
         try {
             List<TEMessage> msgs = new LinkedList<>();
             this.setTarget(MSG_DIAL_PREF + target.getId());
-            FindIterable<Document> docs = collection
+            FindIterable<Document> docs = getCollection()
                     .find(and(gte("date", dateFrom), lte("date", dateTo)))
                     .sort(descending("_id"));
             for (Document doc : docs) {
@@ -633,6 +907,53 @@ public class MongoDBStorage implements DBStorage {
         }
     }
 
+    /**
+     * reads all messages from DB for target collection, messages are passed to the sink as they come from the cursor.
+     * Returns false if reading failed (the sink got only a part of the messages)
+     * @param target target collection
+     * @param sink consumer of the messages
+     */
+    @Override
+    public boolean readMessages(TEDialog target, Consumer<TEMessage> sink) {
+        try {
+            this.setTarget(MSG_DIAL_PREF + target.getId());
+            FindIterable<Document> docs = getCollection().find().sort(descending("_id")).batchSize(batchSize);
+            for (Document doc : docs) {
+                sink.accept(TEMessage.topicExtractionMessageFromMongoDocument(doc));
+            }
+            return true;
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * reads messages between two dates from DB for target collection, messages are passed to the sink as they come
+     * from the cursor. Returns false if reading failed (the sink got only a part of the messages)
+     * @param target targetCollectionName collection
+     * @param dateFrom start date date
+     * @param dateTo end date
+     * @param sink consumer of the messages
+     */
+    @Override
+    public boolean readMessages(TEDialog target, int dateFrom, int dateTo, Consumer<TEMessage> sink) {
+        try {
+            this.setTarget(MSG_DIAL_PREF + target.getId());
+            FindIterable<Document> docs = getCollection()
+                    .find(and(gte("date", dateFrom), lte("date", dateTo)))
+                    .sort(descending("_id"))
+                    .batchSize(batchSize);
+            for (Document doc : docs) {
+                sink.accept(TEMessage.topicExtractionMessageFromMongoDocument(doc));
+            }
+            return true;
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * returns dialogs list from respective collection
      */
@@ -641,7 +962,7 @@ public class MongoDBStorage implements DBStorage {
         try {
             List<TEDialog> dialogs = new ArrayList<>();
             this.setTarget("DIALOGS");
-            FindIterable<Document> dials = collection.find();
+            FindIterable<Document> dials = getCollection().find();
             for (Document dial : dials) {
                 Document info = getPeerInfo((Integer) dial.get("_id"));
                 if (info != null){
@@ -691,6 +1012,24 @@ public class MongoDBStorage implements DBStorage {
         }
     }
 
+    /**
+     * all writes are synchronous, nothing to wait for
+     */
+    @Override
+    public void flush() {}
+
+    /**
+     * closes the client
+     */
+    @Override
+    public void close() {
+        try {
+            mongoClient.close();
+        } catch (MongoException e) {
+            System.err.println(e.getCode() + " " + e.getMessage());
+        }
+    }
+
     /**
      * gets peer info from database
      * @param id id
@@ -698,10 +1037,10 @@ public class MongoDBStorage implements DBStorage {
     public Document getPeerInfo(Integer id) {
         try {
             this.setTarget("CHATS");
-            Document peerInfo = collection.find(eq("_id", id)).first();
+            Document peerInfo = getCollection().find(eq("_id", id)).first();
             if (peerInfo == null) {
                 this.setTarget("USERS");
-                peerInfo = collection.find(eq("_id", id)).first();
+                peerInfo = getCollection().find(eq("_id", id)).first();
             }
             return peerInfo;
         } catch (MongoException e) {
@@ -10,12 +10,13 @@ package com.crawlergram.topicextractor;
 import com.crawlergram.db.DBStorage;
 import com.crawlergram.db.mongo.MongoDBStorage;
 import com.crawlergram.topicextractor.extractormethods.TopicExtractionMethods;
+import com.crawlergram.topicextractor.ldadmm.utility.RandomProvider;
 import com.crawlergram.topicextractor.liga.LIGA;
 
 import java.io.File;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class TopicExtractorMain {
 
@@ -25,15 +26,21 @@ public class TopicExtractorMain {
         // User "telegramJ" - db.createUser({user: "telegramJ", pwd: "cart", roles: [{ role: "readWrite", db: "telegram" }]})
         DBStorage dbStorage = new MongoDBStorage("telegramJ", "telegram", "cart", "localhost", 27017, "fs");
 
-        // language identification model (loaded only once)
+        // language identification model (loaded only once), binary snapshot is memory-mapped (created from JSON once)
         String ligaModel = "res" + File.separator + "liga" + File.separator + "model_n3.liga";
-        LIGA liga = new LIGA().setLogLIGA(true).setMaxSearchDepth(5000).setThreshold(0.5).setN(3).loadModel(ligaModel);
+        String ligaSnapshot = "res" + File.separator + "liga" + File.separator + "model_n3.ligab";
+        if (!new File(ligaSnapshot).exists()) LIGA.convertModel(ligaModel, ligaSnapshot, 3);
+        LIGA liga = new LIGA().setLogLIGA(true).setMaxSearchDepth(5000).setThreshold(0.5).setN(3).loadModel(ligaSnapshot);
 
-        // map for stopwords to prevent multiple file readings
-        Map<String, Set<String>> stopwords = new TreeMap<>();
+        // map for stopwords to prevent multiple file readings (shared by parallel tasks)
+        Map<String, Set<String>> stopwords = new ConcurrentHashMap<>();
 
-        // do topic extraction
-        TopicExtractionMethods.getTopicsForAllDialogs(dbStorage, 0, 0, 200, false, liga, stopwords);
+        // do topic extraction, several dialogs at once
+        TopicExtractionMethods.getTopicsForAllDialogsParallel(dbStorage, 0, 0, 200, false, liga, stopwords,
+                Runtime.getRuntime().availableProcessors(), new RandomProvider());
+
+        // do topic extraction, one dialog after another
+        //TopicExtractionMethods.getTopicsForAllDialogs(dbStorage, 0, 0, 200, false, liga, stopwords);
 
         // drop model and stopwords to save memory
         liga.dropModel();
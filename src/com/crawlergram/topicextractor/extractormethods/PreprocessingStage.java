@@ -0,0 +1,127 @@
+/*
+ * Title: PreprocessingStage.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.topicextractor.extractormethods;
+
+import com.crawlergram.topicextractor.liga.LIGA;
+import com.crawlergram.topicextractor.structures.message.TEMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Pipeline stage, which tokenizes messages and identifies their languages. Messages are passed to the stage one by
+ * one (e.g. directly from the DB cursor), collected to chunks and each chunk is processed as a ForkJoin task while
+ * the next messages are read. The number of chunks in flight is limited, so the reader waits if the processing is
+ * slower. Messages with empty text are skipped. finish() returns processed messages in the original order.
+ * The stage is used by a single reader thread, LIGA model is shared (read-only) between chunk tasks. Without LIGA
+ * the stage only tokenizes messages.
+ */
+
+public class PreprocessingStage implements Consumer<TEMessage> {
+
+    private final LIGA liga; // language identification model (null - languages aren't identified)
+    private final int chunkSize; // messages in a chunk
+    private final int maxInFlight; // max number of chunks processed at once
+    private final Deque<ForkJoinTask<List<TEMessage>>> inFlight = new ArrayDeque<>();
+    private final List<TEMessage> output = new ArrayList<>();
+    private List<TEMessage> chunk;
+
+    /**
+     * @param liga language identification model (null - only tokenization)
+     * @param chunkSize messages in a chunk
+     * @param maxInFlight max number of chunks processed at once
+     */
+    public PreprocessingStage(LIGA liga, int chunkSize, int maxInFlight) {
+        this.liga = liga;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.chunk = new ArrayList<>(this.chunkSize);
+    }
+
+    /**
+     * stage with chunks of 256 messages and two chunks in flight per core
+     * @param liga language identification model (null - only tokenization)
+     */
+    public PreprocessingStage(LIGA liga) {
+        this(liga, 256, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Tokenizes messages and identifies their languages, returns non-empty messages in the original order
+     * @param msgs messages
+     * @param liga language identification model (null - only tokenization)
+     */
+    public static List<TEMessage> process(List<TEMessage> msgs, LIGA liga) {
+        PreprocessingStage stage = new PreprocessingStage(liga);
+        msgs.forEach(stage);
+        return stage.finish();
+    }
+
+    /**
+     * adds the message to the current chunk, submits the chunk if it is full
+     * @param msg message
+     */
+    @Override
+    public void accept(TEMessage msg) {
+        if ((msg == null) || (msg.getText() == null) || msg.getText().isEmpty()) return;
+        chunk.add(msg);
+        if (chunk.size() >= chunkSize) {
+            submit();
+        }
+    }
+
+    /**
+     * waits for all the chunks, returns processed messages in the original order
+     */
+    public List<TEMessage> finish() {
+        if (!chunk.isEmpty()) submit();
+        while (!inFlight.isEmpty()) {
+            output.addAll(inFlight.poll().join());
+        }
+        return output;
+    }
+
+    /**
+     * submits current chunk, waits for the oldest chunk if too many chunks are in flight
+     */
+    private void submit() {
+        List<TEMessage> msgs = chunk;
+        chunk = new ArrayList<>(chunkSize);
+        ForkJoinTask<List<TEMessage>> task = ForkJoinTask.adapt(() -> processChunk(msgs, liga));
+        if (ForkJoinTask.inForkJoinPool()) {
+            // inside of a parallel topic extraction: the chunk can be stolen by idle workers of the same pool
+            task.fork();
+        } else {
+            ForkJoinPool.commonPool().execute(task);
+        }
+        inFlight.add(task);
+        while (inFlight.size() > maxInFlight) {
+            output.addAll(inFlight.poll().join());
+        }
+    }
+
+    /**
+     * tokenizes messages of the chunk and identifies their languages
+     * @param msgs messages
+     * @param liga language identification model (null - only tokenization)
+     */
+    private static List<TEMessage> processChunk(List<TEMessage> msgs, LIGA liga) {
+        List<TEMessage> tokenized = Tokenizer.tokenizeMessages(msgs);
+        if (liga == null) return tokenized;
+        for (TEMessage msg : tokenized) {
+            msg.setLangs(liga.classify(msg.getClearText()));
+        }
+        return tokenized;
+    }
+
+}
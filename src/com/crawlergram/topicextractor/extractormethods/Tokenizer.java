@@ -10,22 +10,31 @@ package com.crawlergram.topicextractor.extractormethods;
 import com.crawlergram.topicextractor.structures.message.TEMessage;
 
 import java.util.*;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Tokenizer {
 
-    final private static String PUNCT = "[\\p{Punct}–…‹›§«»¿¡!?≠\'´\"‘’“”⟨⟩°※©℗®℠™—]"; // punctuation
-    final private static String CHAR_REPEATS_BEG = "^((.)\\2)\\2+"; // same char doesn't repeat more than once at the beginning
-    final private static String CHAR_REPEATS_MID_END = "((.)\\2)\\2+"; // same char doesn't appear more than twice at mid and end
-    final private static String DATASIZES = "^[0-9]+([kmgtp])?([bб])(it|yte|ит|айт)?(s)?$"; // data sizes
-    final private static String SECONDS = "^[0-9]+([nmнм])?([sс])(ec|ек)?(ond)?(s)?$"; // seconds
-    final private static String HOURS = "^[0-9]+([hч])(our)?(s)?$"; // hours
-    final private static String METERS = "^[0-9]+([skmcdnкмдн])?([mм])(eter)?(s)?$"; // meters
-    final private static String TIME = "^[0-9]+(ap)m$"; // time
-    final private static String NUMBERS_SUP = "^[0-9]+(([kmкм])+|(ish|th|nd|st|rd|g|x|ый|ой|ий))?[0-9]*$"; // numbers
-    final private static String HEX = "^([0]+x)[0-9a-f]+$"; // hexadecimal 0xCAFE1 (doesn't match words like ABBA or CAFE)
-    final private static String CHAR_FILTER = "[^\u0000-\u1FFF]"; // filters all the characters that fall out this list
+    final private static String PUNCT_EXTRA = "–…‹›§«»¿¡!?≠\'´\"‘’“”⟨⟩°※©℗®℠™—"; // punctuation in addition to \p{Punct}
+    final private static String QUOTES = "'‘’"; // removed from simple tokens
+
+    // same char doesn't repeat more than once at the beginning
+    final private static Pattern CHAR_REPEATS_BEG = Pattern.compile("^((.)\\2)\\2+");
+    // same char doesn't appear more than twice at mid and end
+    final private static Pattern CHAR_REPEATS_MID_END = Pattern.compile("((.)\\2)\\2+");
+    // removed tokens, all of them start with a digit
+    final private static Pattern[] NUMERIC = {
+            Pattern.compile("^[0-9]+([kmgtp])?([bб])(it|yte|ит|айт)?(s)?$"), // data sizes: 2kb, 15mb etc.
+            Pattern.compile("^[0-9]+([nmнм])?([sс])(ec|ек)?(ond)?(s)?$"), // seconds: 2sec, 15s etc.
+            Pattern.compile("^[0-9]+([hч])(our)?(s)?$"), // hours: 2h, 15hours etc.
+            Pattern.compile("^[0-9]+([skmcdnкмдн])?([mм])(eter)?(s)?$"), // meters: 2m, 15meters etc.
+            Pattern.compile("^[0-9]+(([kmкм])+|(ish|th|nd|st|rd|g|x|ый|ой|ий))?[0-9]*$"), // numbers: 2k, 15ish etc.
+            Pattern.compile("^[0-9]+(ap)m$"), // time: 2am 6pm
+            Pattern.compile("^([0]+x)[0-9a-f]+$") // hexadecimal 0xCAFE1 (doesn't match words like ABBA or CAFE)
+    };
+    final private static char CHAR_FILTER_MAX = '\u1FFF'; // filters all the characters that fall out [\u0000-\u1FFF]
+    // http(s), www, ftp links | short links of type: youtube.com & youtube.com/watch?v=oHg5SJYRHA0
+    final private static Pattern LINK = Pattern.compile("(.*(http://|https://|ftp://|file://|mailto:|nfs://|irc://|ssh://|telnet://|www\\.).+)"
+            + "|" + "(^[A-Za-z0-9_.-~@]+\\.[A-Za-z0-9_.-~@]+(/.*)?)");
 
     /**
      * Tokenizes text to list of strings
@@ -93,11 +102,21 @@ public class Tokenizer {
      * @param text original message text
      */
     private static List<String> getSimpleTokens(String text) {
-        String[] tokensA = text.split("\\s+");
-        List<String> tokens = new LinkedList<>();
-        for (String token : tokensA) {
-            if (tokenCheck(token)) {
-                tokens.add(token.replaceAll("['‘’]", ""));
+        List<String> tokens = new ArrayList<>();
+        int len = text.length();
+        int start = -1;
+        // splits by whitespaces [ \t\n\x0B\f\r] in a single pass
+        for (int i = 0; i <= len; i++) {
+            if ((i == len) || isWhitespace(text.charAt(i))) {
+                if (start >= 0) {
+                    String token = text.substring(start, i);
+                    if (tokenCheck(token)) {
+                        tokens.add(removeChars(token, QUOTES));
+                    }
+                    start = -1;
+                }
+            } else if (start < 0) {
+                start = i;
             }
         }
         return tokens;
@@ -109,13 +128,20 @@ public class Tokenizer {
      * @param tokens simple tokens
      */
     private static List<String> getTokenCompounds(List<String> tokens) {
-        List<String> tokensL = new LinkedList<>();
+        List<String> tokensL = new ArrayList<>();
         for (String token : tokens) {
-            String[] tokensA = token.split(PUNCT);
-            for (String tokenA : tokensA) {
-                tokenA = compoundTokenEdit(tokenA);
-                if (tokenCheck(tokenA)) {
-                    tokensL.add(tokenA);
+            int len = token.length();
+            int start = 0;
+            // splits by punctuation in a single pass
+            for (int i = 0; i <= len; i++) {
+                if ((i == len) || isPunct(token.charAt(i))) {
+                    if (i > start) {
+                        String tokenA = compoundTokenEdit(token.substring(start, i));
+                        if (tokenCheck(tokenA)) {
+                            tokensL.add(tokenA);
+                        }
+                    }
+                    start = i + 1;
                 }
             }
         }
@@ -129,9 +155,9 @@ public class Tokenizer {
      */
     private static boolean tokenCheck(String token) {
         return !token.isEmpty()
+                && !tokensLengthIsNotOk(token, 1, 30)
                 && !tokenIsLink(token)
-                && !tokenIsNumber(token.replaceAll(PUNCT, ""))
-                && !tokensLengthIsNotOk(token, 1, 30);
+                && !tokenIsNumber(removePunct(token));
     }
 
     /**
@@ -140,19 +166,22 @@ public class Tokenizer {
      * @param token original token
      */
     private static boolean tokenIsLink(String token) {
-        // http(s), www, ftp links
-        String p1 = ".*(http://|https://|ftp://|file://|mailto:|nfs://|irc://|ssh://|telnet://|www\\.).+";
-        // short links of type: youtube.com & youtube.com/watch?v=oHg5SJYRHA0
-        String p2 = "^[A-Za-z0-9_.-~@]+\\.[A-Za-z0-9_.-~@]+(/.*)?";
-        Pattern pat = Pattern.compile("(" + p1 + ")" + "|" + "(" + p2 + ")");
-        Matcher mat = pat.matcher(token);
-        return mat.matches();
+        // any link contains "." or ":"
+        if ((token.indexOf('.') < 0) && (token.indexOf(':') < 0)) return false;
+        return LINK.matcher(token).matches();
     }
 
     /**
      * checks if token can be casted into double
      */
     private static boolean tokenIsNumber(String token) {
+        // number contains a digit (or it is NaN/Infinity)
+        boolean digits = false;
+        for (int i = 0; i < token.length() && !digits; i++) {
+            char c = token.charAt(i);
+            digits = (c >= '0') && (c <= '9');
+        }
+        if (!digits && !token.contains("NaN") && !token.contains("Infinity")) return false;
         try {
             Double.parseDouble(token);
             return true;
@@ -178,18 +207,97 @@ public class Tokenizer {
      * @param token token
      */
     private static String compoundTokenEdit(String token) {
-        String temp = token.toLowerCase();
-        temp = temp.replaceAll(CHAR_FILTER, ""); //removes redundant characters, emoticons and so on
-        temp = temp.replaceAll(CHAR_REPEATS_BEG, "$2"); // removes multiple char repeats a the beginning
-        temp = temp.replaceAll(CHAR_REPEATS_MID_END, "$2$2"); // removes char repeats (more than twice)
-        temp = temp.replaceAll(DATASIZES, ""); // removes tokens such as 2kb, 15mb etc.
-        temp = temp.replaceAll(SECONDS, ""); // removes tokens such as 2sec, 15s etc.
-        temp = temp.replaceAll(HOURS, ""); // removes tokens such as 2h, 15hours etc.
-        temp = temp.replaceAll(METERS, ""); // removes tokens such as 2m, 15meters etc.
-        temp = temp.replaceAll(NUMBERS_SUP, ""); // removes tokens such as 2k, 15ish etc.
-        temp = temp.replaceAll(TIME, ""); // removes tokens such as 2am 6pm
-        temp = temp.replaceAll(HEX, ""); // removes hexadecimal numbers
+        String temp = filterChars(token.toLowerCase()); //removes redundant characters, emoticons and so on
+        if (temp.length() > 2) {
+            temp = CHAR_REPEATS_BEG.matcher(temp).replaceAll("$2"); // removes multiple char repeats a the beginning
+            if (hasTripleChar(temp)) {
+                temp = CHAR_REPEATS_MID_END.matcher(temp).replaceAll("$2$2"); // removes char repeats (more than twice)
+            }
+        }
+        // removes tokens such as 2kb, 15sec, 2h, 15meters, 2k, 6pm, hexadecimal numbers
+        if (!temp.isEmpty() && (temp.charAt(0) >= '0') && (temp.charAt(0) <= '9')) {
+            for (Pattern numeric : NUMERIC) {
+                temp = numeric.matcher(temp).replaceAll("");
+            }
+        }
         return temp;
     }
 
+    /**
+     * whitespace of regex "\\s"
+     */
+    private static boolean isWhitespace(char c) {
+        return (c == ' ') || (c == '\t') || (c == '\n') || (c == '\u000B') || (c == '\f') || (c == '\r');
+    }
+
+    /**
+     * punctuation of PUNCT: \p{Punct} (ASCII punctuation) and additional characters
+     */
+    private static boolean isPunct(char c) {
+        if (c < 128) {
+            return ((c >= '!') && (c <= '/')) || ((c >= ':') && (c <= '@')) || ((c >= '[') && (c <= '`'))
+                    || ((c >= '{') && (c <= '~'));
+        }
+        return PUNCT_EXTRA.indexOf(c) >= 0;
+    }
+
+    /**
+     * removes punctuation from the token
+     */
+    private static String removePunct(String token) {
+        StringBuilder sb = null;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (isPunct(c)) {
+                if (sb == null) sb = new StringBuilder(token.length()).append(token, 0, i);
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return (sb == null) ? token : sb.toString();
+    }
+
+    /**
+     * removes given characters from the token
+     */
+    private static String removeChars(String token, String chars) {
+        StringBuilder sb = null;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (chars.indexOf(c) >= 0) {
+                if (sb == null) sb = new StringBuilder(token.length()).append(token, 0, i);
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return (sb == null) ? token : sb.toString();
+    }
+
+    /**
+     * removes characters out of [\u0000-\u1FFF] (both chars of surrogate pairs are out of the range too)
+     */
+    private static String filterChars(String token) {
+        StringBuilder sb = null;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c > CHAR_FILTER_MAX) {
+                if (sb == null) sb = new StringBuilder(token.length()).append(token, 0, i);
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return (sb == null) ? token : sb.toString();
+    }
+
+    /**
+     * true if the token contains three same chars in a row
+     */
+    private static boolean hasTripleChar(String token) {
+        for (int i = 2; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if ((c == token.charAt(i - 1)) && (c == token.charAt(i - 2))) return true;
+        }
+        return false;
+    }
+
 }
@@ -11,14 +11,21 @@ import com.crawlergram.db.DBStorage;
 import com.crawlergram.topicextractor.gras.GRAS;
 import com.crawlergram.topicextractor.ldadmm.models.GSDMM;
 import com.crawlergram.topicextractor.ldadmm.models.GSLDA;
+import com.crawlergram.topicextractor.ldadmm.utility.MTRandom;
+import com.crawlergram.topicextractor.ldadmm.utility.RandomProvider;
 import com.crawlergram.topicextractor.liga.LIGA;
 import com.crawlergram.topicextractor.structures.TEDialog;
 import com.crawlergram.topicextractor.structures.message.TEMessage;
+import com.crawlergram.topicextractor.structures.results.TEDialogResults;
 import com.crawlergram.topicextractor.structures.results.TEResults;
 
 import java.io.*;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class TopicExtractionMethods {
 
@@ -47,6 +54,94 @@ public class TopicExtractionMethods {
         }
     }
 
+    /**
+     * do topic extraction for each dialog in parallel: dialogs are tasks of a work-stealing (ForkJoin) pool.
+     * LIGA model is shared between tasks (read-only), stopwords are cached in a concurrent map, output of each
+     * dialog is buffered and printed at once when the dialog is done. Each dialog gets its own random stream
+     * (RandomProvider.forKey(dialog id)), so results of a dialog don't depend on the other dialogs.
+     * If dates are wrong (from > to) or both dates equal zero -> read all messages
+     *
+     * @param dbStorage    db storage implementation (should be thread-safe)
+     * @param dateFrom     date from
+     * @param dateTo       date to
+     * @param docThreshold if chat has very low number of messages (< docThreshold) -> all chat is merged
+     * @param msgMerging   if true - artificial documents will be created from messages, preferable for LDA
+     * @param liga         language identification model
+     * @param stopwords    stopwords map to prevent multiple file readings
+     * @param parallelism  number of dialogs processed at once
+     * @param random       source of random streams for the samplers
+     */
+    public static List<TEDialogResults> getTopicsForAllDialogsParallel(DBStorage dbStorage, int dateFrom, int dateTo,
+                                                                       int docThreshold, boolean msgMerging, LIGA liga,
+                                                                       Map<String, Set<String>> stopwords,
+                                                                       int parallelism, RandomProvider random) {
+        return getTopicsForAllDialogsParallel(dbStorage, dateFrom, dateTo, docThreshold, msgMerging, liga, stopwords,
+                parallelism, random, 1.0);
+    }
+
+    /**
+     * do topic extraction for each dialog in parallel (see above), languages of merged documents are identified with
+     * the given early termination rate
+     *
+     * @param dbStorage           db storage implementation (should be thread-safe)
+     * @param dateFrom            date from
+     * @param dateTo              date to
+     * @param docThreshold        if chat has very low number of messages (< docThreshold) -> all chat is merged
+     * @param msgMerging          if true - artificial documents will be created from messages, preferable for LDA
+     * @param liga                language identification model
+     * @param stopwords           stopwords map to prevent multiple file readings
+     * @param parallelism         number of dialogs processed at once
+     * @param random              source of random streams for the samplers
+     * @param mergedEarlyStopRate early termination rate for merged documents (see LIGA.setEarlyStopRate), 1.0 - exact
+     */
+    public static List<TEDialogResults> getTopicsForAllDialogsParallel(DBStorage dbStorage, int dateFrom, int dateTo,
+                                                                       int docThreshold, boolean msgMerging, LIGA liga,
+                                                                       Map<String, Set<String>> stopwords,
+                                                                       int parallelism, RandomProvider random,
+                                                                       double mergedEarlyStopRate) {
+        List<TEDialogResults> results = new ArrayList<>();
+        // get all dialogs
+        List<TEDialog> dialogs = dbStorage.getDialogs();
+        if ((dialogs == null) || (dialogs.isEmpty())) {
+            System.out.println("NO DIALOGS FOUND");
+            return results;
+        }
+        Map<String, Set<String>> stopwordsCache = (stopwords instanceof ConcurrentMap) ? stopwords : new ConcurrentHashMap<>(stopwords);
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            List<ForkJoinTask<TEDialogResults>> tasks = new ArrayList<>();
+            for (TEDialog dialog : dialogs) {
+                tasks.add(pool.submit(() -> {
+                    // per-task output
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    PrintStream out = new PrintStream(buffer, true, "UTF-8");
+                    TEDialogResults res = getTopicsForOneDialog(dbStorage, dialog, dateFrom, dateTo, docThreshold,
+                            msgMerging, liga, stopwordsCache, random.forKey(dialog.getId()), out, mergedEarlyStopRate);
+                    out.flush();
+                    String report = buffer.toString("UTF-8");
+                    if (res != null) res.setReport(report);
+                    synchronized (System.out) {
+                        System.out.print(report);
+                    }
+                    return res;
+                }));
+            }
+            for (ForkJoinTask<TEDialogResults> task : tasks) {
+                try {
+                    TEDialogResults res = task.join();
+                    if (res != null) results.add(res);
+                } catch (RuntimeException e) {
+                    // error of a single dialog doesn't stop the others
+                    System.err.println("TOPIC EXTRACTION: " + e.getMessage());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        if (stopwordsCache != stopwords) stopwords.putAll(stopwordsCache);
+        return results;
+    }
+
     /**
      * do topic extraction for a specific dialog, if dates are wrong (from > to) or both dates equal zero -> read all
      *
@@ -61,23 +156,89 @@ public class TopicExtractionMethods {
     public static void getTopicsForOneDialog(DBStorage dbStorage, TEDialog dialog, int dateFrom, int dateTo,
                                              int docThreshold, boolean msgMerging, LIGA liga,
                                              Map<String, Set<String>> stopwords) {
-        List<TEMessage> msgs;
-        // if dates valid - get only messages between these dates, otherwise - get all messages
-        if (datesCheck(dateFrom, dateTo)) {
-            msgs = dbStorage.readMessages(dialog, dateFrom, dateTo);
+        getTopicsForOneDialog(dbStorage, dialog, dateFrom, dateTo, docThreshold, msgMerging, liga, stopwords,
+                MTRandom.getGenerator(), System.out);
+    }
+
+    /**
+     * do topic extraction for a specific dialog, if dates are wrong (from > to) or both dates equal zero -> read all.
+     * Returns results of the dialog (null if the dialog has no messages)
+     *
+     * @param dbStorage    db storage implementation
+     * @param dialog       dialog
+     * @param dateFrom     date from
+     * @param dateTo       date to
+     * @param docThreshold if chat has very low number of messages (< docThreshold) -> all chat is merged
+     * @param msgMerging   if true - artificial documents will be created from messages, preferable for LDA
+     * @param liga         language identification model
+     * @param stopwords    stopwords map to prevent multiple file readings
+     * @param rand         random number generator of the samplers
+     * @param out          output of the stats and topics
+     */
+    public static TEDialogResults getTopicsForOneDialog(DBStorage dbStorage, TEDialog dialog, int dateFrom, int dateTo,
+                                                        int docThreshold, boolean msgMerging, LIGA liga,
+                                                        Map<String, Set<String>> stopwords, Random rand, PrintStream out) {
+        return getTopicsForOneDialog(dbStorage, dialog, dateFrom, dateTo, docThreshold, msgMerging, liga, stopwords,
+                rand, out, 1.0);
+    }
+
+    /**
+     * do topic extraction for a specific dialog (see above), languages of merged documents are identified with the
+     * given early termination rate: lower rates are faster on long documents, but scores of the secondary languages
+     * are partial (may change the best language of the dialog and stopwords removal)
+     *
+     * @param dbStorage           db storage implementation
+     * @param dialog              dialog
+     * @param dateFrom            date from
+     * @param dateTo              date to
+     * @param docThreshold        if chat has very low number of messages (< docThreshold) -> all chat is merged
+     * @param msgMerging          if true - artificial documents will be created from messages, preferable for LDA
+     * @param liga                language identification model
+     * @param stopwords           stopwords map to prevent multiple file readings
+     * @param rand                random number generator of the samplers
+     * @param out                 output of the stats and topics
+     * @param mergedEarlyStopRate early termination rate for merged documents (see LIGA.setEarlyStopRate), 1.0 - exact
+     */
+    public static TEDialogResults getTopicsForOneDialog(DBStorage dbStorage, TEDialog dialog, int dateFrom, int dateTo,
+                                                        int docThreshold, boolean msgMerging, LIGA liga,
+                                                        Map<String, Set<String>> stopwords, Random rand, PrintStream out,
+                                                        double mergedEarlyStopRate) {
+        // tokenization and language identification (empty messages are skipped)
+        List<TEMessage> msgs = new ArrayList<>();
+        if (msgMerging) {
+            // merging needs all the messages, they are preprocessed after merging
+            List<TEMessage> read;
+            // if dates valid - get only messages between these dates, otherwise - get all messages
+            if (datesCheck(dateFrom, dateTo)) {
+                read = dbStorage.readMessages(dialog, dateFrom, dateTo);
+            } else {
+                read = dbStorage.readMessages(dialog);
+            }
+            if ((read != null) && !read.isEmpty()) {
+                msgs = PreprocessingStage.process(MessageMergingMethods.mergeMessages(dialog, read, docThreshold), null);
+                // early termination only if asked for (exact by default)
+                identifyLanguages(msgs, (mergedEarlyStopRate < 1.0) ? liga.withEarlyStop(mergedEarlyStopRate) : liga);
+            }
         } else {
-            msgs = dbStorage.readMessages(dialog);
+            // messages are preprocessed while they are read from DB (in parallel chunks)
+            PreprocessingStage stage = new PreprocessingStage(liga);
+            boolean read;
+            if (datesCheck(dateFrom, dateTo)) {
+                read = dbStorage.readMessages(dialog, dateFrom, dateTo, stage);
+            } else {
+                read = dbStorage.readMessages(dialog, stage);
+            }
+            msgs = stage.finish();
+            // topics of a part of the dialog are misleading, the dialog is skipped
+            if (!read) {
+                out.println("UNABLE TO READ MESSAGES: " + dialog.getId() + " " + dialog.getUsername());
+                return null;
+            }
         }
         // check if resulting list is not empty
-        if ((msgs != null) && !msgs.isEmpty()) {
-            if (msgMerging) msgs = MessageMergingMethods.mergeMessages(dialog, msgs, docThreshold);
-            removeEmptyMessages(msgs);
-            msgs = Tokenizer.tokenizeMessages(msgs);
-
-            getMessageLanguages(msgs, liga);
-
+        if (!msgs.isEmpty()) {
             String bestLang = getDialogsBestLang(msgs, 0.8);
-            getLangStats(msgs);
+            getLangStats(msgs, out);
 
             removeStopWords(msgs, stopwords, bestLang, 0.9);
 
@@ -85,26 +246,45 @@ public class TopicExtractionMethods {
             uniqueWords = GRAS.doStemming(uniqueWords, 5, 4, 0.8);
             getTextFromStems(msgs, uniqueWords);
 
-            GSDMM dmm = new GSDMM(msgs, 10, 0.1, 0.1, 1000, 10);
+            GSDMM dmm = new GSDMM(msgs, 10, 0.1, 0.1, 1000, 10, rand);
             TEResults resDMM = dmm.inference();
 
-            GSLDA lda = new GSLDA(msgs, 10, 0.01, 0.1, 1000, 10);
+            GSLDA lda = new GSLDA(msgs, 10, 0.01, 0.1, 1000, 10, 1, rand);
             TEResults resLDA = lda.inference();
 
             //print some stats
-            statUtils(msgs, uniqueWords);
+            statUtils(msgs, uniqueWords, out);
 
-            printTopWords(resDMM);
-            printTopWords(resLDA);
+            printTopWords(resDMM, out);
+            printTopWords(resLDA, out);
 
             try {
-                saveSet("words.txt", uniqueWords);
+                saveSet("words_" + dialog.getId() + ".txt", uniqueWords);
             } catch (IOException e) {
                 e.printStackTrace();
             }
             //TODO
+            return new TEDialogResults(dialog, resDMM, resLDA, null);
         } else {
-            System.out.println("EMPTY MESSAGES: " + dialog.getId() + " " + dialog.getUsername());
+            out.println("EMPTY MESSAGES: " + dialog.getId() + " " + dialog.getUsername());
+            return null;
+        }
+    }
+
+    /**
+     * identifies languages of tokenized documents, all the documents are classified at once on several threads
+     *
+     * @param docs documents
+     * @param liga language identification model
+     */
+    private static void identifyLanguages(List<TEMessage> docs, LIGA liga) {
+        List<String> texts = new ArrayList<>(docs.size());
+        for (TEMessage doc : docs) {
+            texts.add(doc.getClearText());
+        }
+        List<Map<String, Double>> langs = liga.classifyAll(texts);
+        for (int i = 0; i < docs.size(); i++) {
+            docs.get(i).setLangs(langs.get(i));
         }
     }
 
@@ -150,30 +330,6 @@ public class TopicExtractionMethods {
         }
     }
 
-    /**
-     * Removes empty messages from the list
-     *
-     * @param msgs messages list
-     */
-    private static void removeEmptyMessages(List<TEMessage> msgs) {
-        for (int i = 0; i < msgs.size(); i++) {
-            if (msgs.get(i).getText().isEmpty()) {
-                msgs.remove(i);
-            }
-        }
-    }
-
-    /**
-     * Indentifies languages for each message
-     *
-     * @param msgs messages
-     * @param liga LIGA instance
-     */
-    private static void getMessageLanguages(List<TEMessage> msgs, LIGA liga){
-        for (TEMessage msg: msgs)
-            msg.setLangs(liga.classify(msg.getClearText()));
-    }
-
     /**
      * Removes stopwords from token compounds. If chat has a dominating language - additional chack
      *
@@ -184,14 +340,13 @@ public class TopicExtractionMethods {
     private static void removeStopWords(List<TEMessage> msgs, Map<String, Set<String>> stopwords,
                                         String bestLang, double langsRatio) {
         // loads best lang
-        if (!bestLang.equals("UNKNOWN") && !stopwords.containsKey(bestLang))
-            stopwords.put(bestLang, loadStopWords(bestLang));
+        if (!bestLang.equals("UNKNOWN"))
+            stopwords.computeIfAbsent(bestLang, TopicExtractionMethods::loadStopWords);
         // checks msgs
         for (TEMessage msg : msgs) {
             String lang = msg.getBestLang();
-            // load stopwords for "lang" if only they're not loaded before
-            if (!stopwords.containsKey(lang))
-                stopwords.put(lang, loadStopWords(lang));            
+            // load stopwords for "lang" if only they're not loaded before (atomic for concurrent maps)
+            stopwords.computeIfAbsent(lang, TopicExtractionMethods::loadStopWords);
             List<String> tokens = msg.getTokens();
             boolean flag = false;
             for (int j = 0; j < tokens.size(); j++) {                
@@ -262,13 +417,13 @@ public class TopicExtractionMethods {
     //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
 
-    private static void statUtils(List<TEMessage> msgs, Map<String, String> uniqueWords) {
-        System.out.println();
-        System.out.println("Number of documents: " + msgs.size());
-        double l = calcL(uniqueWords);
-        double tok = calcAv(msgs);
-        System.out.println("Number of valid unique words: " + uniqueWords.keySet().size());
-        System.out.println("Ratio tokens_in_doc/unique_words : " + String.format("%.2f", tok / uniqueWords.keySet().size() * 100) + " %");
+    private static void statUtils(List<TEMessage> msgs, Map<String, String> uniqueWords, PrintStream out) {
+        out.println();
+        out.println("Number of documents: " + msgs.size());
+        double l = calcL(uniqueWords, out);
+        double tok = calcAv(msgs, out);
+        out.println("Number of valid unique words: " + uniqueWords.keySet().size());
+        out.println("Ratio tokens_in_doc/unique_words : " + String.format("%.2f", tok / uniqueWords.keySet().size() * 100) + " %");
     }
 
 
@@ -281,44 +436,44 @@ public class TopicExtractionMethods {
         writer.close();
     }
 
-    private static double calcL(Map<String, String> words) {
+    private static double calcL(Map<String, String> words, PrintStream out) {
         Set<String> keys = words.keySet();
         double totalL = 0.0;
         int n = keys.size();
         for (String key : keys) {
             totalL += key.length();
         }
-        System.out.println("Average valid word length L: " + String.format("%.2f", totalL / n));
+        out.println("Average valid word length L: " + String.format("%.2f", totalL / n));
         return totalL / n;
     }
 
-    private static double calcAv(List<TEMessage> msgs) {
+    private static double calcAv(List<TEMessage> msgs, PrintStream out) {
         double totalAv = 0.0;
         int n = msgs.size();
         for (TEMessage msg : msgs) {
             totalAv += msg.getTokens().size();
         }
-        System.out.println("Valid tokens per document: " + String.format("%.2f", totalAv / n));
+        out.println("Valid tokens per document: " + String.format("%.2f", totalAv / n));
         return totalAv / n;
     }
 
-    private static void printTopWords(TEResults res) {
-        System.out.println();
-        System.out.println();
-        System.out.println(res.getParameters().toString());
+    private static void printTopWords(TEResults res, PrintStream out) {
+        out.println();
+        out.println();
+        out.println(res.getParameters().toString());
         for (Map<String, Double> topic : res.getTopTopicalWords()) {
-            System.out.println();
-            System.out.println("------------------------topic----------------------------");
+            out.println();
+            out.println("------------------------topic----------------------------");
             topic.entrySet()
                     .stream()
                     .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                    .forEachOrdered(x -> System.out.println(x.getKey() + " " + x.getValue()));
-            System.out.println("------------------------topic end------------------------");
+                    .forEachOrdered(x -> out.println(x.getKey() + " " + x.getValue()));
+            out.println("------------------------topic end------------------------");
         }
-        System.out.println("----------------------------------------------------------");
+        out.println("----------------------------------------------------------");
     }
 
-    private static void getLangStats(List<TEMessage> msgs){
+    private static void getLangStats(List<TEMessage> msgs, PrintStream out){
         Map<String, Integer> langsTotal = new HashMap<>();
         Map<String, Integer> langsPop = new HashMap<>();
         for (TEMessage msg: msgs){
@@ -331,17 +486,17 @@ public class TopicExtractionMethods {
             if (!langsPop.containsKey(bestlang)) langsPop.put(bestlang, 0);
             langsPop.put(bestlang, langsPop.get(bestlang) + 1);
         }
-        System.out.println("");
-        System.out.println("Best languages: ");
+        out.println("");
+        out.println("Best languages: ");
         for (Map.Entry<String, Integer> entry: langsPop.entrySet()){
-            System.out.println(entry.getKey() + " " + entry.getValue());
+            out.println(entry.getKey() + " " + entry.getValue());
         }
-        System.out.println("");
-        System.out.println("All recognized languages: ");
+        out.println("");
+        out.println("All recognized languages: ");
         for (Map.Entry<String, Integer> entry: langsTotal.entrySet()){
-            System.out.println(entry.getKey() + " " + entry.getValue());
+            out.println(entry.getKey() + " " + entry.getValue());
         }
-        System.out.println("");
+        out.println("");
     }
 
 }
@@ -10,7 +10,17 @@
 
 package com.crawlergram.topicextractor.gras;
 
+import com.crawlergram.topicextractor.structures.LongIntHashMap;
+
 import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * GRAS stemming. Suffixes of the words in classes are interned (suffix dictionary), a suffix pair is a pair of suffix
+ * ids packed to long, pairs are counted in primitive hash maps. Words are sorted, so the LCP of two words of a class is
+ * the minimum of LCPs of the adjacent words between them and each pair of words is handled in constant time without
+ * allocations. Classes are independent and are processed in parallel (in the current ForkJoin pool).
+ */
 
 public class GRAS {
 
@@ -69,17 +79,22 @@ public class GRAS {
         List<Integer> classes = getPartitions(words, l);
         long partitionsTime = System.currentTimeMillis();
 
+        // intern the suffixes of the words in classes, compute LCPs of the adjacent words
+        Suffixes suffixes = new Suffixes(words, classes, l);
+        long suffixesTime = System.currentTimeMillis();
+
         // find the alpha-frequent suffix pairs <s1,s2> such that: w1=rs1, w2=rs2, r=LCP>= l
-        HashMap<String, Integer> frequentSuffixPairs = getFrequentSuffixPairs(words, classes, l, alpha);
+        LongIntHashMap frequentSuffixPairs = getFrequentSuffixPairs(classes, suffixes, alpha);
         long freqPairsTime = System.currentTimeMillis();
 
         // identify the class with the pivot word
-        String[] stems = identifyClass(words, classes, frequentSuffixPairs, l, delta);
+        String[] stems = identifyClass(words, classes, suffixes, frequentSuffixPairs, l, delta);
         long stopTime = System.currentTimeMillis();
 
         if (debug) System.out.println("\n - Stemming:");
         if (debug) System.out.println("\t- partition the words:\t\t" + (partitionsTime - startTime) + "ms");
-        if (debug) System.out.println("\t- find frequent suffix pairs:\t" + (freqPairsTime - partitionsTime) + "ms");
+        if (debug) System.out.println("\t- intern suffixes:\t\t" + (suffixesTime - partitionsTime) + "ms");
+        if (debug) System.out.println("\t- find frequent suffix pairs:\t" + (freqPairsTime - suffixesTime) + "ms");
         if (debug) System.out.println("\t- identify classes:\t\t" + (stopTime - freqPairsTime) + "ms");
         if (debug) System.out.println("\t- total stemming time:\t\t" + (stopTime - startTime) + "ms");
         return stems;
@@ -119,77 +134,46 @@ public class GRAS {
     }
 
     /**
-     * Computes the suffix pairs and their frequencies
+     * Computes the frequencies of suffix pairs of all the classes (in parallel) and keeps the alpha-frequent ones
      *
-     * @param words   words array
-     * @param classes classes list
-     * @param l       l parameter (shortest possible common prefix)
-     * @param alpha   suffix frequency cutoff
+     * @param classes  classes list
+     * @param suffixes suffix ids of the words
+     * @param alpha    suffix frequency cutoff
      */
-    private static HashMap<String, Integer> getFrequentSuffixPairs(String[] words, List<Integer> classes, int l, int alpha) {
-        HashMap<String, Integer> alphaFrequent = new HashMap<>();
-        HashMap<String, Integer> nonFrequent = new HashMap<>();
-
-        // for each class of words
-        for (int i = 0; i < classes.size() - 1; i = i + 2)
-
-            // find all the pairs in the class
-            for (int j = classes.get(i); j <= classes.get(i + 1); j++)
-                for (int k = j + 1; k <= classes.get(i + 1); k++) {
-                    // obtain the suffix pair <s1,s2> of the words <wj,wk>
-                    String suffixPair = getSuffixPair(words[j], words[k], l);
-
-                    // update the frequency of the suffix pair
-                    Integer frequency = alphaFrequent.get(suffixPair);
-                    if (frequency != null)
-                        alphaFrequent.put(suffixPair, frequency + 1);
-                    else {
-                        frequency = nonFrequent.get(suffixPair);
-                        if (frequency == null) frequency = 0;
-                        frequency++;
-
-                        // if the frequency is alpha the suffix pair become alpha-frequent
-                        if (frequency == alpha) {
-                            nonFrequent.remove(suffixPair);
-                            alphaFrequent.put(suffixPair, frequency);
-                        } else
-                            nonFrequent.put(suffixPair, frequency);
-                    }
-                }
+    private static LongIntHashMap getFrequentSuffixPairs(List<Integer> classes, Suffixes suffixes, int alpha) {
+        // each thread counts the pairs of its classes, counts are summed up
+        LongIntHashMap frequencies = IntStream.range(0, classes.size() / 2).parallel()
+                .collect(LongIntHashMap::new,
+                        (counts, c) -> countSuffixPairs(classes.get(2 * c), classes.get(2 * c + 1), suffixes, counts),
+                        LongIntHashMap::addAll);
+
+        LongIntHashMap alphaFrequent = new LongIntHashMap();
+        frequencies.forEach((suffixPair, frequency) -> {
+            if (frequency >= alpha) alphaFrequent.put(suffixPair, frequency);
+        });
 
         if (debug) System.out.println("Frequent Pairs:\t\t" + alphaFrequent.size());
-        if (debug) System.out.println("Non Frequent:\t\t" + nonFrequent.size());
-        nonFrequent.clear();
+        if (debug) System.out.println("Non Frequent:\t\t" + (frequencies.size() - alphaFrequent.size()));
         return alphaFrequent;
     }
 
     /**
-     * Returns the suffix pair <s1,s2> of the words <w1,w2> with the same prefix l
+     * Counts the suffix pairs of all the pairs of words in the class
      *
-     * @param w1 word 1
-     * @param w2 word 2
-     * @param l  l parameter (shortest possible common prefix)
+     * @param first    class lower limit
+     * @param last     class upper limit
+     * @param suffixes suffix ids of the words
+     * @param counts   counts of suffix pairs
      */
-    private static String getSuffixPair(String w1, String w2, int l) {
-        // calculate the LCP of the two words
-        int r = longestCommonPrefix(w1, w2, l);
-
-        // build the suffix pair <s1,s2> of <w1,w2>
-        String suffixPair;
-
-        if (w1.length() == r)
-            suffixPair = "NULL";
-        else
-            suffixPair = w1.substring(r, w1.length());
-
-        suffixPair = suffixPair.concat(",");
-
-        if (w2.length() == r)
-            suffixPair = suffixPair.concat("NULL");
-        else
-            suffixPair = suffixPair.concat(w2.substring(r, w2.length()));
-
-        return suffixPair;
+    private static void countSuffixPairs(int first, int last, Suffixes suffixes, LongIntHashMap counts) {
+        for (int j = first; j <= last; j++) {
+            int r = Integer.MAX_VALUE;
+            for (int k = j + 1; k <= last; k++) {
+                // LCP of the words <wj,wk> is the min of LCPs of the adjacent words between them
+                r = Math.min(r, suffixes.adjacentLcp[k - 1]);
+                counts.addTo(suffixes.getSuffixPair(j, k, r), 1);
+            }
+        }
     }
 
     /**
@@ -210,58 +194,71 @@ public class GRAS {
     }
 
     /**
-     * Identifies the real class of word (class of stem)
+     * Identifies the real class of word (class of stem), classes are processed in parallel
      *
      * @param words               words array
      * @param classes             classes list
+     * @param suffixes            suffix ids of the words
      * @param frequentSuffixPairs frequent suffix pairs
      * @param l                   l parameter (shortest possible common prefix)
      * @param delta               graph edge cutoff threshold
      */
-    private static String[] identifyClass(String[] words, List<Integer> classes, Map<String, Integer> frequentSuffixPairs, int l, double delta) {
+    private static String[] identifyClass(String[] words, List<Integer> classes, Suffixes suffixes,
+                                          LongIntHashMap frequentSuffixPairs, int l, double delta) {
         String[] stems = new String[words.length];
 
-        // for each class of words
-        for (int i = 0; i < classes.size() - 1; i = i + 2) {
-            int first = classes.get(i);
-            int last = classes.get(i + 1);
-
-            // build the graph of the class
-            Graph G = buildGraph(first, last, words, frequentSuffixPairs, l);
-
-            // if there isn't any node G.getNodeWithMaxDegree returns -1
-            while ((G.getNodeWithMaxDegree()) >= 0) {
-                // let p be the pivotal node with maximum degree
-                int p = G.getNodeWithMaxDegree();
-                int[] adjacentP = G.getAdjacentList(p);
-
-                // S in the class of pivotal node
-                List<Integer> S = new ArrayList<>();
-                S.add(p);
-
-                // visit all the adjacent nodes of the pivot, in decreasing order of edge weight
-                for (int anAdjacentP : adjacentP) {
-                    int[] adjP = G.getAdjacentList(p);
-                    int[] adjV = G.getAdjacentList(anAdjacentP);
-
-                    // compute the cohesion between the pivot and the visited node v
-                    if (getCohesion(adjP, adjV) >= delta)
-                        S.add(anAdjacentP);
-                    else
-                        G.removeEdge(p, anAdjacentP);
-                }
+        // for each class of words (each class writes only stems of its own words)
+        IntStream.range(0, classes.size() / 2).parallel().forEach(c ->
+                identifyClass(classes.get(2 * c), classes.get(2 * c + 1), words, stems, suffixes,
+                        frequentSuffixPairs, l, delta));
+        return stems;
+    }
+
+    /**
+     * Identifies the real classes of the words of one class
+     *
+     * @param first               class lower limit
+     * @param last                class upper limit
+     * @param words               words array
+     * @param stems               stems array (output)
+     * @param suffixes            suffix ids of the words
+     * @param frequentSuffixPairs frequent suffix pairs
+     * @param l                   l parameter (shortest possible common prefix)
+     * @param delta               graph edge cutoff threshold
+     */
+    private static void identifyClass(int first, int last, String[] words, String[] stems, Suffixes suffixes,
+                                      LongIntHashMap frequentSuffixPairs, int l, double delta) {
+        // build the graph of the class
+        Graph G = buildGraph(first, last, suffixes, frequentSuffixPairs);
+
+        // if there isn't any node G.getNodeWithMaxDegree returns -1
+        while ((G.getNodeWithMaxDegree()) >= 0) {
+            // let p be the pivotal node with maximum degree
+            int p = G.getNodeWithMaxDegree();
+            int[] adjacentP = G.getAdjacentList(p);
+
+            // S in the class of pivotal node
+            List<Integer> S = new ArrayList<>();
+            S.add(p);
+
+            // visit all the adjacent nodes of the pivot, in decreasing order of edge weight
+            for (int anAdjacentP : adjacentP) {
+                // compute the cohesion between the pivot and the visited node v
+                if (getCohesion(G, p, anAdjacentP) >= delta)
+                    S.add(anAdjacentP);
+                else
+                    G.removeEdge(p, anAdjacentP);
+            }
 
-                // find the stem word for the class S
-                String stem = getStem(S, words, first, l);
+            // find the stem word for the class S
+            String stem = getStem(S, words, first, l);
 
-                // remove from G all the vertices in S and their incident edges
-                for (int j : S) {
-                    stems[first + j] = stem;
-                    G.removeNode(j);
-                }
+            // remove from G all the vertices in S and their incident edges
+            for (int j : S) {
+                stems[first + j] = stem;
+                G.removeNode(j);
             }
         }
-        return stems;
     }
 
     /**
@@ -269,56 +266,42 @@ public class GRAS {
      *
      * @param first               class lower limit
      * @param last                class upper limit
-     * @param words               words array
+     * @param suffixes            suffix ids of the words
      * @param frequentSuffixPairs frequent suffix pairs
-     * @param l                   l parameter (shortest possible common prefix)
      */
-    private static Graph buildGraph(int first, int last, String[] words, Map<String, Integer> frequentSuffixPairs, int l) {
+    private static Graph buildGraph(int first, int last, Suffixes suffixes, LongIntHashMap frequentSuffixPairs) {
 
         // build a graph G with a node for each word in the class
         Graph G = new Graph(last - first + 1);
 
         // for each couple of words (nodes)
-        for (int j = first; j <= last; j++)
+        for (int j = first; j <= last; j++) {
+            int r = Integer.MAX_VALUE;
             for (int k = j + 1; k <= last; k++) {
                 // obtain the suffix pair of the two words
-                String suffixPair = getSuffixPair(words[j], words[k], l);
+                r = Math.min(r, suffixes.adjacentLcp[k - 1]);
+                long suffixPair = suffixes.getSuffixPair(j, k, r);
 
                 // if the frequency of the suffix pair is >= alpha, create a weighted edge w(u,v)
-                Integer frequency = frequentSuffixPairs.get(suffixPair);
-                if (frequency != null) {
+                int frequency = frequentSuffixPairs.get(suffixPair, 0);
+                if (frequency > 0) {
                     G.addEdge(j - first, k - first, frequency);
                 }
             }
+        }
         return G;
     }
 
     /**
-     * Computes the cohesion between two nodes (p,v), given their adjacency lists
+     * Computes the cohesion between two nodes (p,v), adjacency lists of the graph are kept sorted by node id
      *
-     * @param adjP adjacency list of node p
-     * @param adjV adjacency list of node v
+     * @param G graph
+     * @param p node p
+     * @param v node v
      */
-    private static double getCohesion(int[] adjP, int[] adjV) {
-        double cohesion;
-        int intersection = 0, j = 0, i = 0;
-        Arrays.sort(adjP);
-        Arrays.sort(adjV);
-
-        // compute the cardinality of intersection between adjP and adjV
-        while (i < adjP.length && j < adjV.length)
-            if (adjP[i] == adjV[j]) {
-                intersection++;
-                i++;
-                j++;
-            } else if (adjP[i] < adjV[j])
-                i++;
-            else
-                j++;
-
-        // cohesion formula
-        cohesion = (1. + intersection) / adjV.length;
-        return cohesion;
+    private static double getCohesion(Graph G, int p, int v) {
+        // cohesion formula: cardinality of intersection between adjacency lists of p and v
+        return (1. + G.getCommonAdjacentCount(p, v)) / G.getDegree(v);
     }
 
     /**
@@ -347,4 +330,55 @@ public class GRAS {
         }
         return stem;
     }
+
+    /**
+     * Suffix dictionary of the words in classes: suffix of the word w starting at r (l <= r <= length of w) gets an
+     * id, equal suffixes get equal ids, empty suffix (NULL) is 0. Suffix pair <s1,s2> is the pair of ids packed to long.
+     */
+    private static class Suffixes {
+
+        private final int l;
+        private final int[] starts; // position of the first suffix id of the word in ids
+        private final int[] ids; // suffix ids of the words (words[w].length() - l + 1 ids for a word)
+        private final int[] adjacentLcp; // LCP of the words w and w + 1 of the same class
+
+        private Suffixes(String[] words, List<Integer> classes, int l) {
+            this.l = l;
+            starts = new int[words.length];
+            adjacentLcp = new int[words.length];
+            int total = 0;
+            for (int i = 0; i < classes.size() - 1; i = i + 2)
+                for (int w = classes.get(i); w <= classes.get(i + 1); w++) {
+                    starts[w] = total;
+                    total += words[w].length() - l + 1;
+                    if (w < classes.get(i + 1)) adjacentLcp[w] = longestCommonPrefix(words[w], words[w + 1], l);
+                }
+
+            ids = new int[total];
+            HashMap<String, Integer> dictionary = new HashMap<>();
+            dictionary.put("", 0);
+            for (int i = 0; i < classes.size() - 1; i = i + 2)
+                for (int w = classes.get(i); w <= classes.get(i + 1); w++) {
+                    String word = words[w];
+                    for (int r = l; r <= word.length(); r++) {
+                        String suffix = word.substring(r);
+                        Integer id = dictionary.get(suffix);
+                        if (id == null) {
+                            id = dictionary.size();
+                            dictionary.put(suffix, id);
+                        }
+                        ids[starts[w] + r - l] = id;
+                    }
+                }
+        }
+
+        /**
+         * suffix pair of the words w1 and w2 with the LCP r
+         */
+        private long getSuffixPair(int w1, int w2, int r) {
+            return ((long) ids[starts[w1] + r - l] << 32) | ids[starts[w2] + r - l];
+        }
+
+    }
+
 }
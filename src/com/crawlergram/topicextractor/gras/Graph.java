@@ -1,188 +1,172 @@
 package com.crawlergram.topicextractor.gras;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
-public class Graph {
-
-    private Node[] G; // array containing the nodes of the graph. Node's id is its index in the array
-    private List<Integer> sortedNodes; // list of nodes ordered by ascending degree
-
-    // Class representing a single node
-    private class Node {
-
-        // adjacency list ordered by descending weight
-        private List<Adjacency> AdjacencyList;
+/**
+ * Weighted undirected graph of a class of words. Edges are added first, the graph is built on the first query:
+ * adjacency of a node is kept in primitive arrays twice - by descending weight (among equal weights the last added
+ * first) and sorted by node id (for intersections), both stay sorted when adjacencies are removed. Nodes are kept in a
+ * bucket queue by degree (nodes of a bucket in order of their arrival to the bucket), so the node with max degree is
+ * found and a degree is updated in constant time.
+ */
 
-        Node() {
-            AdjacencyList = new ArrayList<>();
-        }
-
-        /**
-         * Adds an adjacency to the node with the specified weight
-         *
-         * @param node   node
-         * @param weight weight
-         */
-        void addAdjacency(int node, int weight) {
-            int i = 0;
-            while (i < AdjacencyList.size() && weight < AdjacencyList.get(i).w) i++;
-            AdjacencyList.add(i, new Adjacency(node, weight));
-        }
-
-        /**
-         * return an array of adjacent nodes, sorted by descending weight
-         */
-        int[] getAdjacencyList() {
-            int[] res = new int[AdjacencyList.size()];
-            for (int i = 0; i < res.length; i++)
-                res[i] = AdjacencyList.get(i).a;
-            return res;
-        }
-
-        /**
-         * removes the adjacency to a specific node
-         *
-         * @param node node
-         */
-        void removeAdjacency(int node) {
-            int i = 0;
-            while (i < AdjacencyList.size() && AdjacencyList.get(i).a != node) i++;
-            if (i < AdjacencyList.size())
-                AdjacencyList.remove(i);
-        }
+public class Graph {
 
-        /**
-         * removes all the adjacencies
-         */
-        void removeAllAdjacency() {
-            AdjacencyList.clear();
-        }
+    private final int n; // number of nodes, node's id is its index
+    private boolean built = false;
 
-        /**
-         * gets node's degree
-         */
-        int getDegree() {
-            return AdjacencyList.size();
-        }
-    }
+    // added edges (before the graph is built): neighbours and weights of each node in order of addition
+    private int[][] addedNodes;
+    private int[][] addedWeights;
 
-    // Class representing an adjacency
-    private class Adjacency {
-        int a;    // adjacent node
-        int w;    // weight
+    // adjacency lists of the nodes, first degree[node] elements are used
+    private int[][] byWeight; // ordered by descending weight
+    private int[][] byId; // ordered by ascending node id
+    private int[] degree;
 
-        Adjacency(int a, int w) {
-            this.a = a;
-            this.w = w;
-        }
-    }
+    // bucket queue: doubly linked list of the nodes for each degree, from the oldest to the newest arrival
+    private int[] oldest;
+    private int[] newest;
+    private int[] prev;
+    private int[] next;
+    private boolean[] removed;
+    private int maxDegree; // no node has a higher degree (degrees only decrease after the graph is built)
 
     // Graph constructor
     // n - number of nodes
     Graph(int n) {
-        G = new Node[n];
-        for (int i = 0; i < n; i++)
-            G[i] = new Node();
+        this.n = n;
+        addedNodes = new int[n][];
+        addedWeights = new int[n][];
+        degree = new int[n];
     }
 
     /**
-     * adds a weighted edge to the graph
+     * adds a weighted edge to the graph (only before the graph is queried)
      *
      * @param n1     node 1
      * @param n2     node 2
      * @param weight weight
      */
     public void addEdge(int n1, int n2, int weight) {
-        sortedNodes = null;
-        G[n1].addAdjacency(n2, weight);
-        G[n2].addAdjacency(n1, weight);
+        if (built) throw new IllegalStateException("edges can't be added after the graph is queried");
+        addAdjacency(n1, n2, weight);
+        addAdjacency(n2, n1, weight);
     }
 
     /**
-     * sorts nodes by ascending degree
+     * appends an adjacency to the added adjacencies of the node
+     *
+     * @param node     node
+     * @param adjacent adjacent node
+     * @param weight   weight
      */
-    private void sortNodes() {
-        sortedNodes = new ArrayList<>();
-        sortedNodes.add(0);
-        for (int i = 1; i < G.length; i++)
-            sortedNodes.add(searchDegreePosition(G[i].getDegree(), 0, sortedNodes.size()), i);
+    private void addAdjacency(int node, int adjacent, int weight) {
+        int size = degree[node];
+        if (addedNodes[node] == null) {
+            addedNodes[node] = new int[4];
+            addedWeights[node] = new int[4];
+        } else if (size == addedNodes[node].length) {
+            addedNodes[node] = Arrays.copyOf(addedNodes[node], size * 2);
+            addedWeights[node] = Arrays.copyOf(addedWeights[node], size * 2);
+        }
+        addedNodes[node][size] = adjacent;
+        addedWeights[node][size] = weight;
+        degree[node] = size + 1;
     }
 
     /**
-     * gets the starting index of a degree in the sorted nodes list
-     *
-     * @param degree degree
-     * @param from   starting point
-     * @param to     ending point
+     * builds the adjacency lists and the bucket queue (nodes arrive in order of their ids)
      */
-    private int searchDegreePosition(int degree, int from, int to) {
-        if (sortedNodes.size() == 0)
-            return 0;
-
-        int position = (from + to) / 2;
-
-        if (from >= to || G[sortedNodes.get(position)].getDegree() == degree) {
-            if (from >= to)
-                position = from;
-
-            while (position > 0 && G[sortedNodes.get(position - 1)].getDegree() >= degree) position--;
-            while (position < sortedNodes.size() && G[sortedNodes.get(position)].getDegree() < degree) position++;
-            return position;
+    private void build() {
+        built = true;
+        byWeight = new int[n][];
+        byId = new int[n][];
+        int max = 0;
+        for (int node = 0; node < n; node++) {
+            int size = degree[node];
+            max = Math.max(max, size);
+            // weight in high bits, order of addition in low bits: ascending order is reversed later
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++)
+                keys[i] = ((long) addedWeights[node][i] << 32) | i;
+            Arrays.sort(keys);
+            byWeight[node] = new int[size];
+            for (int i = 0; i < size; i++)
+                byWeight[node][i] = addedNodes[node][(int) keys[size - 1 - i]];
+            byId[node] = (size > 0) ? Arrays.copyOf(addedNodes[node], size) : new int[0];
+            Arrays.sort(byId[node]);
         }
+        addedNodes = null;
+        addedWeights = null;
+
+        oldest = new int[max + 1];
+        newest = new int[max + 1];
+        Arrays.fill(oldest, -1);
+        Arrays.fill(newest, -1);
+        prev = new int[n];
+        next = new int[n];
+        removed = new boolean[n];
+        maxDegree = max;
+        for (int node = 0; node < n; node++)
+            enqueue(node);
+    }
 
-        if (G[sortedNodes.get(position)].getDegree() > degree)
-            return searchDegreePosition(degree, from, position - 1);
-        else
-            return searchDegreePosition(degree, position + 1, to);
+    /**
+     * adds the node as the newest one to the bucket of its degree
+     *
+     * @param node node
+     */
+    private void enqueue(int node) {
+        int d = degree[node];
+        prev[node] = newest[d];
+        next[node] = -1;
+        if (newest[d] >= 0) next[newest[d]] = node;
+        else oldest[d] = node;
+        newest[d] = node;
     }
 
     /**
-     * searches the position of a node in the sorted nodes list
+     * removes the node from the bucket of its degree
      *
-     * @param n node
+     * @param node node
      */
-    private int searchNodePosition(int n) {
-        int d = G[n].getDegree();
-        int i = searchDegreePosition(d, 0, sortedNodes.size()); // get the first position where the degree of the node appears
-        // find the node
-        while (i < sortedNodes.size() && G[sortedNodes.get(i)].getDegree() == d && sortedNodes.get(i) != n)
-            i++;
-
-        if (i < sortedNodes.size() && sortedNodes.get(i) == n)
-            return i;
-        return -1;
+    private void dequeue(int node) {
+        int d = degree[node];
+        if (prev[node] >= 0) next[prev[node]] = next[node];
+        else oldest[d] = next[node];
+        if (next[node] >= 0) prev[next[node]] = prev[node];
+        else newest[d] = prev[node];
     }
 
     /**
-     * removes adjacency to n2 from node n1
+     * removes adjacency to n2 from node n1, n1 arrives to the bucket of its new degree
      *
      * @param n1 node 1
      * @param n2 node 2
      */
     private void removeAdjacency(int n1, int n2) {
-        // get the position of n1 in the sorted list
-        int pos = searchNodePosition(n1);
-        // remove the adjacency
-        G[n1].removeAdjacency(n2);
-        // remove the node from the list
-        sortedNodes.remove(pos);
-        // find the new position of the node in the sorted list
-        int newPosition = searchDegreePosition(G[n1].getDegree(), 0, sortedNodes.size());
-        sortedNodes.add(newPosition, n1);
+        dequeue(n1);
+        int size = degree[n1];
+        int pos = Arrays.binarySearch(byId[n1], 0, size, n2);
+        if (pos >= 0) {
+            System.arraycopy(byId[n1], pos + 1, byId[n1], pos, size - pos - 1);
+            int[] list = byWeight[n1];
+            int i = 0;
+            while (list[i] != n2) i++;
+            System.arraycopy(list, i + 1, list, i, size - i - 1);
+            degree[n1] = size - 1;
+        }
+        enqueue(n1);
     }
 
     /**
-     * returns the id of the node with max degree
+     * returns the id of the node with max degree (the oldest in its bucket), -1 if there are no nodes
      */
     public int getNodeWithMaxDegree() {
-        if (sortedNodes == null)    // if the list isn't initialized
-            sortNodes();        // initialize it
-
-        if (sortedNodes.size() > 0)
-            return sortedNodes.get(sortedNodes.size() - 1);    // the node is the last of the sorted list
-        else
-            return -1;
+        if (!built) build();
+        while ((maxDegree >= 0) && (oldest[maxDegree] < 0)) maxDegree--;
+        return (maxDegree >= 0) ? oldest[maxDegree] : -1;
     }
 
     /**
@@ -191,22 +175,14 @@ public class Graph {
      * @param n node
      */
     public void removeNode(int n) {
-        int pos = searchNodePosition(n);    // get node's position in the sorted list
-        if (pos >= 0) {
-            sortedNodes.remove(pos);    // remove from the list
-            int[] list = G[n].getAdjacencyList();
-            // remove the node from each adjacent node's adjacency list
-            for (int aList : list) {
-                // remove the adjacency
-                removeAdjacency(aList, n);
-                // and update the sorted list
-                pos = searchNodePosition(aList);
-                G[aList].removeAdjacency(n);
-                sortedNodes.remove(pos);
-                sortedNodes.add(searchDegreePosition(G[aList].getDegree(), 0, sortedNodes.size()), aList);
-            }
-            G[n].removeAllAdjacency();
-        }
+        if (!built) build();
+        if (removed[n]) return;
+        dequeue(n);
+        removed[n] = true;
+        // remove the node from each adjacent node's adjacency list (in order of descending weight)
+        for (int i = 0; i < degree[n]; i++)
+            removeAdjacency(byWeight[n][i], n);
+        degree[n] = 0;
     }
 
     /**
@@ -216,16 +192,52 @@ public class Graph {
      * @param n2 node 2
      */
     public void removeEdge(int n1, int n2) {
+        if (!built) build();
         removeAdjacency(n1, n2);
         removeAdjacency(n2, n1);
     }
 
     /**
-     * return the nodes in n's adjacencies list
+     * return the nodes in n's adjacencies list, sorted by descending weight
      *
      * @param n node
      */
     public int[] getAdjacentList(int n) {
-        return G[n].getAdjacencyList();
+        if (!built) build();
+        return Arrays.copyOf(byWeight[n], degree[n]);
+    }
+
+    /**
+     * gets node's degree
+     *
+     * @param n node
+     */
+    public int getDegree(int n) {
+        return degree[n];
+    }
+
+    /**
+     * returns the number of common adjacent nodes of two nodes (intersection of the sorted adjacency lists)
+     *
+     * @param n1 node 1
+     * @param n2 node 2
+     */
+    public int getCommonAdjacentCount(int n1, int n2) {
+        if (!built) build();
+        int[] adj1 = byId[n1];
+        int[] adj2 = byId[n2];
+        int size1 = degree[n1];
+        int size2 = degree[n2];
+        int intersection = 0, i = 0, j = 0;
+        while (i < size1 && j < size2)
+            if (adj1[i] == adj2[j]) {
+                intersection++;
+                i++;
+                j++;
+            } else if (adj1[i] < adj2[j])
+                i++;
+            else
+                j++;
+        return intersection;
     }
 }
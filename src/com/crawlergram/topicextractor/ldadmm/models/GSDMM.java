@@ -1,6 +1,8 @@
 package com.crawlergram.topicextractor.ldadmm.models;
 
+import com.crawlergram.topicextractor.ldadmm.utility.CompactCorpus;
 import com.crawlergram.topicextractor.ldadmm.utility.FuncUtils;
+import com.crawlergram.topicextractor.ldadmm.utility.MTRandom;
 import com.crawlergram.topicextractor.structures.message.TEMessage;
 import com.crawlergram.topicextractor.structures.results.TEResults;
 import com.crawlergram.topicextractor.structures.results.TEResultsParameters;
@@ -24,6 +26,10 @@ import java.util.*;
 public class GSDMM {
     private final boolean debug = true; // debug
 
+    // probability of a topic is rescaled below this value (ratios of the product are <= 1, so it only shrinks)
+    private static final double RESCALE_LIMIT = 0x1p-500;
+    private static final double LN2 = Math.log(2);
+
     public double alpha; // Hyper-parameter alpha
     public double beta; // Hyper-parameter alpha
     public int numTopics; // Number of topics
@@ -33,8 +39,8 @@ public class GSDMM {
     public double alphaSum; // alpha * numTopics
     public double betaSum; // beta * vocabularySize
 
-    public List<List<Integer>> corpus; // Word ID-based corpus
-    public List<Integer> topicAssignments; // Topics assignments for documents
+    public CompactCorpus corpus; // Word ID-based corpus
+    public int[] topicAssignments; // Topics assignments for documents
     public int numDocuments; // Number of documents in the corpus
     public int numWordsInCorpus; // Number of words in the corpus
 
@@ -55,10 +61,8 @@ public class GSDMM {
     // Double array used to sample a topic
     public double[] multiPros;
 
-    // Given a document, number of times its i^{th} word appearing from
-    // the first index to the i^{th}-index in the document
-    // Example: given a document of "a a b a b c d c". We have: 1 2 1 3 2 1 1 2
-    public List<List<Integer>> occurenceToIndexCount;
+    // Random number generator of the sampler
+    public Random rand;
 
     /**
      * DMM with random topic initialization. Data is read from list of TEMessage instances.
@@ -72,6 +76,23 @@ public class GSDMM {
      */
     public GSDMM(List<TEMessage> msgs, int inNumTopics,
                  double inAlpha, double inBeta, int inNumIterations, int inTopWords) {
+        this(msgs, inNumTopics, inAlpha, inBeta, inNumIterations, inTopWords, MTRandom.getGenerator());
+    }
+
+    /**
+     * DMM with random topic initialization. Data is read from list of TEMessage instances.
+     *
+     * @param msgs            messages (with stemmed text)
+     * @param inNumTopics     number of topics
+     * @param inAlpha         alpha parameter, for short text - 0.1, for long text - 0.01
+     * @param inBeta          beta parameter, 0.1 both for short and long texts
+     * @param inNumIterations number of iterations
+     * @param inTopWords      top topic words for output
+     * @param inRand          random number generator (see RandomProvider)
+     */
+    public GSDMM(List<TEMessage> msgs, int inNumTopics,
+                 double inAlpha, double inBeta, int inNumIterations, int inTopWords, Random inRand) {
+        rand = inRand;
         alpha = inAlpha;
         beta = inBeta;
         numTopics = inNumTopics;
@@ -80,50 +101,13 @@ public class GSDMM {
 
         if (debug) System.out.println("DMM: reading topic modeling corpus from messages");
 
-        word2IdVocabulary = new TreeMap<>();
-        id2WordVocabulary = new TreeMap<>();
-        corpus = new ArrayList<>();
-        occurenceToIndexCount = new ArrayList<>();
-        numDocuments = 0;
-        numWordsInCorpus = 0;
+        corpus = new CompactCorpus(msgs);
+        word2IdVocabulary = corpus.word2IdVocabulary;
+        id2WordVocabulary = corpus.id2WordVocabulary;
+        numDocuments = corpus.numDocuments;
+        numWordsInCorpus = corpus.numWordsInCorpus;
 
-        int indexWord = -1;
-
-        for (TEMessage msg : msgs) {
-            String doc = msg.getStemmedText();
-            if (doc.trim().length() == 0) continue;
-
-            String[] words = doc.trim().split("\\s+");
-            List<Integer> document = new ArrayList<>();
-
-            List<Integer> wordOccurrenceToIndexInDoc = new ArrayList<>();
-            HashMap<String, Integer> wordOccurrenceToIndexInDocCount = new HashMap<>();
-
-            for (String word : words) {
-                if (word2IdVocabulary.containsKey(word)) {
-                    document.add(word2IdVocabulary.get(word));
-                } else {
-                    indexWord += 1;
-                    word2IdVocabulary.put(word, indexWord);
-                    id2WordVocabulary.put(indexWord, word);
-                    document.add(indexWord);
-                }
-
-                int times = 0;
-                if (wordOccurrenceToIndexInDocCount.containsKey(word)) {
-                    times = wordOccurrenceToIndexInDocCount.get(word);
-                }
-                times += 1;
-                wordOccurrenceToIndexInDocCount.put(word, times);
-                wordOccurrenceToIndexInDoc.add(times);
-            }
-            numDocuments++;
-            numWordsInCorpus += document.size();
-            corpus.add(document);
-            occurenceToIndexCount.add(wordOccurrenceToIndexInDoc);
-        }
-
-        vocabularySize = word2IdVocabulary.size();
+        vocabularySize = corpus.vocabularySize;
         docTopicCount = new int[numTopics];
         topicWordCount = new int[numTopics][vocabularySize];
         sumTopicWordCount = new int[numTopics];
@@ -153,16 +137,17 @@ public class GSDMM {
      */
     private void initialize() {
         if (debug) System.out.println("Randomly initializing topic assignments ...");
-        topicAssignments = new ArrayList<>();
+        topicAssignments = new int[numDocuments];
+        int[] words = corpus.words;
+        int[] docStarts = corpus.docStarts;
         for (int i = 0; i < numDocuments; i++) {
-            int topic = FuncUtils.nextDiscrete(multiPros); // Sample a topic
+            int topic = FuncUtils.nextDiscrete(multiPros, rand); // Sample a topic
             docTopicCount[topic] += 1;
-            int docSize = corpus.get(i).size();
-            for (int j = 0; j < docSize; j++) {
-                topicWordCount[topic][corpus.get(i).get(j)] += 1;
+            for (int j = docStarts[i]; j < docStarts[i + 1]; j++) {
+                topicWordCount[topic][words[j]] += 1;
                 sumTopicWordCount[topic] += 1;
             }
-            topicAssignments.add(topic);
+            topicAssignments[i] = topic;
         }
     }
 
@@ -183,40 +168,51 @@ public class GSDMM {
     }
 
     private void sampleInSingleIteration() {
+        int[] words = corpus.words;
+        int[] occurrences = corpus.occurrenceToIndexCount;
+        int[] docStarts = corpus.docStarts;
         for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-            int topic = topicAssignments.get(dIndex);
-            List<Integer> document = corpus.get(dIndex);
-            int docSize = document.size();
+            int topic = topicAssignments[dIndex];
+            int start = docStarts[dIndex];
+            int end = docStarts[dIndex + 1];
 
             // Decrease counts
             docTopicCount[topic] -= 1;
-            for (Integer aDocument1 : document) {
-                int word = aDocument1;
-                topicWordCount[topic][word] -= 1;
-                sumTopicWordCount[topic] -= 1;
+            int[] topicWords = topicWordCount[topic];
+            for (int pos = start; pos < end; pos++) {
+                topicWords[words[pos]] -= 1;
             }
+            sumTopicWordCount[topic] -= end - start;
 
-            // Sample a topic
+            // Sample a topic: product of docSize ratios is kept in linear space and rescaled near underflow (long
+            // documents), one log per topic
             for (int tIndex = 0; tIndex < numTopics; tIndex++) {
-                multiPros[tIndex] = (docTopicCount[tIndex] + alpha);
-                for (int wIndex = 0; wIndex < docSize; wIndex++) {
-                    int word = document.get(wIndex);
-                    multiPros[tIndex] *= (topicWordCount[tIndex][word] + beta
-                            + occurenceToIndexCount.get(dIndex).get(wIndex) - 1)
-                            / (sumTopicWordCount[tIndex] + betaSum + wIndex);
+                int[] tWords = topicWordCount[tIndex];
+                // denominators: (n_t + betaSum) (n_t + betaSum + 1) ... (n_t + betaSum + docSize - 1)
+                double denominator = sumTopicWordCount[tIndex] + betaSum - start;
+                double pro = docTopicCount[tIndex] + alpha;
+                int exponent = 0; // binary exponent taken out of pro
+                for (int pos = start; pos < end; pos++) {
+                    pro *= (tWords[words[pos]] + beta + occurrences[pos] - 1) / (denominator + pos);
+                    if (pro < RESCALE_LIMIT) {
+                        int e = Math.getExponent(pro);
+                        pro = Math.scalb(pro, -e);
+                        exponent += e;
+                    }
                 }
+                multiPros[tIndex] = Math.log(pro) + exponent * LN2;
             }
-            topic = FuncUtils.nextDiscrete(multiPros);
+            topic = FuncUtils.nextDiscrete(FuncUtils.expNormalize(multiPros), rand);
 
             // Increase counts
             docTopicCount[topic] += 1;
-            for (Integer aDocument : document) {
-                int word = aDocument;
-                topicWordCount[topic][word] += 1;
-                sumTopicWordCount[topic] += 1;
+            topicWords = topicWordCount[topic];
+            for (int pos = start; pos < end; pos++) {
+                topicWords[words[pos]] += 1;
             }
+            sumTopicWordCount[topic] += end - start;
             // Update topic assignments
-            topicAssignments.set(dIndex, topic);
+            topicAssignments[dIndex] = topic;
         }
     }
 
@@ -227,9 +223,9 @@ public class GSDMM {
     private List<List<Integer>> writeTopicAssignments() {
         List<List<Integer>> ta = new ArrayList<>();
         for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-            List<Integer> t = new ArrayList<>();
-            int docSize = corpus.get(dIndex).size();
-            int topic = topicAssignments.get(dIndex);
+            int docSize = corpus.docSize(dIndex);
+            List<Integer> t = new ArrayList<>(docSize);
+            int topic = topicAssignments[dIndex];
             for (int wIndex = 0; wIndex < docSize; wIndex++) {
                 t.add(topic);
             }
@@ -300,19 +296,18 @@ public class GSDMM {
         List<List<Double>> dtp = new ArrayList<>();
         for (int i = 0; i < numDocuments; i++) {
             List<Double> tp = new ArrayList<>();
-            int docSize = corpus.get(i).size();
-            double sum = 0.0;
+            int start = corpus.docStarts[i];
+            int end = corpus.docStarts[i + 1];
             for (int tIndex = 0; tIndex < numTopics; tIndex++) {
-                multiPros[tIndex] = (docTopicCount[tIndex] + alpha);
-                for (int wIndex = 0; wIndex < docSize; wIndex++) {
-                    int word = corpus.get(i).get(wIndex);
-                    multiPros[tIndex] *= (topicWordCount[tIndex][word] + beta)
-                            / (sumTopicWordCount[tIndex] + betaSum);
+                double logPro = Math.log(docTopicCount[tIndex] + alpha);
+                for (int pos = start; pos < end; pos++) {
+                    logPro += Math.log(topicWordCount[tIndex][corpus.words[pos]] + beta);
                 }
-                sum += multiPros[tIndex];
+                multiPros[tIndex] = logPro - (end - start) * Math.log(sumTopicWordCount[tIndex] + betaSum);
             }
+            FuncUtils.expNormalize(multiPros);
             for (int tIndex = 0; tIndex < numTopics; tIndex++) {
-                tp.add(multiPros[tIndex] / sum);
+                tp.add(multiPros[tIndex]);
             }
             dtp.add(tp);
         }
@@ -6,12 +6,16 @@
 
 package com.crawlergram.topicextractor.ldadmm.models;
 
+import com.crawlergram.topicextractor.ldadmm.utility.CompactCorpus;
 import com.crawlergram.topicextractor.ldadmm.utility.FuncUtils;
+import com.crawlergram.topicextractor.ldadmm.utility.MTRandom;
+import com.crawlergram.topicextractor.ldadmm.utility.RandomProvider;
 import com.crawlergram.topicextractor.structures.message.TEMessage;
 import com.crawlergram.topicextractor.structures.results.TEResults;
 import com.crawlergram.topicextractor.structures.results.TEResultsParameters;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * jLDADMM: A Java package for the LDA and DMM topic models
@@ -38,9 +42,8 @@ public class GSLDA {
     public double alphaSum; // alpha * numTopics
     public double betaSum; // beta * vocabularySize
 
-    public List<List<Integer>> corpus; // Word ID-based corpus
-    public List<List<Integer>> topicAssignments; // Topics assignments for words
-    // in the corpus
+    public CompactCorpus corpus; // Word ID-based corpus
+    public int[] topicAssignments; // Topics assignments for words in the corpus (same positions as corpus.words)
     public int numDocuments; // Number of documents in the corpus
     public int numWordsInCorpus; // Number of words in the corpus
 
@@ -64,6 +67,13 @@ public class GSLDA {
     // Double array used to sample a topic
     public double[] multiPros;
 
+    // Number of sampling threads, documents are split between threads (approximate distributed LDA),
+    // 1 - serial sampling
+    public int numThreads;
+
+    // Random number generator of the sampler
+    public Random rand;
+
     /**
      * LDA with random topic initialization. Data is read from list of TEMessage instances.
      *
@@ -76,47 +86,41 @@ public class GSLDA {
      */
     public GSLDA(List<TEMessage> msgs, int inNumTopics,
                  double inAlpha, double inBeta, int inNumIterations, int inTopWords) {
+        this(msgs, inNumTopics, inAlpha, inBeta, inNumIterations, inTopWords, 1, MTRandom.getGenerator());
+    }
+
+    /**
+     * LDA with random topic initialization and multi-threaded sampling. Data is read from list of TEMessage instances.
+     *
+     * @param msgs            messages (with stemmed text)
+     * @param inNumTopics     number of topics
+     * @param inAlpha         alpha parameter, for short text - 0.1, for long text - 0.01
+     * @param inBeta          beta parameter, 0.1 both for short and long texts
+     * @param inNumIterations number of iterations
+     * @param inTopWords      top topic words for output
+     * @param inNumThreads    number of sampling threads (1 - serial sampling)
+     * @param inRand          random number generator (see RandomProvider)
+     */
+    public GSLDA(List<TEMessage> msgs, int inNumTopics,
+                 double inAlpha, double inBeta, int inNumIterations, int inTopWords, int inNumThreads, Random inRand) {
 
         alpha = inAlpha;
         beta = inBeta;
         numTopics = inNumTopics;
         numIterations = inNumIterations;
         topWords = inTopWords;
+        numThreads = Math.max(1, inNumThreads);
+        rand = inRand;
 
         if (debug) System.out.println("LDA: reading topic modeling corpus from messages");
 
-        word2IdVocabulary = new TreeMap<>();
-        id2WordVocabulary = new TreeMap<>();
-        corpus = new ArrayList<>();
-        numDocuments = 0;
-        numWordsInCorpus = 0;
-
-        int indexWord = -1;
-
-        for (TEMessage msg : msgs) {
-            String doc = msg.getStemmedText();
-            if (doc.trim().length() == 0) continue;
+        corpus = new CompactCorpus(msgs);
+        word2IdVocabulary = corpus.word2IdVocabulary;
+        id2WordVocabulary = corpus.id2WordVocabulary;
+        numDocuments = corpus.numDocuments;
+        numWordsInCorpus = corpus.numWordsInCorpus;
 
-            String[] words = doc.trim().split("\\s+");
-            List<Integer> document = new ArrayList<Integer>();
-
-            for (String word : words) {
-                if (word2IdVocabulary.containsKey(word)) {
-                    document.add(word2IdVocabulary.get(word));
-                } else {
-                    indexWord += 1;
-                    word2IdVocabulary.put(word, indexWord);
-                    id2WordVocabulary.put(indexWord, word);
-                    document.add(indexWord);
-                }
-            }
-
-            numDocuments++;
-            numWordsInCorpus += document.size();
-            corpus.add(document);
-        }
-
-        vocabularySize = word2IdVocabulary.size(); // vocabularySize = indexWord
+        vocabularySize = corpus.vocabularySize; // vocabularySize = indexWord
         docTopicCount = new int[numDocuments][numTopics];
         topicWordCount = new int[numTopics][vocabularySize];
         sumDocTopicCount = new int[numDocuments];
@@ -140,6 +144,7 @@ public class GSLDA {
         if (debug) System.out.println("beta: " + beta);
         if (debug) System.out.println("Number of sampling iterations: " + numIterations);
         if (debug) System.out.println("Number of top topical words: " + topWords);
+        if (debug) System.out.println("Number of sampling threads: " + numThreads);
     }
 
     /**
@@ -147,20 +152,19 @@ public class GSLDA {
      */
     private void initialize() {
         if (debug) System.out.println("Randomly initializing topic assignments ...");
-        topicAssignments = new ArrayList<>();
+        topicAssignments = new int[numWordsInCorpus];
+        int[] words = corpus.words;
+        int[] docStarts = corpus.docStarts;
         for (int i = 0; i < numDocuments; i++) {
-            List<Integer> topics = new ArrayList<>();
-            int docSize = corpus.get(i).size();
-            for (int j = 0; j < docSize; j++) {
-                int topic = FuncUtils.nextDiscrete(multiPros); // Sample a topic
+            for (int j = docStarts[i]; j < docStarts[i + 1]; j++) {
+                int topic = FuncUtils.nextDiscrete(multiPros, rand); // Sample a topic
                 // Increase counts
                 docTopicCount[i][topic] += 1;
-                topicWordCount[topic][corpus.get(i).get(j)] += 1;
+                topicWordCount[topic][words[j]] += 1;
                 sumDocTopicCount[i] += 1;
                 sumTopicWordCount[topic] += 1;
-                topics.add(topic);
+                topicAssignments[j] = topic;
             }
-            topicAssignments.add(topics);
         }
     }
 
@@ -170,55 +174,223 @@ public class GSLDA {
     public TEResults inference() {
         if (debug) System.out.println("Running Gibbs sampling inference: ");
 
-        for (int iter = 1; iter <= numIterations; iter++) {
-            if (debug && iter % 1000 == 0) System.out.println("\tSampling iteration: " + (iter));
-            sampleInSingleIteration();
+        int threads = Math.min(numThreads, numDocuments);
+        if (threads > 1) {
+            ParallelSampler sampler = new ParallelSampler(threads);
+            try {
+                for (int iter = 1; iter <= numIterations; iter++) {
+                    if (debug && iter % 1000 == 0) System.out.println("\tSampling iteration: " + (iter) + ", log-likelihood: " + logLikelihood());
+                    sampler.sampleInSingleIteration();
+                }
+            } finally {
+                sampler.shutdown();
+            }
+        } else {
+            for (int iter = 1; iter <= numIterations; iter++) {
+                if (debug && iter % 1000 == 0) System.out.println("\tSampling iteration: " + (iter) + ", log-likelihood: " + logLikelihood());
+                sampleInSingleIteration();
+            }
         }
 
+        if (debug) System.out.println("Log-likelihood: " + logLikelihood());
         if (debug) System.out.println("Writing output from the last sample ...");
 
         return write();
     }
 
-    private void sampleInSingleIteration() {
+    /**
+     * Log-likelihood of the corpus and the current topic assignments log p(w, z), used to compare convergence
+     * of the samplers
+     */
+    public double logLikelihood() {
+        double ll = 0.0;
+        double lgBeta = FuncUtils.logGamma(beta);
+        double lgAlpha = FuncUtils.logGamma(alpha);
+        for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+            ll += FuncUtils.logGamma(betaSum) - FuncUtils.logGamma(betaSum + sumTopicWordCount[tIndex]);
+            for (int wIndex = 0; wIndex < vocabularySize; wIndex++) {
+                if (topicWordCount[tIndex][wIndex] > 0) {
+                    ll += FuncUtils.logGamma(beta + topicWordCount[tIndex][wIndex]) - lgBeta;
+                }
+            }
+        }
+        for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
+            ll += FuncUtils.logGamma(alphaSum) - FuncUtils.logGamma(alphaSum + sumDocTopicCount[dIndex]);
+            for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+                if (docTopicCount[dIndex][tIndex] > 0) {
+                    ll += FuncUtils.logGamma(alpha + docTopicCount[dIndex][tIndex]) - lgAlpha;
+                }
+            }
+        }
+        return ll;
+    }
+
+    protected void sampleInSingleIteration() {
+        int[] words = corpus.words;
+        int[] docStarts = corpus.docStarts;
         for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-            int docSize = corpus.get(dIndex).size();
-            for (int wIndex = 0; wIndex < docSize; wIndex++) {
+            int[] docTopics = docTopicCount[dIndex];
+            for (int pos = docStarts[dIndex]; pos < docStarts[dIndex + 1]; pos++) {
                 // Get current word and its topic
-                int topic = topicAssignments.get(dIndex).get(wIndex);
-                int word = corpus.get(dIndex).get(wIndex);
+                int topic = topicAssignments[pos];
+                int word = words[pos];
 
                 // Decrease counts
-                docTopicCount[dIndex][topic] -= 1;
-                // docTopicSum[dIndex] -= 1;
+                docTopics[topic] -= 1;
                 topicWordCount[topic][word] -= 1;
                 sumTopicWordCount[topic] -= 1;
 
                 // Sample a topic
                 for (int tIndex = 0; tIndex < numTopics; tIndex++) {
-                    multiPros[tIndex] = (docTopicCount[dIndex][tIndex] + alpha)
+                    multiPros[tIndex] = (docTopics[tIndex] + alpha)
                             * ((topicWordCount[tIndex][word] + beta) / (sumTopicWordCount[tIndex] + betaSum));
-                    // multiPros[tIndex] = ((docTopicCount[dIndex][tIndex] +
-                    // alpha) /
-                    // (docTopicSum[dIndex] + alphaSum))
-                    // * ((topicWordCount[tIndex][word] + beta) /
-                    // (topicWordSum[tIndex] + betaSum));
                 }
-                topic = FuncUtils.nextDiscrete(multiPros);
+                topic = FuncUtils.nextDiscrete(multiPros, rand);
 
                 // Increase counts
-                docTopicCount[dIndex][topic] += 1;
-                // docTopicSum[dIndex] += 1;
+                docTopics[topic] += 1;
                 topicWordCount[topic][word] += 1;
                 sumTopicWordCount[topic] += 1;
 
                 // Update topic assignments
-                topicAssignments.get(dIndex).set(wIndex, topic);
+                topicAssignments[pos] = topic;
+            }
+        }
+    }
+
+    /**
+     * Approximate distributed LDA (Newman et al. 2009): documents are split between threads, each thread samples
+     * its documents against its own copy of the topic-word counts, copies are merged after each iteration.
+     * Document-topic counts and assignments are owned by a single thread, so they are updated in place.
+     */
+    private class ParallelSampler {
+
+        private final ExecutorService pool;
+        private final Worker[] workers;
+        private final int[][] snapshot; // topic-word counts at the start of the iteration
+        private final int[] snapshotSum; // topic counts at the start of the iteration
+
+        ParallelSampler(int threads) {
+            pool = Executors.newFixedThreadPool(threads);
+            snapshot = new int[numTopics][vocabularySize];
+            snapshotSum = new int[numTopics];
+            workers = new Worker[threads];
+            // contiguous blocks of documents with nearly equal number of words
+            int[] docStarts = corpus.docStarts;
+            int firstDoc = 0;
+            for (int i = 0; i < threads; i++) {
+                int lastDoc = firstDoc;
+                long target = (long) numWordsInCorpus * (i + 1) / threads;
+                while ((lastDoc < numDocuments - (threads - i - 1)) && ((lastDoc == firstDoc) || (docStarts[lastDoc] < target))) {
+                    lastDoc++;
+                }
+                if (i == threads - 1) lastDoc = numDocuments;
+                // each worker has its own generator seeded from the generator of the model (reproducible with a fixed seed)
+                workers[i] = new Worker(firstDoc, lastDoc, RandomProvider.fork(rand));
+                firstDoc = lastDoc;
+            }
+        }
+
+        void sampleInSingleIteration() {
+            for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+                System.arraycopy(topicWordCount[tIndex], 0, snapshot[tIndex], 0, vocabularySize);
+            }
+            System.arraycopy(sumTopicWordCount, 0, snapshotSum, 0, numTopics);
+            invokeAll(Arrays.asList(workers));
+            // merge: global = snapshot + sum of the deltas of the workers, topics are merged in parallel
+            List<Callable<Void>> merges = new ArrayList<>(numTopics);
+            for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+                final int t = tIndex;
+                merges.add(() -> {
+                    int[] global = topicWordCount[t];
+                    int[] old = snapshot[t];
+                    int sum = snapshotSum[t];
+                    for (Worker worker : workers) {
+                        int[] local = worker.localTopicWordCount[t];
+                        for (int wIndex = 0; wIndex < vocabularySize; wIndex++) {
+                            global[wIndex] += local[wIndex] - old[wIndex];
+                        }
+                        sum += worker.localSumTopicWordCount[t] - snapshotSum[t];
+                    }
+                    sumTopicWordCount[t] = sum;
+                    return null;
+                });
+            }
+            invokeAll(merges);
+        }
+
+        private void invokeAll(List<? extends Callable<Void>> tasks) {
+            try {
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("LDA sampling interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("LDA sampling failed", e.getCause());
+            }
+        }
+
+        void shutdown() {
+            pool.shutdownNow();
+        }
+
+        /**
+         * Samples topics of a block of documents
+         */
+        private class Worker implements Callable<Void> {
+
+            private final int firstDoc;
+            private final int lastDoc; // exclusive
+            private final Random workerRand;
+            private final int[][] localTopicWordCount = new int[numTopics][vocabularySize];
+            private final int[] localSumTopicWordCount = new int[numTopics];
+            private final double[] localPros = new double[numTopics];
+
+            Worker(int firstDoc, int lastDoc, Random workerRand) {
+                this.firstDoc = firstDoc;
+                this.lastDoc = lastDoc;
+                this.workerRand = workerRand;
+            }
+
+            @Override
+            public Void call() {
+                for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+                    System.arraycopy(snapshot[tIndex], 0, localTopicWordCount[tIndex], 0, vocabularySize);
+                    localSumTopicWordCount[tIndex] = snapshotSum[tIndex];
+                }
+                int[] words = corpus.words;
+                int[] docStarts = corpus.docStarts;
+                for (int dIndex = firstDoc; dIndex < lastDoc; dIndex++) {
+                    int[] docTopics = docTopicCount[dIndex];
+                    for (int pos = docStarts[dIndex]; pos < docStarts[dIndex + 1]; pos++) {
+                        int topic = topicAssignments[pos];
+                        int word = words[pos];
+
+                        docTopics[topic] -= 1;
+                        localTopicWordCount[topic][word] -= 1;
+                        localSumTopicWordCount[topic] -= 1;
+
+                        for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+                            localPros[tIndex] = (docTopics[tIndex] + alpha)
+                                    * ((localTopicWordCount[tIndex][word] + beta) / (localSumTopicWordCount[tIndex] + betaSum));
+                        }
+                        topic = FuncUtils.nextDiscrete(localPros, workerRand);
+
+                        docTopics[topic] += 1;
+                        localTopicWordCount[topic][word] += 1;
+                        localSumTopicWordCount[topic] += 1;
+
+                        topicAssignments[pos] = topic;
+                    }
+                }
+                return null;
             }
         }
     }
 
-    private TEResultsParameters writeParameters() {
+    protected TEResultsParameters writeParameters() {
         return new TEResultsParameters("LDA", numTopics, alpha, beta, numIterations, topWords);
     }
 
@@ -227,16 +399,15 @@ public class GSLDA {
     }
 
     private List<List<Integer>> writeIDbasedCorpus() {
-        return corpus;
+        return corpus.toLists();
     }
 
     private List<List<Integer>> writeTopicAssignments() {
         List<List<Integer>> ta = new ArrayList<>();
         for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
-            List<Integer> t = new ArrayList<>();
-            int docSize = corpus.get(dIndex).size();
-            for (int wIndex = 0; wIndex < docSize; wIndex++) {
-                t.add(topicAssignments.get(dIndex).get(wIndex));
+            List<Integer> t = new ArrayList<>(corpus.docSize(dIndex));
+            for (int pos = corpus.docStarts[dIndex]; pos < corpus.docStarts[dIndex + 1]; pos++) {
+                t.add(topicAssignments[pos]);
             }
             ta.add(t);
         }
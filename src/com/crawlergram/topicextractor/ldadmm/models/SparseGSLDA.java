@@ -0,0 +1,261 @@
+/*
+ * Title: SparseGSLDA.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ */
+
+package com.crawlergram.topicextractor.ldadmm.models;
+
+import com.crawlergram.topicextractor.ldadmm.utility.MTRandom;
+import com.crawlergram.topicextractor.structures.message.TEMessage;
+import com.crawlergram.topicextractor.structures.results.TEResultsParameters;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * LDA with the SparseLDA sampler, as described in:
+ * <p>
+ * Limin Yao, David Mimno and Andrew McCallum. 2009. Efficient Methods for Topic Model Inference on Streaming
+ * Document Collections. Proceedings of the 15th ACM SIGKDD, pages 937–946.
+ * <p>
+ * Sampling distribution of GSLDA is split into three buckets:
+ * (alpha + n_dt)(beta + n_tw)/(n_t + betaSum) = alpha * beta / (n_t + betaSum)   - smoothing bucket s
+ *                                             + n_dt * beta / (n_t + betaSum)    - document bucket r
+ *                                             + (alpha + n_dt) n_tw / (n_t + betaSum) - topic-word bucket q
+ * s is cached for the whole corpus, r for the document, q is computed only over topics of the word. For large
+ * numbers of topics a word and a document have only a few topics, so the cost of a token is much less than
+ * O(numTopics). The sampled distribution is exactly the same as in GSLDA, results have the same form.
+ */
+
+public class SparseGSLDA extends GSLDA {
+
+    // Given a word: topics with non-zero count of the word (unordered) and their number
+    private int[][] wordTopics;
+    private int[] wordTopicsSize;
+    // Position of the topic in the list of topics of the current document (-1 if the topic isn't there)
+    private int[] docTopicPos;
+    private int[] docTopics;
+    private int docTopicsSize;
+
+    private double[] coef; // (alpha + n_dt) / (n_t + betaSum) for the current document
+    private double[] qPros; // q bucket values of the topics of the current word
+    private double s; // smoothing bucket
+    private double r; // document bucket
+
+    /**
+     * LDA with random topic initialization and SparseLDA sampling. Data is read from list of TEMessage instances.
+     *
+     * @param msgs            messages (with stemmed text)
+     * @param inNumTopics     number of topics
+     * @param inAlpha         alpha parameter, for short text - 0.1, for long text - 0.01
+     * @param inBeta          beta parameter, 0.1 both for short and long texts
+     * @param inNumIterations number of iterations
+     * @param inTopWords      top topic words for output
+     */
+    public SparseGSLDA(List<TEMessage> msgs, int inNumTopics,
+                       double inAlpha, double inBeta, int inNumIterations, int inTopWords) {
+        this(msgs, inNumTopics, inAlpha, inBeta, inNumIterations, inTopWords, MTRandom.getGenerator());
+    }
+
+    /**
+     * LDA with random topic initialization and SparseLDA sampling. Data is read from list of TEMessage instances.
+     *
+     * @param msgs            messages (with stemmed text)
+     * @param inNumTopics     number of topics
+     * @param inAlpha         alpha parameter, for short text - 0.1, for long text - 0.01
+     * @param inBeta          beta parameter, 0.1 both for short and long texts
+     * @param inNumIterations number of iterations
+     * @param inTopWords      top topic words for output
+     * @param inRand          random number generator (see RandomProvider)
+     */
+    public SparseGSLDA(List<TEMessage> msgs, int inNumTopics,
+                       double inAlpha, double inBeta, int inNumIterations, int inTopWords, Random inRand) {
+        super(msgs, inNumTopics, inAlpha, inBeta, inNumIterations, inTopWords, 1, inRand);
+
+        wordTopics = new int[vocabularySize][];
+        wordTopicsSize = new int[vocabularySize];
+        for (int wIndex = 0; wIndex < vocabularySize; wIndex++) {
+            wordTopics[wIndex] = new int[2];
+        }
+        for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+            for (int wIndex = 0; wIndex < vocabularySize; wIndex++) {
+                if (topicWordCount[tIndex][wIndex] > 0) addWordTopic(wIndex, tIndex);
+            }
+        }
+        docTopicPos = new int[numTopics];
+        docTopics = new int[numTopics];
+        coef = new double[numTopics];
+        qPros = new double[numTopics];
+    }
+
+    @Override
+    protected void sampleInSingleIteration() {
+        int[] words = corpus.words;
+        int[] docStarts = corpus.docStarts;
+
+        // smoothing bucket and coefficients without document, recomputed each iteration to avoid drift
+        s = 0.0;
+        for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+            double denom = sumTopicWordCount[tIndex] + betaSum;
+            s += alpha * beta / denom;
+            coef[tIndex] = alpha / denom;
+            docTopicPos[tIndex] = -1;
+        }
+
+        for (int dIndex = 0; dIndex < numDocuments; dIndex++) {
+            int[] dtCount = docTopicCount[dIndex];
+
+            // document bucket and coefficients of the document
+            r = 0.0;
+            docTopicsSize = 0;
+            for (int tIndex = 0; tIndex < numTopics; tIndex++) {
+                if (dtCount[tIndex] > 0) {
+                    double denom = sumTopicWordCount[tIndex] + betaSum;
+                    r += dtCount[tIndex] * beta / denom;
+                    coef[tIndex] = (alpha + dtCount[tIndex]) / denom;
+                    docTopicPos[tIndex] = docTopicsSize;
+                    docTopics[docTopicsSize++] = tIndex;
+                }
+            }
+
+            for (int pos = docStarts[dIndex]; pos < docStarts[dIndex + 1]; pos++) {
+                int topic = topicAssignments[pos];
+                int word = words[pos];
+
+                // Decrease counts
+                removeTopicTerms(topic, dtCount);
+                dtCount[topic] -= 1;
+                topicWordCount[topic][word] -= 1;
+                sumTopicWordCount[topic] -= 1;
+                if (topicWordCount[topic][word] == 0) removeWordTopic(word, topic);
+                if (dtCount[topic] == 0) removeDocTopic(topic);
+                addTopicTerms(topic, dtCount);
+
+                // topic-word bucket
+                int[] wTopics = wordTopics[word];
+                int wSize = wordTopicsSize[word];
+                double q = 0.0;
+                for (int i = 0; i < wSize; i++) {
+                    int t = wTopics[i];
+                    qPros[i] = coef[t] * topicWordCount[t][word];
+                    q += qPros[i];
+                }
+
+                // Sample a topic
+                double u = rand.nextDouble() * (s + r + q);
+                topic = -1;
+                if (u < q) {
+                    for (int i = 0; i < wSize; i++) {
+                        u -= qPros[i];
+                        if (u <= 0) {
+                            topic = wTopics[i];
+                            break;
+                        }
+                    }
+                    if (topic < 0) topic = wTopics[wSize - 1];
+                } else if ((u < q + r) && (docTopicsSize > 0)) {
+                    u -= q;
+                    for (int i = 0; i < docTopicsSize; i++) {
+                        int t = docTopics[i];
+                        u -= dtCount[t] * beta / (sumTopicWordCount[t] + betaSum);
+                        if (u <= 0) {
+                            topic = t;
+                            break;
+                        }
+                    }
+                    if (topic < 0) topic = docTopics[docTopicsSize - 1];
+                } else {
+                    u -= q + r;
+                    for (int t = 0; t < numTopics; t++) {
+                        u -= alpha * beta / (sumTopicWordCount[t] + betaSum);
+                        if (u <= 0) {
+                            topic = t;
+                            break;
+                        }
+                    }
+                    if (topic < 0) topic = numTopics - 1;
+                }
+
+                // Increase counts
+                removeTopicTerms(topic, dtCount);
+                if (dtCount[topic] == 0) addDocTopic(topic);
+                if (topicWordCount[topic][word] == 0) addWordTopic(word, topic);
+                dtCount[topic] += 1;
+                topicWordCount[topic][word] += 1;
+                sumTopicWordCount[topic] += 1;
+                addTopicTerms(topic, dtCount);
+
+                // Update topic assignments
+                topicAssignments[pos] = topic;
+            }
+
+            // coefficients without document for the next document
+            for (int i = 0; i < docTopicsSize; i++) {
+                int t = docTopics[i];
+                coef[t] = alpha / (sumTopicWordCount[t] + betaSum);
+                docTopicPos[t] = -1;
+            }
+        }
+    }
+
+    /**
+     * subtracts terms of the topic from s and r buckets
+     */
+    private void removeTopicTerms(int topic, int[] dtCount) {
+        double denom = sumTopicWordCount[topic] + betaSum;
+        s -= alpha * beta / denom;
+        r -= dtCount[topic] * beta / denom;
+    }
+
+    /**
+     * adds terms of the topic to s and r buckets, updates the coefficient of the topic
+     */
+    private void addTopicTerms(int topic, int[] dtCount) {
+        double denom = sumTopicWordCount[topic] + betaSum;
+        s += alpha * beta / denom;
+        r += dtCount[topic] * beta / denom;
+        coef[topic] = (alpha + dtCount[topic]) / denom;
+    }
+
+    private void addWordTopic(int word, int topic) {
+        int[] topics = wordTopics[word];
+        if (wordTopicsSize[word] == topics.length) {
+            topics = Arrays.copyOf(topics, Math.min(numTopics, topics.length * 2));
+            wordTopics[word] = topics;
+        }
+        topics[wordTopicsSize[word]++] = topic;
+    }
+
+    private void removeWordTopic(int word, int topic) {
+        int[] topics = wordTopics[word];
+        int size = wordTopicsSize[word];
+        for (int i = 0; i < size; i++) {
+            if (topics[i] == topic) {
+                topics[i] = topics[size - 1];
+                wordTopicsSize[word] = size - 1;
+                return;
+            }
+        }
+    }
+
+    private void addDocTopic(int topic) {
+        docTopicPos[topic] = docTopicsSize;
+        docTopics[docTopicsSize++] = topic;
+    }
+
+    private void removeDocTopic(int topic) {
+        int i = docTopicPos[topic];
+        int last = docTopics[--docTopicsSize];
+        docTopics[i] = last;
+        docTopicPos[last] = i;
+        docTopicPos[topic] = -1;
+    }
+
+    @Override
+    protected TEResultsParameters writeParameters() {
+        return new TEResultsParameters("SparseLDA", numTopics, alpha, beta, numIterations, topWords);
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Title: CompactCorpus.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ */
+
+package com.crawlergram.topicextractor.ldadmm.utility;
+
+import com.crawlergram.topicextractor.structures.message.TEMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Word ID-based corpus stored in flat int arrays (CSR layout): words of the document d are
+ * words[docStarts[d]] ... words[docStarts[d + 1] - 1]. Used by Gibbs samplers to avoid boxing in the inner loops.
+ */
+
+public class CompactCorpus {
+
+    public TreeMap<String, Integer> word2IdVocabulary; // Vocabulary to get ID given a word
+    public TreeMap<Integer, String> id2WordVocabulary; // Vocabulary to get word given an ID
+    public int vocabularySize; // The number of word types in the corpus
+
+    public int numDocuments; // Number of documents in the corpus
+    public int numWordsInCorpus; // Number of words in the corpus
+
+    public int[] docStarts; // numDocuments + 1 offsets of the documents in words
+    public int[] words; // word ids of all the documents
+
+    // Given a word position: number of times the word appears in its document from the first index to this index
+    // Example: given a document of "a a b a b c d c". We have: 1 2 1 3 2 1 1 2
+    public int[] occurrenceToIndexCount;
+
+    /**
+     * Reads the corpus from the stemmed texts of messages (empty texts are skipped)
+     * @param msgs messages (with stemmed text)
+     */
+    public CompactCorpus(List<TEMessage> msgs) {
+        word2IdVocabulary = new TreeMap<>();
+        id2WordVocabulary = new TreeMap<>();
+        numDocuments = 0;
+        numWordsInCorpus = 0;
+        docStarts = new int[Math.max(16, msgs.size() + 1)];
+        words = new int[1024];
+
+        for (TEMessage msg : msgs) {
+            String doc = msg.getStemmedText();
+            if (doc.trim().length() == 0) continue;
+
+            String[] docWords = doc.trim().split("\\s+");
+            if (numWordsInCorpus + docWords.length > words.length) {
+                words = Arrays.copyOf(words, Math.max(words.length * 2, numWordsInCorpus + docWords.length));
+            }
+            for (String word : docWords) {
+                Integer id = word2IdVocabulary.get(word);
+                if (id == null) {
+                    id = word2IdVocabulary.size();
+                    word2IdVocabulary.put(word, id);
+                    id2WordVocabulary.put(id, word);
+                }
+                words[numWordsInCorpus++] = id;
+            }
+            numDocuments++;
+            docStarts[numDocuments] = numWordsInCorpus;
+        }
+
+        vocabularySize = word2IdVocabulary.size();
+        docStarts = Arrays.copyOf(docStarts, numDocuments + 1);
+        words = Arrays.copyOf(words, numWordsInCorpus);
+
+        // occurrences, counts of the words are reset after each document
+        occurrenceToIndexCount = new int[numWordsInCorpus];
+        int[] counts = new int[vocabularySize];
+        for (int d = 0; d < numDocuments; d++) {
+            for (int i = docStarts[d]; i < docStarts[d + 1]; i++) {
+                occurrenceToIndexCount[i] = ++counts[words[i]];
+            }
+            for (int i = docStarts[d]; i < docStarts[d + 1]; i++) {
+                counts[words[i]] = 0;
+            }
+        }
+    }
+
+    /**
+     * number of words in the document
+     * @param d document index
+     */
+    public int docSize(int d) {
+        return docStarts[d + 1] - docStarts[d];
+    }
+
+    /**
+     * corpus as lists of word ids (for output)
+     */
+    public List<List<Integer>> toLists() {
+        List<List<Integer>> lists = new ArrayList<>(numDocuments);
+        for (int d = 0; d < numDocuments; d++) {
+            List<Integer> document = new ArrayList<>(docSize(d));
+            for (int i = docStarts[d]; i < docStarts[d + 1]; i++) {
+                document.add(words[i]);
+            }
+            lists.add(document);
+        }
+        return lists;
+    }
+
+}
@@ -6,6 +6,7 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 public class FuncUtils {
     public static <K, V extends Comparable<? super V>> Map<K, V> sortByValueDescending(Map<K, V> map) {
@@ -44,16 +45,18 @@ public class FuncUtils {
 
     /**
      * Sample a value from a double array
+     * (each sampler or sampler thread has its own generator, see RandomProvider)
      *
      * @param probs
+     * @param rand
      * @return
      */
-    public static int nextDiscrete(double[] probs) {
+    public static int nextDiscrete(double[] probs, Random rand) {
         double sum = 0.0;
         for (int i = 0; i < probs.length; i++)
             sum += probs[i];
 
-        double r = MTRandom.nextDouble() * sum;
+        double r = rand.nextDouble() * sum;
 
         sum = 0.0;
         for (int i = 0; i < probs.length; i++) {
@@ -64,6 +67,64 @@ public class FuncUtils {
         return probs.length - 1;
     }
 
+    /**
+     * Logarithm of the gamma function (Lanczos approximation), x > 0
+     *
+     * @param x
+     * @return
+     */
+    public static double logGamma(double x) {
+        if (x < 0.5) {
+            // reflection formula
+            return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * x))) - logGamma(1.0 - x);
+        }
+        x -= 1.0;
+        double a = LANCZOS[0];
+        double t = x + 7.5;
+        for (int i = 1; i < LANCZOS.length; i++)
+            a += LANCZOS[i] / (x + i);
+        return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(a);
+    }
+
+    private static final double[] LANCZOS = {0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+            771.32342877765313, -176.61502916214059, 12.507343278686905, -0.13857109526572012,
+            9.9843695780195716e-6, 1.5056327351493116e-7};
+
+    /**
+     * Logarithm of the rising factorial x (x + 1) ... (x + n - 1)
+     *
+     * @param x
+     * @param n
+     * @return
+     */
+    public static double logRisingFactorial(double x, int n) {
+        if (n > 16) return logGamma(x + n) - logGamma(x);
+        double sum = 0.0;
+        for (int i = 0; i < n; i++)
+            sum += Math.log(x + i);
+        return sum;
+    }
+
+    /**
+     * Turns logarithms of the unnormalized probabilities into probabilities (log-sum-exp), in place
+     *
+     * @param logPros
+     * @return
+     */
+    public static double[] expNormalize(double[] logPros) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < logPros.length; i++)
+            if (logPros[i] > max) max = logPros[i];
+        double sum = 0.0;
+        for (int i = 0; i < logPros.length; i++) {
+            logPros[i] = Math.exp(logPros[i] - max);
+            sum += logPros[i];
+        }
+        for (int i = 0; i < logPros.length; i++)
+            logPros[i] /= sum;
+        return logPros;
+    }
+
     public static double mean(double[] m) {
         double sum = 0;
         for (int i = 0; i < m.length; i++)
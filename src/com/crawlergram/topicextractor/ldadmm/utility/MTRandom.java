@@ -1,10 +1,20 @@
 package com.crawlergram.topicextractor.ldadmm.utility;
 
+import java.util.Random;
+
 public class MTRandom
 {
 
     private static MersenneTwister rand = new MersenneTwister();
 
+    /**
+     * Shared generator, used by the models if no generator is given (not for multi-threaded use, see RandomProvider)
+     */
+    public static Random getGenerator()
+    {
+        return rand;
+    }
+
     public static void setSeed(long seed)
     {
         rand.setSeed(seed);
@@ -0,0 +1,74 @@
+/*
+ * Title: RandomProvider.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ */
+
+package com.crawlergram.topicextractor.ldadmm.utility;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Source of independent random number generators (MersenneTwister streams) for samplers. Each sampler thread or
+ * job gets its own generator, so no generator is shared between threads. All the streams are derived from one
+ * seed: streams handed out by next() depend on the seed and the order of calls, streams of forKey(key) depend only
+ * on the seed and the key (e.g. dialog id), so a single dialog can be reproduced regardless of the other jobs.
+ */
+
+public class RandomProvider {
+
+    private final long seed;
+    private final SplittableRandom root;
+
+    /**
+     * @param seed seed of all the streams
+     */
+    public RandomProvider(long seed) {
+        this.seed = seed;
+        this.root = new SplittableRandom(seed);
+    }
+
+    /**
+     * provider with a time-based seed
+     */
+    public RandomProvider() {
+        this(System.nanoTime());
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * next independent generator
+     */
+    public synchronized Random next() {
+        return fromSeed(root.split().nextLong());
+    }
+
+    /**
+     * generator of the job with the given key, the same key always gives the same stream
+     * @param key key of the job (e.g. dialog id)
+     */
+    public Random forKey(long key) {
+        return fromSeed(new SplittableRandom(seed).split().nextLong() ^ new SplittableRandom(key).nextLong());
+    }
+
+    /**
+     * new generator seeded from the parent one (e.g. for the worker threads of a sampler)
+     * @param parent parent generator
+     */
+    public static Random fork(Random parent) {
+        return fromSeed(parent.nextLong());
+    }
+
+    /**
+     * MersenneTwister, seeded with all 64 bits of the seed
+     * @param seed seed
+     */
+    private static Random fromSeed(long seed) {
+        return new MersenneTwister(new int[]{(int) (seed >>> 32), (int) seed});
+    }
+
+}
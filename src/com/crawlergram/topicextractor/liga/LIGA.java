@@ -10,11 +10,19 @@ package com.crawlergram.topicextractor.liga;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
 
 import com.crawlergram.topicextractor.extractormethods.Tokenizer;
 import com.fasterxml.jackson.core.*;
-import org.apache.commons.lang3.tuple.MutablePair;
+
+/**
+ * LIGA language identification. The graph is stored in a compact LIGAModel (see there) or, if a binary snapshot is
+ * loaded, is read directly from the memory-mapped file (MappedLIGAModel, copied to memory before training). classify()
+ * only reads the model, so a loaded model can be shared between threads (the model must not be changed while it is
+ * shared). Large corpora are trained with addDocuments() on several threads, saved models can be merged.
+ */
 
 public class LIGA {
 
@@ -24,20 +32,31 @@ public class LIGA {
     private int n = 3;
     // confidence threshold (if lower - language is still UNKNOWN)
     private double threshold = 0.0125;
-    // max recursive search depth
+    // max search depth (max number of visited ngrams - 1)
     private int maxSearchDepth = 1000;
     // flag of model, if true - logLIGA, false - LIGA
     private boolean logLIGA = true;
-    // tree maps - we don't know how many items, natural order -> more readable, adequate memory distribution, O(log(n))
-    private TreeMap<String, TreeMap<String, Integer>> nodes = new TreeMap<>();
-    private TreeMap<String, TreeMap<String, TreeMap<String, Integer>>> edges = new TreeMap<>();
-    private TreeMap<String, MutablePair<Integer, Integer>> counter = new TreeMap<>();
+    // flag of early termination of path matching (when the best language can't change anymore)
+    private boolean earlyStop = false;
+    // part of the max counts, which is assumed for the remaining ngrams by early termination (1.0 - exact)
+    private double earlyStopRate = 1.0;
+    // path matching checks if it can stop after each EARLY_STOP_INTERVAL ngrams
+    private static final int EARLY_STOP_INTERVAL = 32;
+    // max counts of nodes and edges of languages for early termination (computed once per model)
+    private volatile CountBounds countBounds = null;
+    // graph: ngram nodes, edges and total counts of languages
+    private ReadOnlyLIGAModel model = new LIGAModel(n);
 
     public int getN() {
         return n;
     }
 
+    /**
+     * sets n of ngram, the model is dropped if n is changed
+     * @param n n of ngram
+     */
     public LIGA setN(int n) {
+        if (this.n != n) model = new LIGAModel(n);
         this.n = n;
         return this;
     }
@@ -69,16 +88,57 @@ public class LIGA {
         return this;
     }
 
-    public TreeMap<String, TreeMap<String, Integer>> getNodes() {
-        return nodes;
+    public boolean isEarlyStop() {
+        return earlyStop;
+    }
+
+    /**
+     * enables early termination of path matching: scoring stops as soon as the remaining ngrams can't change the best
+     * language (even if each of them had max counts of the model for other languages). The best language is the same
+     * as without early termination, but the scores are computed for the visited part of the path only.
+     * @param earlyStop flag
+     */
+    public LIGA setEarlyStop(boolean earlyStop) {
+        this.earlyStop = earlyStop;
+        return this;
+    }
+
+    public double getEarlyStopRate() {
+        return earlyStopRate;
     }
 
-    public TreeMap<String, TreeMap<String, TreeMap<String, Integer>>> getEdges() {
-        return edges;
+    /**
+     * part of the max counts of the model, which early termination assumes for each remaining ngram. 1.0 (default) -
+     * the best language is guaranteed to be the same as without early termination. Max counts are much higher than
+     * the typical ones (5-10 times for model_n3), so lower values stop earlier (e.g. 0.05 - after about a half of a
+     * long path), but the best language can differ (for texts without a clear best language).
+     * @param earlyStopRate rate (0.0 - 1.0]
+     */
+    public LIGA setEarlyStopRate(double earlyStopRate) {
+        this.earlyStopRate = earlyStopRate;
+        return this;
     }
 
-    public TreeMap<String, MutablePair<Integer, Integer>> getCounter() {
-        return counter;
+    /**
+     * LIGA with the same settings and the same model (shared, it should not be trained while the copy is used),
+     * which stops path matching early with the given rate (see setEarlyStopRate). Max counts of the model are
+     * computed once and shared too.
+     * @param earlyStopRate rate (0.0 - 1.0]
+     */
+    public LIGA withEarlyStop(double earlyStopRate) {
+        LIGA liga = new LIGA();
+        liga.debug = debug;
+        liga.n = n;
+        liga.threshold = threshold;
+        liga.maxSearchDepth = maxSearchDepth;
+        liga.logLIGA = logLIGA;
+        liga.model = model;
+        liga.countBounds = getCountBounds();
+        return liga.setEarlyStop(true).setEarlyStopRate(earlyStopRate);
+    }
+
+    public ReadOnlyLIGAModel getModel() {
+        return model;
     }
 
     /**
@@ -88,180 +148,222 @@ public class LIGA {
      * @param language    language
      */
     public void addDocument(String doc, String language) {
+        addDocument(trainableModel(), doc, language);
+    }
+
+    /**
+     * Adds documents to the model on several threads. Each thread builds a partial graph of its part of documents,
+     * partial graphs are merged pairwise and then merged to the model. The result is the same as if documents were
+     * added one by one. Large corpora can be added in batches (e.g. read from DB one after another).
+     *
+     * @param docs        documents
+     * @param languages   languages of documents
+     * @param parallelism number of threads
+     */
+    public void addDocuments(List<String> docs, List<String> languages, int parallelism) {
+        if (docs.size() != languages.size())
+            throw new IllegalArgumentException("number of documents and languages differs");
+        LIGAModel model = trainableModel();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            int partSize = Math.max(1, (docs.size() + parallelism - 1) / Math.max(1, parallelism));
+            LIGAModel partial = pool.invoke(new PartialTraining(docs, languages, 0, docs.size(), partSize, n));
+            if (model.isEmpty()) {
+                this.model = partial;
+            } else {
+                model.merge(partial);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * merges the model from the file (JSON or snapshot with the same n) to the current model, e.g. to add a model
+     * of newly labelled documents without retraining
+     *
+     * @param path path to the model
+     */
+    public LIGA mergeModel(String path) {
+        LIGA other = new LIGA().setN(n).loadModel(path);
+        try {
+            trainableModel().merge(other.getModel());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unable to merge model");
+            e.printStackTrace();
+        }
+        return this;
+    }
+
+    /**
+     * Adds a document to the given model
+     *
+     * @param model    model
+     * @param doc      document
+     * @param language language
+     */
+    private static void addDocument(LIGAModel model, String doc, String language) {
+        int n = model.getN();
+
         // Minor pre-processing
-        doc = Tokenizer.preprocess(doc);
+        doc = pad(Tokenizer.preprocess(doc), n);
 
-        // get ngrams
-        List<String> ngrams = getNgrams(doc);
+        // number of ngrams
+        int num = doc.length() - (n - 1);
 
         // adds dock if only ngrams exist
-        if (!ngrams.isEmpty()) {
+        if (num > 0) {
 
             // Initialize counter for language
-            if (!counter.containsKey(language))
-                counter.put(language, new MutablePair<Integer, Integer>(0, 0));
+            int lang = model.addLanguage(language);
 
-            String previousNgram = null;
-            for (String ngram : ngrams) {
+            int previousNode = -1;
+            for (int i = 0; i < num; i++) {
                 // Add node
-                addNode(ngram, language);
+                int node = addNode(model, doc, i, lang);
 
                 // See if we have to add an edge
-                if (previousNgram != null) {
+                if (previousNode >= 0) {
                     // Add edge
-                    addEdge(previousNgram, ngram, language);
+                    addEdge(model, previousNode, node, lang);
                 }
 
-                previousNgram = ngram;
+                previousNode = node;
             }
         }
     }
 
     /**
-     * gets ngrams of the string
+     * model which can be trained, memory-mapped snapshot is copied to memory first (it can't be changed)
+     */
+    private LIGAModel trainableModel() {
+        countBounds = null;
+        if (!(model instanceof LIGAModel)) {
+            LIGAModel copy = new LIGAModel(model.getN());
+            copy.merge(model);
+            model = copy;
+        }
+        return (LIGAModel) model;
+    }
+
+    /**
+     * pads non-empty document, which is shorter than ngram, with spaces (such a document has one ngram)
      *
      * @param doc original doc
+     * @param n   n of ngram
      */
-    private List<String> getNgrams(String doc) {
-        List<String> out = new LinkedList<>();
-        // number of ngrams
-        int num = doc.length() - (n - 1);
-        // if ngrams available
-        if (num > 0) {
-            for (int i = 0; i < num; i++)
-                out.add(doc.substring(i, i + n));
-            // if ngrams anavailable, but document is not empty
-        } else if (doc.length() > 0) {
-            StringBuilder ngram = new StringBuilder(doc);
-            while (ngram.length() < n)
-                ngram.append(" ");
-            out.add(ngram.toString());
-        }
-        return out;
+    private static String pad(String doc, int n) {
+        if (doc.length() >= n || doc.isEmpty()) return doc;
+        StringBuilder ngram = new StringBuilder(doc);
+        while (ngram.length() < n)
+            ngram.append(" ");
+        return ngram.toString();
     }
 
     /**
      * Adds a node (N-gram) to the model
      *
-     * @param node     ngram label
-     * @param language language
+     * @param model model
+     * @param doc  document
+     * @param from start of the ngram in the document
+     * @param lang language id
      */
-    private void addNode(String node, String language) {
-        // Check if this node exists
-        if (!nodes.containsKey(node)) {
-            // Add the node as it doesn't exist yet
-            nodes.put(node, new TreeMap<String, Integer>());
-            edges.put(node, new TreeMap<String, TreeMap<String, Integer>>());
-        }
-        // Initialize the count for this node for this language
-        if (!nodes.get(node).containsKey(language))
-            nodes.get(node).put(language, 0);
+    private static int addNode(LIGAModel model, String doc, int from, int lang) {
+        // Add the node if it doesn't exist yet (the ngram string is created only for new nodes)
+        int node = model.getNodeId(doc, from);
+        if (node < 0)
+            node = model.addNode(doc.substring(from, from + model.getN()));
         // Increase the counter for this language
-        nodes.get(node).put(language, nodes.get(node).get(language) + 1);
-
+        model.addNodeCount(node, lang, 1);
         // Update the total counter
-        if (!counter.containsKey(language))
-            counter.put(language, new MutablePair<Integer, Integer>(0, 0));
-        counter.get(language).setLeft(counter.get(language).getLeft() + 1);
+        model.addNodesTotal(lang, 1);
+        return node;
     }
 
     /**
      * Adds an edge between two existing nodes
      *
-     * @param source   node from
-     * @param target   node to
-     * @param language language
+     * @param model  model
+     * @param source source node id
+     * @param target target node id
+     * @param lang   language id
      */
-    private void addEdge(String source, String target, String language) {
-        // Check if there is already an edge
-        if (!edges.get(source).containsKey(target))
-            edges.get(source).put(target, new TreeMap<String, Integer>());
-
-        // Check if there is an edge for this language
-        if (!edges.get(source).get(target).containsKey(language))
-            edges.get(source).get(target).put(language, 0);
-
+    private static void addEdge(LIGAModel model, int source, int target, int lang) {
+        // Add the edge if it doesn't exist yet
+        int edge = model.addEdge(source, target);
         // Increase the count
-        edges.get(source).get(target).put(language, edges.get(source).get(target).get(language) + 1);
-
+        model.addEdgeCount(edge, lang, 1);
         // Update the total counter, source node and target node should exist for this language
-        counter.get(language).setRight(counter.get(language).getRight() + 1);
+        model.addEdgesTotal(lang, 1);
     }
 
     /**
-     * Recursive path matching function
+     * Path matching: slides over the ngrams of the document and sums up the counts of the languages for the nodes
+     * of the path and the edges between consecutive nodes. Not more than maxSearchDepth + 1 ngrams are visited.
      *
-     * @param path     path of ngrams
-     * @param counts   map with current scores
-     * @param depth    current depth of recursion
-     * @param maxDepth max allowed depth of recursion
-     */
-    private Map<String, MutablePair<Integer, Integer>> recPathMatching(List<String> path,
-                                                                       HashMap<String, MutablePair<Integer, Integer>> counts,
-                                                                       Integer depth, Integer maxDepth) {
-        if (depth > maxDepth || path.size() == 0)
-            return counts; // Done traversing, return accumulator
-        else if (path.size() == 1) {
-            String ngram = path.get(0);
-            // There is just one node left, just count node and disregard edges
-            if (nodes.containsKey(ngram))
-                countNodes(ngram, counts);
-            return counts;
-        } else {
-            // Get source and target
-            String source = path.get(0);
-            String target = path.get(1);
-
-            // First we update scores for the source node
-            if (nodes.containsKey(source)) {
-                countNodes(source, counts);
-                countEdges(source, target, counts);
+     * @param doc        document (padded)
+     * @param nodeCounts node scores of languages
+     * @param edgeCounts edge scores of languages
+     * @param bounds     max counts for early termination (null - no early termination)
+     */
+    private void pathMatching(String doc, int[] nodeCounts, int[] edgeCounts, CountBounds bounds) {
+        // number of ngrams
+        int num = doc.length() - (n - 1);
+        int limit = (maxSearchDepth < num) ? maxSearchDepth + 1 : num;
+        if (limit <= 0) return;
+
+        int source = model.getNodeId(doc, 0);
+        for (int i = 0; i < limit; i++) {
+            if (i == num - 1) {
+                // There is just one node left, just count node and disregard edges
+                if (source >= 0)
+                    model.addNodeCounts(source, nodeCounts);
+                return;
             }
-
-            // Recurse with the trailing path
-            path.remove(0);
-            return recPathMatching(path, counts, ++depth, maxDepth);
-        }
-    }
-
-    /**
-     * Counts nodes
-     *
-     * @param ngram  node
-     * @param counts map for counts
-     */
-    private void countNodes(String ngram, HashMap<String, MutablePair<Integer, Integer>> counts) {
-        for (Entry<String, Integer> langCounts : nodes.get(ngram).entrySet()) {
-            String language = langCounts.getKey();
-            Integer cnt = langCounts.getValue();
-            // Update score
-            if (!counts.containsKey(language))
-                counts.put(language, new MutablePair<Integer, Integer>(0, 0));
-            counts.put(language, MutablePair.of(counts.get(language).getLeft() + cnt, counts.get(language).getRight()));
+            int target = model.getNodeId(doc, i + 1);
+            // Update scores for the source node and the edge to the target
+            if (source >= 0) {
+                model.addNodeCounts(source, nodeCounts);
+                int edge = model.getEdgeId(source, target);
+                if (edge >= 0)
+                    model.addEdgeCounts(edge, edgeCounts);
+            }
+            source = target;
+            // each visited ngram adds not more than one node and one edge
+            if ((bounds != null) && ((i + 1) % EARLY_STOP_INTERVAL == 0)
+                    && isDecided(nodeCounts, edgeCounts, limit - i - 1, bounds))
+                return;
         }
     }
 
     /**
-     * Counts edges
+     * checks if the best language can't change anymore: its score is over the threshold and scores of other
+     * languages stay lower even if each of the remaining ngrams adds max counts of the model (scores don't decrease),
+     * max counts are multiplied by earlyStopRate
      *
-     * @param source source ngram
-     * @param target target ngram
-     * @param counts map for counts
-     */
-    private void countEdges(String source, String target, HashMap<String, MutablePair<Integer, Integer>> counts) {
-        if (edges.containsKey(source)) {
-            if (edges.get(source).containsKey(target)) {
-                // Add up scores
-                for (Entry<String, Integer> langCounts : edges.get(source).get(target).entrySet()) {
-                    String language = langCounts.getKey();
-                    Integer cnt = langCounts.getValue();
-                    // Update score
-                    if (!counts.containsKey(language))
-                        counts.put(language, new MutablePair<Integer, Integer>(0, 0));
-                    counts.put(language, MutablePair.of(counts.get(language).getLeft(), counts.get(language).getRight() + cnt));
-                }
+     * @param nodeCounts node counts of languages
+     * @param edgeCounts edge counts of languages
+     * @param remaining  number of remaining ngrams
+     * @param bounds     max counts of nodes and edges of languages
+     */
+    private boolean isDecided(int[] nodeCounts, int[] edgeCounts, int remaining, CountBounds bounds) {
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int lang = 0; lang < nodeCounts.length; lang++) {
+            double score = score(lang, nodeCounts[lang], edgeCounts[lang]);
+            if (score > bestScore) {
+                bestScore = score;
+                best = lang;
             }
         }
+        if ((best < 0) || !(bestScore >= threshold)) return false;
+        for (int lang = 0; lang < nodeCounts.length; lang++) {
+            if (lang == best) continue;
+            double maxScore = score(lang, nodeCounts[lang] + remaining * earlyStopRate * bounds.maxNode[lang],
+                    edgeCounts[lang] + remaining * earlyStopRate * bounds.maxEdge[lang]);
+            if (!(maxScore < bestScore)) return false;
+        }
+        return true;
     }
 
     /**
@@ -273,30 +375,55 @@ public class LIGA {
 
         if (debug) System.out.println(doc);
 
-        if (modelIsNotEmpty()) {
-            // Get all N-grams into a list
-            List<String> ngrams = getNgrams(doc);
-
+        if (!model.isEmpty()) {
             // Get counts
-            Map<String, MutablePair<Integer, Integer>> counts = recPathMatching(ngrams, new HashMap<>(), 0, maxSearchDepth);
+            int[] nodeCounts = new int[model.getNumLanguages()];
+            int[] edgeCounts = new int[model.getNumLanguages()];
+            CountBounds bounds = earlyStop ? getCountBounds() : null;
+            pathMatching(pad(doc, n), nodeCounts, edgeCounts, ((bounds != null) && bounds.usable) ? bounds : null);
 
-            return calcScores(counts);
+            return calcScores(nodeCounts, edgeCounts);
 
         } else {
             return new HashMap<>();
         }
     }
 
+    /**
+     * Classifies messages on several threads (the model is shared) and returns languages with probabilities in the
+     * order of messages
+     *
+     * @param docs original documents
+     */
+    public List<Map<String, Double>> classifyAll(List<String> docs) {
+        return docs.parallelStream().map(this::classify).collect(Collectors.toList());
+    }
+
+    /**
+     * max counts of the current model, computed on the first call
+     */
+    private CountBounds getCountBounds() {
+        CountBounds bounds = countBounds;
+        if ((bounds == null) || (bounds.model != model)) {
+            bounds = new CountBounds(model);
+            countBounds = bounds;
+        }
+        return bounds;
+    }
+
     /**
      * Calculates scores for LIGA or logLIGA
      *
-     * @param counts counts
+     * @param nodeCounts node counts of languages
+     * @param edgeCounts edge counts of languages
      */
-    private Map<String, Double> calcScores(Map<String, MutablePair<Integer, Integer>> counts) {
+    private Map<String, Double> calcScores(int[] nodeCounts, int[] edgeCounts) {
         Map<String, Double> scores = new HashMap<>();
-        for (Entry<String, MutablePair<Integer, Integer>> count : counts.entrySet()){
-            Double score = calcScore(count);
-            if (score >= threshold) scores.put(count.getKey(), score);
+        for (int lang = 0; lang < nodeCounts.length; lang++) {
+            // language wasn't met on the path
+            if (nodeCounts[lang] == 0 && edgeCounts[lang] == 0) continue;
+            double score = calcScore(lang, nodeCounts[lang], edgeCounts[lang]);
+            if (score >= threshold) scores.put(model.getLanguage(lang), score);
         }
         return scores;
     }
@@ -304,38 +431,53 @@ public class LIGA {
     /**
      * calculates score for LIGA or logLIGA
      *
-     * @param count count entry
-     */
-    private double calcScore(Entry<String, MutablePair<Integer, Integer>> count) {
-        double score;
-        String lang = count.getKey(); // language
-        Integer nodes = count.getValue().getLeft(); // nodes count for language
-        Integer edges = count.getValue().getRight(); // edges count for language
-        Integer nodesTotal = counter.get(lang).getLeft(); // total number of nodes for language
-        Integer edgesTotal = counter.get(lang).getRight(); // total number of edges for language
-        if (logLIGA) {
-            score = (Math.log(nodes) / Math.log(nodesTotal)) + (Math.log(edges) / Math.log(edgesTotal));
-        } else {
-            score = ((double) nodes / nodesTotal) + ((double) edges / edgesTotal);
-        }
+     * @param lang  language id
+     * @param nodes nodes count for language
+     * @param edges edges count for language
+     */
+    private double calcScore(int lang, int nodes, int edges) {
+        double score = score(lang, nodes, edges);
 
         if (debug) {
+            int nodesTotal = model.getNodesTotal(lang);
+            int edgesTotal = model.getEdgesTotal(lang);
             double score1 = (Math.log(nodes) / Math.log(nodesTotal)) + (Math.log(edges) / Math.log(edgesTotal));
             double score2 = ((double) nodes / nodesTotal) + ((double) edges / edgesTotal);
-            System.out.println(lang + "\t" + String.format("%.4f", score1) + "\t" + String.format("%.4f", score2));
+            System.out.println(model.getLanguage(lang) + "\t" + String.format("%.4f", score1) + "\t" + String.format("%.4f", score2));
         }
 
         return score;
     }
 
     /**
-     * loads model from the file (drops old graph and counter)
+     * score for LIGA or logLIGA
+     *
+     * @param lang  language id
+     * @param nodes nodes count for language
+     * @param edges edges count for language
+     */
+    private double score(int lang, double nodes, double edges) {
+        int nodesTotal = model.getNodesTotal(lang); // total number of nodes for language
+        int edgesTotal = model.getEdgesTotal(lang); // total number of edges for language
+        if (logLIGA) {
+            return (Math.log(nodes) / Math.log(nodesTotal)) + (Math.log(edges) / Math.log(edgesTotal));
+        } else {
+            return (nodes / nodesTotal) + (edges / edgesTotal);
+        }
+    }
+
+    /**
+     * loads model from the file (drops old graph and counter). JSON model is read to memory, binary snapshot (see
+     * saveSnapshot) is memory-mapped, n of ngram is then taken from the snapshot.
      *
      * @param path path to the model
      */
     public LIGA loadModel(String path) {
+        if (MappedLIGAModel.isSnapshot(path))
+            return loadSnapshot(path);
         try {
-            dropModel();
+            LIGAModel model = new LIGAModel(n);
+            this.model = model;
             JsonFactory jFactory = new JsonFactory();
             JsonParser jParser = jFactory.createParser(new File(path));
             // Continue until we find the end object
@@ -346,10 +488,10 @@ public class LIGA {
                     // We look for graph and counter field names
                     if (fieldname.equals("graph")) {
                         jParser.nextToken();
-                        readGraph(jParser);
+                        readGraph(jParser, model);
                     } else if (fieldname.equals("counter")) {
                         jParser.nextToken();
-                        readCounter(jParser);
+                        readCounter(jParser, model);
                     }
                 }
             }
@@ -361,14 +503,35 @@ public class LIGA {
         return this;
     }
 
+    /**
+     * maps binary snapshot of the model to memory (drops old graph and counter, keeps them if the snapshot can't
+     * be loaded)
+     *
+     * @param path path to the snapshot
+     */
+    private LIGA loadSnapshot(String path) {
+        try {
+            // the old model is kept if the snapshot can't be loaded
+            ReadOnlyLIGAModel snapshot = MappedLIGAModel.load(path);
+            model = snapshot;
+            n = snapshot.getN();
+        } catch (IOException e) {
+            System.out.println("Unable to load model");
+            e.printStackTrace();
+        }
+        return this;
+    }
+
     /**
      * reads model graph
      *
      * @param jParser parser instance
+     * @param model   model
      */
-    private void readGraph(JsonParser jParser) throws IOException {
+    private void readGraph(JsonParser jParser, LIGAModel model) throws IOException {
         while (!jParser.nextToken().equals(JsonToken.END_OBJECT)) {
             String ngram = jParser.getCurrentName();
+            int node = model.addNode(ngram);
             // Next we again have a JSON object
             while (!jParser.nextToken().equals(JsonToken.END_OBJECT)) {
                 // We can have 2 fields: nodes and edges
@@ -379,23 +542,24 @@ public class LIGA {
                     while (!jParser.nextToken().equals(JsonToken.END_OBJECT)) {
                         String language = jParser.getCurrentName();
                         jParser.nextToken();
-                        Integer count = jParser.getIntValue();
+                        int count = jParser.getIntValue();
                         // read node
-                        readGraphNode(ngram, language, count);
+                        model.addNodeCount(node, model.addLanguage(language), count);
                     }
                 } else if (nodeOrEdge.equals("edges")) {
                     jParser.nextToken();
                     // Edges contain more trigrams
                     while (!jParser.nextToken().equals(JsonToken.END_OBJECT)) {
                         String target = jParser.getCurrentName();
+                        int edge = model.addEdge(node, model.addNode(target));
                         jParser.nextToken();
                         // More JSON Objects, containing languages and counts
                         while (!jParser.nextToken().equals(JsonToken.END_OBJECT)) {
                             String language = jParser.getCurrentName();
                             jParser.nextToken();
-                            Integer count = jParser.getIntValue();
+                            int count = jParser.getIntValue();
                             // reads edge
-                            readGraphEdge(ngram, target, language, count);
+                            model.addEdgeCount(edge, model.addLanguage(language), count);
                         }
                     }
                 }
@@ -403,70 +567,16 @@ public class LIGA {
         }
     }
 
-    /**
-     * reads graph node from model
-     *
-     * @param ngram    node name
-     * @param language language
-     * @param count    count (weight)
-     */
-    private void readGraphNode(String ngram, String language, Integer count) {
-        // Add the ngram if required
-        if (!nodes.containsKey(ngram)) {
-            nodes.put(ngram, new TreeMap<String, Integer>());
-            edges.put(ngram, new TreeMap<String, TreeMap<String, Integer>>());
-        }
-        if (!nodes.get(ngram).containsKey(language))
-            nodes.get(ngram).put(language, 0);
-        // Add the counts
-        nodes.get(ngram).put(language, count);
-    }
-
-    /**
-     * reads graph edge from model
-     *
-     * @param ngram    from node
-     * @param target   to node
-     * @param language language
-     * @param count    count (weight)
-     */
-    private void readGraphEdge(String ngram, String target, String language, Integer count) {
-        // Add the ngram if required
-        if (!nodes.containsKey(ngram)) {
-            nodes.put(ngram, new TreeMap<String, Integer>());
-            edges.put(ngram, new TreeMap<String, TreeMap<String, Integer>>());
-        }
-
-        if (!nodes.get(ngram).containsKey(language))
-            nodes.get(ngram).put(language, 0);
-
-        // Add the target if required
-        if (!nodes.containsKey(target)) {
-            nodes.put(target, new TreeMap<String, Integer>());
-            edges.put(target, new TreeMap<String, TreeMap<String, Integer>>());
-        }
-        if (!nodes.get(target).containsKey(language))
-            nodes.get(target).put(language, 0);
-
-        // Add the edge
-        if (!edges.containsKey(ngram))
-            edges.put(ngram, new TreeMap<String, TreeMap<String, Integer>>());
-        if (!edges.get(ngram).containsKey(target))
-            edges.get(ngram).put(target, new TreeMap<String, Integer>());
-        if (!edges.get(ngram).get(target).containsKey(language))
-            edges.get(ngram).get(target).put(language, 0);
-        edges.get(ngram).get(target).put(language, count);
-    }
-
     /**
      * reads model counter
      *
      * @param jParser parser instance
+     * @param model   model
      */
-    private void readCounter(JsonParser jParser) throws IOException {
+    private void readCounter(JsonParser jParser, LIGAModel model) throws IOException {
         // We have language that contain objects which are counters for nodes and edges
         while (!jParser.nextToken().equals(JsonToken.END_OBJECT)) {
-            String language = jParser.getCurrentName();
+            int lang = model.addLanguage(jParser.getCurrentName());
             jParser.nextToken();
 
             // Get the nodes/edges object
@@ -476,62 +586,46 @@ public class LIGA {
                 // Check if its nodes or edges
                 if (nodeEdge.equals("nodes")) {
                     jParser.nextToken();
-                    Integer count = jParser.getIntValue();
-                    // read node
-                    readCounterNode(language, count);
-
+                    model.addNodesTotal(lang, jParser.getIntValue());
                 } else if (nodeEdge.equals("edges")) {
                     jParser.nextToken();
-                    Integer count = jParser.getIntValue();
-                    // read edge
-                    readCounterEdge(language, count);
+                    model.addEdgesTotal(lang, jParser.getIntValue());
                 }
             }
         }
     }
 
     /**
-     * reads counter node from model
-     *
-     * @param language language
-     * @param count    total count
+     * cleans the model
      */
-    private void readCounterNode(String language, Integer count) {
-        // Add the language if it didn't exist yet
-        if (!counter.containsKey(language))
-            counter.put(language, new MutablePair<Integer, Integer>(0, 0));
-
-        // Add to the mapping
-        counter.get(language).setLeft(count);
+    public void dropModel() {
+        model = new LIGAModel(n);
     }
 
     /**
-     * reads counter edge from model
+     * saves binary snapshot of the model, which can be memory-mapped by loadModel (only for n not more than 4)
      *
-     * @param language language
-     * @param count    total count
+     * @param path filepath
      */
-    private void readCounterEdge(String language, Integer count) {
-        // Add the language if it didn't exist yet
-        if (!counter.containsKey(language))
-            counter.put(language, new MutablePair<Integer, Integer>(0, 0));
-
-        // Add it
-        counter.get(language).setRight(count);
+    public void saveSnapshot(String path) {
+        if (!model.isEmpty())
+            try {
+                MappedLIGAModel.write(model, path);
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Unable to save model");
+                e.printStackTrace();
+            }
     }
 
     /**
-     * cleans hash maps and sets all the values default
+     * converts JSON model to binary snapshot
+     *
+     * @param jsonPath     path to JSON model
+     * @param snapshotPath path to snapshot
+     * @param n            n of ngram of the model
      */
-    public void dropModel() {
-        nodes.clear();
-        edges.clear();
-        counter.clear();
-    }
-
-
-    private boolean modelIsNotEmpty() {
-        return !nodes.isEmpty() && !edges.isEmpty() && !counter.isEmpty();
+    public static void convertModel(String jsonPath, String snapshotPath, int n) {
+        new LIGA().setN(n).loadModel(jsonPath).saveSnapshot(snapshotPath);
     }
 
     /**
@@ -540,14 +634,15 @@ public class LIGA {
      * @param path filepath
      */
     public void saveModel(String path) {
-        if (modelIsNotEmpty())
+        if (!model.isEmpty())
             try {
                 JsonFactory jFactory = new JsonFactory();
                 JsonGenerator jGenerator = jFactory.createGenerator(new File(path), JsonEncoding.UTF8);
                 jGenerator.writeStartObject();
 
-                writeGraph(jGenerator);
-                writeCounter(jGenerator);
+                Integer[] langs = sortedLanguages();
+                writeGraph(jGenerator, langs);
+                writeCounter(jGenerator, langs);
 
                 jGenerator.writeEndObject();
                 jGenerator.close();
@@ -558,15 +653,38 @@ public class LIGA {
     }
 
     /**
-     * writes graph structure to model
+     * language ids in natural order of the names
+     */
+    private Integer[] sortedLanguages() {
+        Integer[] langs = new Integer[model.getNumLanguages()];
+        for (int i = 0; i < langs.length; i++) langs[i] = i;
+        Arrays.sort(langs, Comparator.comparing(model::getLanguage));
+        return langs;
+    }
+
+    /**
+     * writes graph structure to model (ngrams and their edges in natural order)
      *
      * @param jGenerator generator instance
+     * @param langs      language ids in natural order of the names
      */
-    private void writeGraph(JsonGenerator jGenerator) throws IOException {
+    private void writeGraph(JsonGenerator jGenerator, Integer[] langs) throws IOException {
+        // outgoing edges of the nodes
+        List<List<Integer>> adjacency = new ArrayList<>(model.getNumNodes());
+        for (int node = 0; node < model.getNumNodes(); node++) adjacency.add(new ArrayList<>());
+        for (int edge = 0; edge < model.getNumEdges(); edge++) adjacency.get(model.getEdgeSource(edge)).add(edge);
+
+        Integer[] nodes = new Integer[model.getNumNodes()];
+        for (int node = 0; node < nodes.length; node++) nodes[node] = node;
+        Arrays.sort(nodes, Comparator.comparing(model::getNgram));
+
         jGenerator.writeFieldName("graph");
         jGenerator.writeStartObject();
-        for (Entry<String, TreeMap<String, Integer>> node : nodes.entrySet())
-            writeNgram(jGenerator, node);
+        for (Integer node : nodes) {
+            List<Integer> edges = adjacency.get(node);
+            edges.sort(Comparator.comparing(edge -> model.getNgram(model.getEdgeTarget(edge))));
+            writeNgram(jGenerator, node, edges, langs);
+        }
         jGenerator.writeEndObject();
     }
 
@@ -574,30 +692,30 @@ public class LIGA {
      * writes ngram info (node and adjacent edges)
      *
      * @param jGenerator generator instance
-     * @param node       ngram
+     * @param node       node id
+     * @param edges      outgoing edges of the node
+     * @param langs      language ids in natural order of the names
      */
-    private void writeNgram(JsonGenerator jGenerator, Entry<String, TreeMap<String, Integer>> node) throws IOException {
-        jGenerator.writeFieldName(node.getKey());
+    private void writeNgram(JsonGenerator jGenerator, int node, List<Integer> edges, Integer[] langs) throws IOException {
+        jGenerator.writeFieldName(model.getNgram(node));
         jGenerator.writeStartObject();
         // nodes
         jGenerator.writeFieldName("nodes");
         jGenerator.writeStartObject();
-        for (Entry<String, Integer> entry : node.getValue().entrySet())
-            jGenerator.writeNumberField(entry.getKey(), entry.getValue());
+        for (int lang : langs)
+            if (model.getNodeCount(node, lang) != 0)
+                jGenerator.writeNumberField(model.getLanguage(lang), model.getNodeCount(node, lang));
         jGenerator.writeEndObject();
         // edges
         jGenerator.writeFieldName("edges");
         jGenerator.writeStartObject();
-        if (edges.containsKey(node.getKey())) {
-            TreeMap<String, TreeMap<String, Integer>> edgesTree = edges.get(node.getKey());
-            for (Entry<String, TreeMap<String, Integer>> edge : edgesTree.entrySet()) {
-                jGenerator.writeFieldName(edge.getKey());
-                jGenerator.writeStartObject();
-                for (Entry<String, Integer> entry : edge.getValue().entrySet()) {
-                    jGenerator.writeNumberField(entry.getKey(), entry.getValue());
-                }
-                jGenerator.writeEndObject();
-            }
+        for (int edge : edges) {
+            jGenerator.writeFieldName(model.getNgram(model.getEdgeTarget(edge)));
+            jGenerator.writeStartObject();
+            for (int lang : langs)
+                if (model.getEdgeCount(edge, lang) != 0)
+                    jGenerator.writeNumberField(model.getLanguage(lang), model.getEdgeCount(edge, lang));
+            jGenerator.writeEndObject();
         }
         jGenerator.writeEndObject();
         jGenerator.writeEndObject();
@@ -607,19 +725,90 @@ public class LIGA {
      * writes counter to model
      *
      * @param jGenerator generator instance
+     * @param langs      language ids in natural order of the names
      */
-    private void writeCounter(JsonGenerator jGenerator) throws IOException {
+    private void writeCounter(JsonGenerator jGenerator, Integer[] langs) throws IOException {
         jGenerator.writeFieldName("counter");
         jGenerator.writeStartObject();
-        for (Entry<String, MutablePair<Integer, Integer>> entry : counter.entrySet()) {
-            jGenerator.writeFieldName(entry.getKey());
+        for (int lang : langs) {
+            jGenerator.writeFieldName(model.getLanguage(lang));
             jGenerator.writeStartObject();
-            jGenerator.writeNumberField("nodes", entry.getValue().getLeft());
-            jGenerator.writeNumberField("edges", entry.getValue().getRight());
+            jGenerator.writeNumberField("nodes", model.getNodesTotal(lang));
+            jGenerator.writeNumberField("edges", model.getEdgesTotal(lang));
             jGenerator.writeEndObject();
         }
         jGenerator.writeEndObject();
     }
 
+    /**
+     * Builds a partial graph of the documents [from, to): splits the range until parts are small enough, parts are
+     * trained in parallel and merged pairwise
+     */
+    private static class PartialTraining extends RecursiveTask<LIGAModel> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> docs;
+        private final List<String> languages;
+        private final int from;
+        private final int to;
+        private final int partSize;
+        private final int n;
+
+        private PartialTraining(List<String> docs, List<String> languages, int from, int to, int partSize, int n) {
+            this.docs = docs;
+            this.languages = languages;
+            this.from = from;
+            this.to = to;
+            this.partSize = partSize;
+            this.n = n;
+        }
+
+        @Override
+        protected LIGAModel compute() {
+            if (to - from <= partSize) {
+                LIGAModel model = new LIGAModel(n);
+                for (int i = from; i < to; i++)
+                    addDocument(model, docs.get(i), languages.get(i));
+                return model;
+            }
+            int middle = (from + to) >>> 1;
+            PartialTraining left = new PartialTraining(docs, languages, from, middle, partSize, n);
+            PartialTraining right = new PartialTraining(docs, languages, middle, to, partSize, n);
+            left.fork();
+            LIGAModel rightModel = right.compute();
+            LIGAModel leftModel = left.join();
+            leftModel.merge(rightModel);
+            return leftModel;
+        }
+
+    }
+
+    /**
+     * max counts of a node and of an edge for each language of the model
+     */
+    private static class CountBounds {
+
+        private final ReadOnlyLIGAModel model;
+        private final int[] maxNode;
+        private final int[] maxEdge;
+        // scores grow with counts only if all the totals are more than 1 (log of total is positive)
+        private boolean usable = true;
+
+        private CountBounds(ReadOnlyLIGAModel model) {
+            this.model = model;
+            maxNode = new int[model.getNumLanguages()];
+            maxEdge = new int[model.getNumLanguages()];
+            for (int node = 0; node < model.getNumNodes(); node++)
+                for (int lang = 0; lang < maxNode.length; lang++)
+                    maxNode[lang] = Math.max(maxNode[lang], model.getNodeCount(node, lang));
+            for (int edge = 0; edge < model.getNumEdges(); edge++)
+                for (int lang = 0; lang < maxEdge.length; lang++)
+                    maxEdge[lang] = Math.max(maxEdge[lang], model.getEdgeCount(edge, lang));
+            for (int lang = 0; lang < maxNode.length; lang++)
+                if ((model.getNodesTotal(lang) <= 1) || (model.getEdgesTotal(lang) <= 1)) usable = false;
+        }
+
+    }
 
 }
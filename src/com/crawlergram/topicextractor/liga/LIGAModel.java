@@ -0,0 +1,332 @@
+/*
+ * Title: LIGAModel.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.topicextractor.liga;
+
+import com.crawlergram.topicextractor.structures.LongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact LIGA graph. N-grams, languages and edges get dense int ids, counts are stored in flat int arrays with one
+ * row (one count per language) per node or edge. N-grams of up to 4 chars are packed into long keys (16 bits per char),
+ * edges are keyed by the pair of node ids, both are looked up in primitive hash maps, so no strings are created and
+ * nothing is boxed while classifying. Only the training methods (add*) change the model; the getters only read it,
+ * so a model can be shared between threads once it is filled. See MappedLIGAModel for the binary snapshot.
+ */
+
+public class LIGAModel implements ReadOnlyLIGAModel {
+
+    // max n for which ngram is packed to long
+    static final int MAX_PACKED_N = 4;
+
+    private final int n; // n of ngram
+    private final boolean packed; // ngrams are packed to long keys
+
+    // ngrams
+    private final LongIntHashMap packedIds = new LongIntHashMap(); // packed ngram -> node id
+    private final HashMap<String, Integer> stringIds = new HashMap<>(); // ngram -> node id (for n > MAX_PACKED_N)
+    private final List<String> ngrams = new ArrayList<>(); // node id -> ngram
+
+    // languages
+    private final HashMap<String, Integer> languageIds = new HashMap<>();
+    private final List<String> languages = new ArrayList<>();
+
+    // count rows, row length is the number of languages
+    private int[] nodeCounts = new int[0];
+    private int[] edgeCounts = new int[0];
+    private int numNodes = 0;
+
+    // edges
+    private final LongIntHashMap edgeIds = new LongIntHashMap(); // source and target ids -> edge id
+    private int[] edgeSources = new int[16];
+    private int[] edgeTargets = new int[16];
+    private int numEdges = 0;
+
+    // total counts of nodes and edges for each language
+    private int[] nodesTotal = new int[0];
+    private int[] edgesTotal = new int[0];
+
+    /**
+     * @param n n of ngram
+     */
+    public LIGAModel(int n) {
+        this.n = n;
+        this.packed = n <= MAX_PACKED_N;
+    }
+
+    @Override
+    public int getN() {
+        return n;
+    }
+
+    @Override
+    public int getNumLanguages() {
+        return languages.size();
+    }
+
+    @Override
+    public int getNumNodes() {
+        return numNodes;
+    }
+
+    @Override
+    public int getNumEdges() {
+        return numEdges;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return numNodes == 0 || languages.isEmpty();
+    }
+
+    @Override
+    public String getLanguage(int lang) {
+        return languages.get(lang);
+    }
+
+    @Override
+    public int getLanguageId(String language) {
+        Integer id = languageIds.get(language);
+        return (id == null) ? -1 : id;
+    }
+
+    @Override
+    public String getNgram(int node) {
+        return ngrams.get(node);
+    }
+
+    @Override
+    public int getNodeId(CharSequence text, int from) {
+        if (packed) {
+            return packedIds.get(pack(text, from, n), -1);
+        } else {
+            Integer id = stringIds.get(text.subSequence(from, from + n).toString());
+            return (id == null) ? -1 : id;
+        }
+    }
+
+    @Override
+    public int getEdgeId(int source, int target) {
+        if ((source < 0) || (target < 0)) return -1;
+        return edgeIds.get(edgeKey(source, target), -1);
+    }
+
+    @Override
+    public int getEdgeSource(int edge) {
+        return edgeSources[edge];
+    }
+
+    @Override
+    public int getEdgeTarget(int edge) {
+        return edgeTargets[edge];
+    }
+
+    @Override
+    public int getNodeCount(int node, int lang) {
+        return nodeCounts[node * languages.size() + lang];
+    }
+
+    @Override
+    public int getEdgeCount(int edge, int lang) {
+        return edgeCounts[edge * languages.size() + lang];
+    }
+
+    @Override
+    public int getNodesTotal(int lang) {
+        return nodesTotal[lang];
+    }
+
+    @Override
+    public int getEdgesTotal(int lang) {
+        return edgesTotal[lang];
+    }
+
+    @Override
+    public void addNodeCounts(int node, int[] acc) {
+        int stride = languages.size();
+        for (int i = 0, pos = node * stride; i < stride; i++, pos++) acc[i] += nodeCounts[pos];
+    }
+
+    @Override
+    public void addEdgeCounts(int edge, int[] acc) {
+        int stride = languages.size();
+        for (int i = 0, pos = edge * stride; i < stride; i++, pos++) acc[i] += edgeCounts[pos];
+    }
+
+    /**
+     * id of the language, adds the language if it doesn't exist
+     * @param language language name
+     */
+    public int addLanguage(String language) {
+        Integer id = languageIds.get(language);
+        if (id != null) return id;
+        int oldStride = languages.size();
+        id = oldStride;
+        languageIds.put(language, id);
+        languages.add(language);
+        // rows get one more column
+        nodeCounts = widenRows(nodeCounts, numNodes, oldStride);
+        edgeCounts = widenRows(edgeCounts, numEdges, oldStride);
+        nodesTotal = Arrays.copyOf(nodesTotal, oldStride + 1);
+        edgesTotal = Arrays.copyOf(edgesTotal, oldStride + 1);
+        return id;
+    }
+
+    /**
+     * id of the node, adds the node if it doesn't exist
+     * @param ngram ngram (length - n)
+     */
+    public int addNode(String ngram) {
+        if (ngram.length() != n)
+            throw new IllegalArgumentException("ngram '" + ngram + "' length is not " + n);
+        int id = getNodeId(ngram, 0);
+        if (id >= 0) return id;
+        id = numNodes++;
+        if (packed) {
+            packedIds.put(pack(ngram, 0, n), id);
+        } else {
+            stringIds.put(ngram, id);
+        }
+        ngrams.add(ngram);
+        nodeCounts = ensureRows(nodeCounts, numNodes);
+        return id;
+    }
+
+    /**
+     * id of the edge, adds the edge if it doesn't exist
+     * @param source source node id
+     * @param target target node id
+     */
+    public int addEdge(int source, int target) {
+        long key = edgeKey(source, target);
+        int id = edgeIds.get(key, -1);
+        if (id >= 0) return id;
+        id = numEdges++;
+        edgeIds.put(key, id);
+        if (numEdges > edgeSources.length) {
+            edgeSources = Arrays.copyOf(edgeSources, edgeSources.length * 2);
+            edgeTargets = Arrays.copyOf(edgeTargets, edgeTargets.length * 2);
+        }
+        edgeSources[id] = source;
+        edgeTargets[id] = target;
+        edgeCounts = ensureRows(edgeCounts, numEdges);
+        return id;
+    }
+
+    public void addNodeCount(int node, int lang, int count) {
+        nodeCounts[node * languages.size() + lang] += count;
+    }
+
+    public void addEdgeCount(int edge, int lang, int count) {
+        edgeCounts[edge * languages.size() + lang] += count;
+    }
+
+    public void addNodesTotal(int lang, int count) {
+        // totals of large corpora can reach the int range, fail instead of wrapping around
+        nodesTotal[lang] = Math.addExact(nodesTotal[lang], count);
+    }
+
+    public void addEdgesTotal(int lang, int count) {
+        edgesTotal[lang] = Math.addExact(edgesTotal[lang], count);
+    }
+
+    /**
+     * adds all the nodes, edges and counts of the other model to this one (ngrams and languages are matched by
+     * names), the result is the same as if the documents of both models were added to one model
+     * @param other model with the same n
+     */
+    public void merge(ReadOnlyLIGAModel other) {
+        if (other.getN() != n)
+            throw new IllegalArgumentException("can't merge model with n " + other.getN() + " to model with n " + n);
+        // languages of the other model -> languages of this model
+        int[] langs = new int[other.getNumLanguages()];
+        for (int lang = 0; lang < langs.length; lang++) {
+            langs[lang] = addLanguage(other.getLanguage(lang));
+            addNodesTotal(langs[lang], other.getNodesTotal(lang));
+            addEdgesTotal(langs[lang], other.getEdgesTotal(lang));
+        }
+        // nodes of the other model -> nodes of this model
+        int[] nodes = new int[other.getNumNodes()];
+        for (int node = 0; node < nodes.length; node++) {
+            nodes[node] = addNode(other.getNgram(node));
+            for (int lang = 0; lang < langs.length; lang++) {
+                int count = other.getNodeCount(node, lang);
+                if (count != 0) addNodeCount(nodes[node], langs[lang], count);
+            }
+        }
+        for (int edge = 0; edge < other.getNumEdges(); edge++) {
+            int id = addEdge(nodes[other.getEdgeSource(edge)], nodes[other.getEdgeTarget(edge)]);
+            for (int lang = 0; lang < langs.length; lang++) {
+                int count = other.getEdgeCount(edge, lang);
+                if (count != 0) addEdgeCount(id, langs[lang], count);
+            }
+        }
+    }
+
+    /**
+     * removes all the nodes, edges and languages
+     */
+    public void clear() {
+        packedIds.clear();
+        stringIds.clear();
+        ngrams.clear();
+        languageIds.clear();
+        languages.clear();
+        nodeCounts = new int[0];
+        edgeCounts = new int[0];
+        numNodes = 0;
+        edgeIds.clear();
+        numEdges = 0;
+        nodesTotal = new int[0];
+        edgesTotal = new int[0];
+    }
+
+    /**
+     * packs n chars of the text starting from "from" to long (16 bits per char)
+     * @param text text
+     * @param from start
+     * @param n number of chars (not more than MAX_PACKED_N)
+     */
+    static long pack(CharSequence text, int from, int n) {
+        long key = 0;
+        for (int i = from; i < from + n; i++) key = (key << 16) | text.charAt(i);
+        return key;
+    }
+
+    static long edgeKey(int source, int target) {
+        return ((long) source << 32) | (target & 0xFFFFFFFFL);
+    }
+
+    /**
+     * makes room for the rows (keeps the row length)
+     * @param counts count rows
+     * @param rows required number of rows
+     */
+    private int[] ensureRows(int[] counts, int rows) {
+        int stride = languages.size();
+        if (rows * stride <= counts.length) return counts;
+        return Arrays.copyOf(counts, Math.max(rows, 16) * stride * 2);
+    }
+
+    /**
+     * copies rows to the array with one more column
+     * @param counts count rows
+     * @param rows number of rows
+     * @param stride old row length
+     */
+    private static int[] widenRows(int[] counts, int rows, int stride) {
+        int[] out = new int[Math.max(rows, 16) * (stride + 1) * 2];
+        for (int r = 0; r < rows; r++)
+            System.arraycopy(counts, r * stride, out, r * (stride + 1), stride);
+        return out;
+    }
+
+}
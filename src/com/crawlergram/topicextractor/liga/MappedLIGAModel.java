@@ -0,0 +1,383 @@
+/*
+ * Title: MappedLIGAModel.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.topicextractor.liga;
+
+import com.crawlergram.topicextractor.structures.LongIntHashMap;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+/**
+ * Read-only LIGA model over a binary snapshot, which is mapped to memory (MappedByteBuffer). Nothing is parsed or
+ * copied on load, pages are read by OS on demand and are shared between all the processes which map the same file.
+ * Snapshot is written from any model with write() (only for n of ngram not more than 4 - packed ngrams).
+ * <p>
+ * Layout (big-endian): header of 10 ints (magic, version, n, languages L, nodes N, edges E, node table size,
+ * edge table size, node of zero key, edge of zero key), then node and edge hash tables (long keys, int values; open
+ * addressing with LongIntHashMap.slot, 0 - empty slot), totals of nodes and edges (int[L] each), count rows of nodes
+ * (int[N * L]) and edges (int[E * L]), sources and targets of edges (int[E] each), ngrams (char[N * n]),
+ * language names (length and UTF-8 bytes).
+ */
+
+public class MappedLIGAModel implements ReadOnlyLIGAModel {
+
+    private static final int MAGIC = 0x4C494742; // "LIGB"
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 10;
+
+    private final int n;
+    private final int numLanguages;
+    private final int numNodes;
+    private final int numEdges;
+    private final int nodeMask;
+    private final int edgeMask;
+    private final int zeroKeyNode; // node of the key 0 (-1 if there is no such node)
+    private final int zeroKeyEdge; // edge of the key 0 (-1 if there is no such edge)
+
+    private final String[] languages;
+    private final HashMap<String, Integer> languageIds = new HashMap<>();
+
+    // views of the mapped file, only absolute gets are used, so the views can be read by several threads at once
+    private final LongBuffer nodeKeys;
+    private final IntBuffer nodeValues;
+    private final LongBuffer edgeKeys;
+    private final IntBuffer edgeValues;
+    private final IntBuffer nodesTotal;
+    private final IntBuffer edgesTotal;
+    private final IntBuffer nodeCounts;
+    private final IntBuffer edgeCounts;
+    private final IntBuffer edgeSources;
+    private final IntBuffer edgeTargets;
+    private final CharBuffer ngrams;
+
+    /**
+     * @param buffer snapshot
+     */
+    private MappedLIGAModel(ByteBuffer buffer) throws IOException {
+        if ((buffer.capacity() < HEADER_INTS * 4) || (buffer.getInt(0) != MAGIC))
+            throw new IOException("not a LIGA snapshot");
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("unsupported LIGA snapshot version " + buffer.getInt(4));
+        n = buffer.getInt(8);
+        numLanguages = buffer.getInt(12);
+        numNodes = buffer.getInt(16);
+        numEdges = buffer.getInt(20);
+        int nodeTableSize = buffer.getInt(24);
+        int edgeTableSize = buffer.getInt(28);
+        zeroKeyNode = buffer.getInt(32);
+        zeroKeyEdge = buffer.getInt(36);
+        nodeMask = nodeTableSize - 1;
+        edgeMask = edgeTableSize - 1;
+        if ((n <= 0) || (numLanguages < 0) || (numNodes < 0) || (numEdges < 0)
+                || (nodeTableSize <= 0) || ((nodeTableSize & nodeMask) != 0)
+                || (edgeTableSize <= 0) || ((edgeTableSize & edgeMask) != 0))
+            throw new IOException("corrupted LIGA snapshot header");
+        // everything but the language names, which are checked while reading
+        long expected = HEADER_INTS * 4L + (nodeTableSize + edgeTableSize) * 12L + numLanguages * 8L
+                + ((long) numNodes + numEdges) * numLanguages * 4L + numEdges * 8L + (long) numNodes * n * 2;
+        if (buffer.capacity() < expected)
+            throw new IOException("truncated LIGA snapshot: " + buffer.capacity() + " bytes, expected at least " + expected);
+
+        int pos = HEADER_INTS * 4;
+        nodeKeys = slice(buffer, pos).asLongBuffer();
+        pos += nodeTableSize * 8;
+        edgeKeys = slice(buffer, pos).asLongBuffer();
+        pos += edgeTableSize * 8;
+        nodeValues = slice(buffer, pos).asIntBuffer();
+        pos += nodeTableSize * 4;
+        edgeValues = slice(buffer, pos).asIntBuffer();
+        pos += edgeTableSize * 4;
+        nodesTotal = slice(buffer, pos).asIntBuffer();
+        pos += numLanguages * 4;
+        edgesTotal = slice(buffer, pos).asIntBuffer();
+        pos += numLanguages * 4;
+        nodeCounts = slice(buffer, pos).asIntBuffer();
+        pos += numNodes * numLanguages * 4;
+        edgeCounts = slice(buffer, pos).asIntBuffer();
+        pos += numEdges * numLanguages * 4;
+        edgeSources = slice(buffer, pos).asIntBuffer();
+        pos += numEdges * 4;
+        edgeTargets = slice(buffer, pos).asIntBuffer();
+        pos += numEdges * 4;
+        ngrams = slice(buffer, pos).asCharBuffer();
+        pos += numNodes * n * 2;
+
+        languages = new String[numLanguages];
+        for (int lang = 0; lang < numLanguages; lang++) {
+            if (pos + 4 > buffer.capacity())
+                throw new IOException("truncated LIGA snapshot: no language names");
+            int length = buffer.getInt(pos);
+            if ((length < 0) || (pos + 4L + length > buffer.capacity()))
+                throw new IOException("truncated LIGA snapshot: no language names");
+            byte[] bytes = new byte[length];
+            ByteBuffer name = slice(buffer, pos + 4);
+            name.get(bytes);
+            languages[lang] = new String(bytes, StandardCharsets.UTF_8);
+            languageIds.put(languages[lang], lang);
+            pos += 4 + length;
+        }
+    }
+
+    /**
+     * maps the snapshot to memory
+     * @param path path to the snapshot
+     */
+    public static MappedLIGAModel load(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            // mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedLIGAModel(buffer);
+        }
+    }
+
+    /**
+     * checks if the file is a snapshot (starts with the snapshot magic number)
+     * @param path path to the file
+     */
+    public static boolean isSnapshot(String path) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(path))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * writes the snapshot of the model, the snapshot is written to a temporary file and moved to the path at once,
+     * so the path never contains a partially written snapshot
+     * @param model model
+     * @param path path to the snapshot
+     */
+    public static void write(ReadOnlyLIGAModel model, String path) throws IOException {
+        int n = model.getN();
+        if (n > LIGAModel.MAX_PACKED_N)
+            throw new IllegalArgumentException("snapshot supports ngrams of up to " + LIGAModel.MAX_PACKED_N + " chars");
+        int numNodes = model.getNumNodes();
+        int numEdges = model.getNumEdges();
+
+        // hash tables: node key - packed ngram, edge key - pair of node ids
+        long[] nodeKeys = new long[LongIntHashMap.capacityFor(numNodes)];
+        int[] nodeValues = new int[nodeKeys.length];
+        int zeroKeyNode = -1;
+        for (int node = 0; node < numNodes; node++) {
+            long key = LIGAModel.pack(model.getNgram(node), 0, n);
+            if (key == 0) zeroKeyNode = node;
+            else putKey(nodeKeys, nodeValues, key, node);
+        }
+        long[] edgeKeys = new long[LongIntHashMap.capacityFor(numEdges)];
+        int[] edgeValues = new int[edgeKeys.length];
+        int zeroKeyEdge = -1;
+        for (int edge = 0; edge < numEdges; edge++) {
+            long key = LIGAModel.edgeKey(model.getEdgeSource(edge), model.getEdgeTarget(edge));
+            if (key == 0) zeroKeyEdge = edge;
+            else putKey(edgeKeys, edgeValues, key, edge);
+        }
+
+        Path target = Paths.get(path).toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            writeSnapshot(model, temp, nodeKeys, nodeValues, zeroKeyNode, edgeKeys, edgeValues, zeroKeyEdge);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * writes the snapshot of the model to the file
+     * @param model model
+     * @param path path to the file
+     * @param nodeKeys node hash table keys
+     * @param nodeValues node hash table values
+     * @param zeroKeyNode node of the key 0
+     * @param edgeKeys edge hash table keys
+     * @param edgeValues edge hash table values
+     * @param zeroKeyEdge edge of the key 0
+     */
+    private static void writeSnapshot(ReadOnlyLIGAModel model, Path path, long[] nodeKeys, int[] nodeValues, int zeroKeyNode,
+                                      long[] edgeKeys, int[] edgeValues, int zeroKeyEdge) throws IOException {
+        int n = model.getN();
+        int numLanguages = model.getNumLanguages();
+        int numNodes = model.getNumNodes();
+        int numEdges = model.getNumEdges();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(numLanguages);
+            out.writeInt(numNodes);
+            out.writeInt(numEdges);
+            out.writeInt(nodeKeys.length);
+            out.writeInt(edgeKeys.length);
+            out.writeInt(zeroKeyNode);
+            out.writeInt(zeroKeyEdge);
+            for (long key : nodeKeys) out.writeLong(key);
+            for (long key : edgeKeys) out.writeLong(key);
+            for (int value : nodeValues) out.writeInt(value);
+            for (int value : edgeValues) out.writeInt(value);
+            for (int lang = 0; lang < numLanguages; lang++) out.writeInt(model.getNodesTotal(lang));
+            for (int lang = 0; lang < numLanguages; lang++) out.writeInt(model.getEdgesTotal(lang));
+            for (int node = 0; node < numNodes; node++)
+                for (int lang = 0; lang < numLanguages; lang++) out.writeInt(model.getNodeCount(node, lang));
+            for (int edge = 0; edge < numEdges; edge++)
+                for (int lang = 0; lang < numLanguages; lang++) out.writeInt(model.getEdgeCount(edge, lang));
+            for (int edge = 0; edge < numEdges; edge++) out.writeInt(model.getEdgeSource(edge));
+            for (int edge = 0; edge < numEdges; edge++) out.writeInt(model.getEdgeTarget(edge));
+            for (int node = 0; node < numNodes; node++) out.writeChars(model.getNgram(node));
+            for (int lang = 0; lang < numLanguages; lang++) {
+                byte[] name = model.getLanguage(lang).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+            }
+        }
+    }
+
+    @Override
+    public int getN() {
+        return n;
+    }
+
+    @Override
+    public int getNumLanguages() {
+        return numLanguages;
+    }
+
+    @Override
+    public int getNumNodes() {
+        return numNodes;
+    }
+
+    @Override
+    public int getNumEdges() {
+        return numEdges;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return numNodes == 0 || numLanguages == 0;
+    }
+
+    @Override
+    public String getLanguage(int lang) {
+        return languages[lang];
+    }
+
+    @Override
+    public int getLanguageId(String language) {
+        Integer id = languageIds.get(language);
+        return (id == null) ? -1 : id;
+    }
+
+    @Override
+    public String getNgram(int node) {
+        char[] chars = new char[n];
+        for (int i = 0; i < n; i++) chars[i] = ngrams.get(node * n + i);
+        return new String(chars);
+    }
+
+    @Override
+    public int getNodeId(CharSequence text, int from) {
+        long key = LIGAModel.pack(text, from, n);
+        if (key == 0) return zeroKeyNode;
+        return probe(nodeKeys, nodeValues, nodeMask, key);
+    }
+
+    @Override
+    public int getEdgeId(int source, int target) {
+        if ((source < 0) || (target < 0)) return -1;
+        long key = LIGAModel.edgeKey(source, target);
+        if (key == 0) return zeroKeyEdge;
+        return probe(edgeKeys, edgeValues, edgeMask, key);
+    }
+
+    @Override
+    public int getEdgeSource(int edge) {
+        return edgeSources.get(edge);
+    }
+
+    @Override
+    public int getEdgeTarget(int edge) {
+        return edgeTargets.get(edge);
+    }
+
+    @Override
+    public int getNodeCount(int node, int lang) {
+        return nodeCounts.get(node * numLanguages + lang);
+    }
+
+    @Override
+    public int getEdgeCount(int edge, int lang) {
+        return edgeCounts.get(edge * numLanguages + lang);
+    }
+
+    @Override
+    public int getNodesTotal(int lang) {
+        return nodesTotal.get(lang);
+    }
+
+    @Override
+    public int getEdgesTotal(int lang) {
+        return edgesTotal.get(lang);
+    }
+
+    @Override
+    public void addNodeCounts(int node, int[] acc) {
+        for (int i = 0, pos = node * numLanguages; i < numLanguages; i++, pos++) acc[i] += nodeCounts.get(pos);
+    }
+
+    @Override
+    public void addEdgeCounts(int edge, int[] acc) {
+        for (int i = 0, pos = edge * numLanguages; i < numLanguages; i++, pos++) acc[i] += edgeCounts.get(pos);
+    }
+
+    /**
+     * looks the key up in the stored hash table, -1 if there is no such key
+     */
+    private static int probe(LongBuffer keys, IntBuffer values, int mask, long key) {
+        int slot = LongIntHashMap.slot(key, mask);
+        while (true) {
+            long k = keys.get(slot);
+            if (k == key) return values.get(slot);
+            if (k == 0) return -1;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * puts the key to the hash table which is being written
+     */
+    private static void putKey(long[] keys, int[] values, long key, int value) {
+        int mask = keys.length - 1;
+        int slot = LongIntHashMap.slot(key, mask);
+        while (keys[slot] != 0) slot = (slot + 1) & mask;
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    /**
+     * part of the buffer starting from the position (the buffer itself is not changed)
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int position) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        return duplicate.slice();
+    }
+
+}
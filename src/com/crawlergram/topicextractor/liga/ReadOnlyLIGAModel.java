@@ -0,0 +1,107 @@
+/*
+ * Title: ReadOnlyLIGAModel.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.topicextractor.liga;
+
+/**
+ * Read access to the LIGA graph: nodes (ngrams), edges, languages and their counts, all addressed by dense int ids.
+ * Implemented by LIGAModel (in memory, trainable) and MappedLIGAModel (memory-mapped binary snapshot).
+ */
+
+public interface ReadOnlyLIGAModel {
+
+    /**
+     * n of ngram
+     */
+    int getN();
+
+    int getNumLanguages();
+
+    int getNumNodes();
+
+    int getNumEdges();
+
+    /**
+     * true if the model has no nodes or no languages
+     */
+    boolean isEmpty();
+
+    /**
+     * language name
+     * @param lang language id
+     */
+    String getLanguage(int lang);
+
+    /**
+     * language id, -1 if there is no such language
+     * @param language language name
+     */
+    int getLanguageId(String language);
+
+    /**
+     * ngram of the node
+     * @param node node id
+     */
+    String getNgram(int node);
+
+    /**
+     * id of the node of ngram text[from, from + n), -1 if there is no such node
+     * @param text text
+     * @param from start of the ngram
+     */
+    int getNodeId(CharSequence text, int from);
+
+    /**
+     * id of the node of ngram, -1 if there is no such node
+     * @param ngram ngram
+     */
+    default int getNodeId(String ngram) {
+        return (ngram.length() == getN()) ? getNodeId(ngram, 0) : -1;
+    }
+
+    /**
+     * id of the edge, -1 if there is no such edge
+     * @param source source node id
+     * @param target target node id
+     */
+    int getEdgeId(int source, int target);
+
+    int getEdgeSource(int edge);
+
+    int getEdgeTarget(int edge);
+
+    int getNodeCount(int node, int lang);
+
+    int getEdgeCount(int edge, int lang);
+
+    /**
+     * total count of the nodes of the language
+     * @param lang language id
+     */
+    int getNodesTotal(int lang);
+
+    /**
+     * total count of the edges of the language
+     * @param lang language id
+     */
+    int getEdgesTotal(int lang);
+
+    /**
+     * adds counts of the node to the per-language accumulator
+     * @param node node id
+     * @param acc accumulator (length - number of languages)
+     */
+    void addNodeCounts(int node, int[] acc);
+
+    /**
+     * adds counts of the edge to the per-language accumulator
+     * @param edge edge id
+     * @param acc accumulator (length - number of languages)
+     */
+    void addEdgeCounts(int edge, int[] acc);
+
+}
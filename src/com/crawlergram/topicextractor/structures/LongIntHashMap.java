@@ -0,0 +1,202 @@
+/*
+ * Title: LongIntHashMap.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.topicextractor.structures;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing (linear probing) hash map with primitive long keys and int values, no boxing and no entry objects.
+ * Key 0 is used as an empty slot marker in the table, so it is stored separately. Values can't be removed.
+ */
+
+public class LongIntHashMap {
+
+    private static final double LOAD_FACTOR = 0.5;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    private boolean hasZeroKey = false;
+    private int zeroValue;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize expected number of keys
+     */
+    public LongIntHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * value of the key, defaultValue if there is no such key
+     * @param key key
+     * @param defaultValue value for absent keys
+     */
+    public int get(long key, int defaultValue) {
+        if (key == 0) return hasZeroKey ? zeroValue : defaultValue;
+        int slot = slot(key, mask);
+        while (true) {
+            long k = keys[slot];
+            if (k == key) return values[slot];
+            if (k == 0) return defaultValue;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) return hasZeroKey;
+        int slot = slot(key, mask);
+        while (true) {
+            long k = keys[slot];
+            if (k == key) return true;
+            if (k == 0) return false;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * puts the value, replaces the old one
+     * @param key key
+     * @param value value
+     */
+    public void put(long key, int value) {
+        if (key == 0) {
+            if (!hasZeroKey) size++;
+            hasZeroKey = true;
+            zeroValue = value;
+            return;
+        }
+        int slot = slot(key, mask);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeAt) rehash(keys.length * 2);
+    }
+
+    /**
+     * adds delta to the value of the key (absent key has value 0), returns the new value
+     * @param key key
+     * @param delta delta
+     */
+    public int addTo(long key, int delta) {
+        if (key == 0) {
+            if (!hasZeroKey) size++;
+            hasZeroKey = true;
+            zeroValue += delta;
+            return zeroValue;
+        }
+        int slot = slot(key, mask);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                values[slot] += delta;
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = delta;
+        if (++size > resizeAt) rehash(keys.length * 2);
+        return delta;
+    }
+
+    /**
+     * adds values of the other map to the values of this one
+     * @param other other map
+     */
+    public void addAll(LongIntHashMap other) {
+        other.forEach(this::addTo);
+    }
+
+    /**
+     * calls the consumer for each key and value (in no particular order)
+     * @param consumer consumer
+     */
+    public void forEach(EntryConsumer consumer) {
+        if (hasZeroKey) consumer.accept(0L, zeroValue);
+        for (int i = 0; i < keys.length; i++)
+            if (keys[i] != 0) consumer.accept(keys[i], values[i]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0L);
+        hasZeroKey = false;
+        zeroValue = 0;
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != 0) {
+                int slot = slot(key, mask);
+                while (keys[slot] != 0) slot = (slot + 1) & mask;
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * power of two table size for the expected number of keys
+     * @param expectedSize expected number of keys
+     */
+    public static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) capacity <<= 1;
+        return capacity;
+    }
+
+    /**
+     * first slot of the key (keys are mixed, packed ngrams and pairs of ids have poor low bits), tables of the same
+     * layout can be stored outside of the map (e.g. in a file) and probed the same way
+     * @param key key
+     * @param mask table size - 1
+     */
+    public static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * consumer of key and value pairs
+     */
+    public interface EntryConsumer {
+        void accept(long key, int value);
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Title: TEDialogResults.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ * 2018
+ */
+
+package com.crawlergram.topicextractor.structures.results;
+
+import com.crawlergram.topicextractor.structures.TEDialog;
+
+/**
+ * Results of the topic extraction for one dialog (DMM and LDA) and the text report of the dialog
+ */
+
+public class TEDialogResults {
+
+    private TEDialog dialog;
+    private TEResults resultsDMM;
+    private TEResults resultsLDA;
+    private String report;
+
+    public TEDialogResults(TEDialog dialog, TEResults resultsDMM, TEResults resultsLDA, String report) {
+        this.dialog = dialog;
+        this.resultsDMM = resultsDMM;
+        this.resultsLDA = resultsLDA;
+        this.report = report;
+    }
+
+    public TEDialog getDialog() {
+        return dialog;
+    }
+
+    public void setDialog(TEDialog dialog) {
+        this.dialog = dialog;
+    }
+
+    public TEResults getResultsDMM() {
+        return resultsDMM;
+    }
+
+    public void setResultsDMM(TEResults resultsDMM) {
+        this.resultsDMM = resultsDMM;
+    }
+
+    public TEResults getResultsLDA() {
+        return resultsLDA;
+    }
+
+    public void setResultsLDA(TEResults resultsLDA) {
+        this.resultsLDA = resultsLDA;
+    }
+
+    public String getReport() {
+        return report;
+    }
+
+    public void setReport(String report) {
+        this.report = report;
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Title: testparallellda.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ */
+
+import com.crawlergram.topicextractor.ldadmm.models.GSLDA;
+import com.crawlergram.topicextractor.ldadmm.utility.RandomProvider;
+import com.crawlergram.topicextractor.structures.message.TEMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class testparallellda {
+
+    /**
+     * Compares convergence (log-likelihood) of the serial and the parallel LDA samplers on a synthetic corpus
+     */
+    public static void main(String[] args) {
+        int numTopics = 10;
+        int iterations = 300;
+        List<TEMessage> msgs = syntheticCorpus(5000, numTopics, 100, 20, 1);
+
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            GSLDA lda = new GSLDA(msgs, numTopics, 0.1, 0.1, iterations, 10, threads, new RandomProvider(42).next());
+            double start = lda.logLikelihood();
+            long time = System.currentTimeMillis();
+            lda.inference();
+            time = System.currentTimeMillis() - time;
+            System.out.println("THREADS: " + threads + " LL: " + start + " -> " + lda.logLikelihood() + " TIME: " + time + " ms");
+        }
+    }
+
+    /**
+     * Documents mostly use the words of their own topic (each topic has its own words)
+     */
+    private static List<TEMessage> syntheticCorpus(int docs, int topics, int wordsPerTopic, int docSize, long seed) {
+        Random rand = new Random(seed);
+        List<TEMessage> msgs = new ArrayList<>();
+        for (int d = 0; d < docs; d++) {
+            int topic = rand.nextInt(topics);
+            StringBuilder sb = new StringBuilder();
+            for (int w = 0; w < docSize; w++) {
+                int t = (rand.nextDouble() < 0.8) ? topic : rand.nextInt(topics);
+                sb.append("t").append(t).append("w").append(rand.nextInt(wordsPerTopic)).append(" ");
+            }
+            TEMessage msg = new TEMessage(d, sb.toString(), 0);
+            msg.setStemmedText(sb.toString());
+            msgs.add(msg);
+        }
+        return msgs;
+    }
+
+}
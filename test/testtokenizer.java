@@ -0,0 +1,226 @@
+/*
+ * Title: testtokenizer.java
+ * Project: telegramJ
+ * Creator: Georgii Mikriukov
+ */
+
+import com.crawlergram.topicextractor.extractormethods.Tokenizer;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class testtokenizer {
+
+    /**
+     * Checks that Tokenizer.tokenizeToList gives exactly the same tokens as the previous regex-based implementation
+     * (OldTokenizer) on hand-written samples and on a random corpus. Optional arg: number of random texts.
+     */
+    public static void main(String[] args) {
+        List<String> corpus = new ArrayList<>(Arrays.asList(
+                "", " ", "  leading and trailing  ", "Hello, World!", "web-development is fun",
+                "visit https://example.com/path?q=1 or www.google.com now", "youtube.com/watch?v=oHg5SJYRHA0",
+                "mail me: mailto:someone@example.com", "e.g. i.e. etc.", "3.14 -2 +5 1e10 0x1p3 NaN Infinity -Infinity",
+                "2kb 15mb 3sec 15s 2h 15hours 2m 15meters 2k 15ish 1st 2nd 3rd 4th 6pm 2am 0xCAFE1 ABBA CAFE",
+                "1000000000000000000000000000000000000 short a ab abc", "sooooo cooool!!! yesss nooo aaah zzz",
+                "ааааа ппривет 15мб 2ч 3сек 5км 10ый 2ой", "don't it’s ‘quoted’ “double” «guillemets» ‹single›",
+                "emoji \uD83D\uDE00 inside\uD83D\uDE00word 漢字 テスト ✓check ⟨angle⟩ ※mark",
+                "tabs\tand\nnew\rlines\u000Band\fform feeds", "next\u0085line 2kb\u0085 aaa\u0085",
+                "line\u2028sep para\u2029sep nbsp\u00A0space", "a—b–c…d§e°f©g®h™i℗j℠k≠l¿m¡n´o",
+                "__init__ a_b C++ c# .net node.js v1.2.3 1.2.3.4 192.168.0.1:8080", "AAA BBB aAa ÀÀÀ ÉÉÉclair",
+                "x:y a:b: http:// ftp://x file://y irc://z ssh://w telnet://v nfs://u"
+        ));
+        int random = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        corpus.addAll(randomCorpus(random, 42));
+
+        int mismatches = 0;
+        long timeOld = 0, timeNew = 0;
+        for (String text : corpus) {
+            long t = System.nanoTime();
+            List<String> expected = OldTokenizer.tokenizeToList(text);
+            timeOld += System.nanoTime() - t;
+            t = System.nanoTime();
+            List<String> actual = Tokenizer.tokenizeToList(text);
+            timeNew += System.nanoTime() - t;
+            if (!expected.equals(actual)) {
+                mismatches++;
+                if (mismatches <= 20) {
+                    System.out.println("MISMATCH: " + escape(text));
+                    System.out.println("  OLD: " + expected);
+                    System.out.println("  NEW: " + actual);
+                }
+            }
+        }
+        System.out.println("TEXTS: " + corpus.size() + " MISMATCHES: " + mismatches);
+        System.out.println("OLD: " + timeOld / 1000000 + " ms, NEW: " + timeNew / 1000000 + " ms");
+    }
+
+    /**
+     * random texts made of words, links, numbers, punctuation, repeated chars and non-latin characters
+     */
+    private static List<String> randomCorpus(int size, long seed) {
+        Random rand = new Random(seed);
+        String[] parts = {"a", "b", "o", "z", "A", "Z", "п", "р", "и", "в", "е", "т", "й", "ö", "ß", "é", "1", "2", "0",
+                "9", "x", "k", "m", "s", "h", "b", "б", "с", "ч", "м", "к", "ish", "th", "st", "am", "pm", "ec", "ond",
+                "eter", "our", "yte", "it", "ый", ".", ",", "!", "?", "-", "_", "'", "’", "‘", "\"", "“", "«", "»",
+                "…", "—", "–", "/", ":", "@", "~", "#", "(", ")", "http://", "https://", "www.", "mailto:", ".com",
+                ".ru", "/path", "?v=1", " ", " ", " ", "  ", "\t", "\n", "\u0085", "\u2028", "\u00A0",
+                "\uD83D\uDE00", "\uD83D", "\u2603", "漢", "e", "E", "+", "NaN", "Infinity", "0x"};
+        List<String> corpus = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            StringBuilder sb = new StringBuilder();
+            int len = 1 + rand.nextInt(30);
+            for (int j = 0; j < len; j++) {
+                String part = parts[rand.nextInt(parts.length)];
+                int repeats = (rand.nextInt(8) == 0) ? 2 + rand.nextInt(4) : 1;
+                for (int r = 0; r < repeats; r++) sb.append(part);
+            }
+            corpus.add(sb.toString());
+        }
+        return corpus;
+    }
+
+    private static String escape(String text) {
+        StringBuilder sb = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            if ((c < 32) || (c > 126)) sb.append(String.format("\\u%04X", (int) c));
+            else sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Previous implementation of the tokenizer (reference)
+     */
+    private static class OldTokenizer {
+
+        final private static String PUNCT = "[\\p{Punct}–…‹›§«»¿¡!?≠\'´\"‘’“”⟨⟩°※©℗®℠™—]"; // punctuation
+        final private static String CHAR_REPEATS_BEG = "^((.)\\2)\\2+"; // same char doesn't repeat more than once at the beginning
+        final private static String CHAR_REPEATS_MID_END = "((.)\\2)\\2+"; // same char doesn't appear more than twice at mid and end
+        final private static String DATASIZES = "^[0-9]+([kmgtp])?([bб])(it|yte|ит|айт)?(s)?$"; // data sizes
+        final private static String SECONDS = "^[0-9]+([nmнм])?([sс])(ec|ек)?(ond)?(s)?$"; // seconds
+        final private static String HOURS = "^[0-9]+([hч])(our)?(s)?$"; // hours
+        final private static String METERS = "^[0-9]+([skmcdnкмдн])?([mм])(eter)?(s)?$"; // meters
+        final private static String TIME = "^[0-9]+(ap)m$"; // time
+        final private static String NUMBERS_SUP = "^[0-9]+(([kmкм])+|(ish|th|nd|st|rd|g|x|ый|ой|ий))?[0-9]*$"; // numbers
+        final private static String HEX = "^([0]+x)[0-9a-f]+$"; // hexadecimal 0xCAFE1 (doesn't match words like ABBA or CAFE)
+        final private static String CHAR_FILTER = "[^\u0000-\u1FFF]"; // filters all the characters that fall out this list
+
+        /**
+         * Tokenizes text to list of strings
+         *
+         * @param text original text
+         */
+        static List<String> tokenizeToList(String text) {
+            List<String> tokens = getSimpleTokens(text);
+            return getTokenCompounds(tokens);
+        }
+
+        /**
+         * Tokenization method for strings. Returns tokens with punctuation (except of web links and numbers).
+         * Simple tokens can contain compounds (e.g. web-development: web, development).
+         *
+         * @param text original message text
+         */
+        private static List<String> getSimpleTokens(String text) {
+            String[] tokensA = text.split("\\s+");
+            List<String> tokens = new LinkedList<>();
+            for (String token : tokensA) {
+                if (tokenCheck(token)) {
+                    tokens.add(token.replaceAll("['‘’]", ""));
+                }
+            }
+            return tokens;
+        }
+
+        /**
+         * Tokenization method for strings. Returns compounds of simple tokens (e.g. web-development: web, development).
+         *
+         * @param tokens simple tokens
+         */
+        private static List<String> getTokenCompounds(List<String> tokens) {
+            List<String> tokensL = new LinkedList<>();
+            for (String token : tokens) {
+                String[] tokensA = token.split(PUNCT);
+                for (String tokenA : tokensA) {
+                    tokenA = compoundTokenEdit(tokenA);
+                    if (tokenCheck(tokenA)) {
+                        tokensL.add(tokenA);
+                    }
+                }
+            }
+            return tokensL;
+        }
+
+        /**
+         * various checks: emptiness, number check, link check, etc.
+         *
+         * @param token original token
+         */
+        private static boolean tokenCheck(String token) {
+            return !token.isEmpty()
+                    && !tokenIsLink(token)
+                    && !tokenIsNumber(token.replaceAll(PUNCT, ""))
+                    && !tokensLengthIsNotOk(token, 1, 30);
+        }
+
+        /**
+         * checks if token is web link
+         *
+         * @param token original token
+         */
+        private static boolean tokenIsLink(String token) {
+            // http(s), www, ftp links
+            String p1 = ".*(http://|https://|ftp://|file://|mailto:|nfs://|irc://|ssh://|telnet://|www\\.).+";
+            // short links of type: youtube.com & youtube.com/watch?v=oHg5SJYRHA0
+            String p2 = "^[A-Za-z0-9_.-~@]+\\.[A-Za-z0-9_.-~@]+(/.*)?";
+            Pattern pat = Pattern.compile("(" + p1 + ")" + "|" + "(" + p2 + ")");
+            Matcher mat = pat.matcher(token);
+            return mat.matches();
+        }
+
+        /**
+         * checks if token can be casted into double
+         */
+        private static boolean tokenIsNumber(String token) {
+            try {
+                Double.parseDouble(token);
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        /**
+         * checks if token is longer than min and shorter than max
+         *
+         * @param token original token
+         * @param min   minimal length of token (inclusive)
+         * @param max   maximal length of token (inclusive)
+         */
+        private static boolean tokensLengthIsNotOk(String token, int min, int max) {
+            return !((token.length() <= max) && (token.length() >= min));
+        }
+
+        /**
+         * Replaces given patterns from token
+         *
+         * @param token token
+         */
+        private static String compoundTokenEdit(String token) {
+            String temp = token.toLowerCase();
+            temp = temp.replaceAll(CHAR_FILTER, ""); //removes redundant characters, emoticons and so on
+            temp = temp.replaceAll(CHAR_REPEATS_BEG, "$2"); // removes multiple char repeats a the beginning
+            temp = temp.replaceAll(CHAR_REPEATS_MID_END, "$2$2"); // removes char repeats (more than twice)
+            temp = temp.replaceAll(DATASIZES, ""); // removes tokens such as 2kb, 15mb etc.
+            temp = temp.replaceAll(SECONDS, ""); // removes tokens such as 2sec, 15s etc.
+            temp = temp.replaceAll(HOURS, ""); // removes tokens such as 2h, 15hours etc.
+            temp = temp.replaceAll(METERS, ""); // removes tokens such as 2m, 15meters etc.
+            temp = temp.replaceAll(NUMBERS_SUP, ""); // removes tokens such as 2k, 15ish etc.
+            temp = temp.replaceAll(TIME, ""); // removes tokens such as 2am 6pm
+            temp = temp.replaceAll(HEX, ""); // removes hexadecimal numbers
+            return temp;
+        }
+    }
+
+}